@@ -0,0 +1,394 @@
+package app.ampersandor.spring_ai_demo.advisor;
+
+import app.ampersandor.spring_ai_demo.vectorstore.VectorMath;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientAttributes;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Answers a prompt from a previous answer when an earlier user message was semantically close enough.
+ * <p>
+ * The user message is embedded and compared (cosine) with the cached questions of the same scope; a match at or
+ * above {@code similarityThreshold} short-circuits the rest of the chain (query expansion, translation, retrieval
+ * and generation). For {@code stream()} the cached answer is replayed word by word, so clients see the same kind
+ * of stream as for a generated answer. The scope is the application mode, the system prompt, the
+ * {@link ChatOptions} (model, temperature, top-p, max tokens), the structured output format
+ * ({@link ChatClientAttributes#OUTPUT_FORMAT}), the {@link VectorStoreDocumentRetriever#FILTER_EXPRESSION} and the
+ * conversation history in front of the user message (as a SHA-256 of the full text), so a follow-up question is
+ * never answered from another conversation and an entity request never gets a free-text answer.
+ * <p>
+ * Entries expire after {@code ttl}; when {@code maxEntries} is reached the least recently used entry is evicted.
+ * {@link #invalidateAll()} drops every entry, e.g. after the vector index changed.
+ * Lookups are counted in {@code chat.semantic.cache.lookups} by result.
+ * <p>
+ * Runs inside the chat memory advisor, so cached exchanges are still recorded in the conversation.
+ */
+public class SemanticCacheAdvisor implements CallAdvisor, StreamAdvisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SemanticCacheAdvisor.class);
+
+    /**
+     * Context parameter that skips the cache for one request when set to {@code true}.
+     */
+    public static final String BYPASS = "semantic_cache_bypass";
+
+    /**
+     * Response metadata key set to {@code true} on answers served from the cache.
+     */
+    public static final String CACHE_HIT_METADATA_KEY = "semantic_cache_hit";
+
+    public static final int DEFAULT_ORDER = Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER + 500;
+
+    private final EmbeddingModel embeddingModel;
+
+    private final String mode;
+
+    private final double similarityThreshold;
+
+    private final long ttlNanos;
+
+    private final int maxEntries;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, List<Entry>> entriesByScope = new HashMap<>();
+
+    private int size;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter bypasses;
+
+    private static final class Entry {
+
+        private final float[] embedding;
+
+        private final String question;
+
+        private final String answer;
+
+        private final long createdAt;
+
+        private volatile long lastUsed;
+
+        Entry(float[] embedding, String question, String answer, long createdAt) {
+            this.embedding = embedding;
+            this.question = question;
+            this.answer = answer;
+            this.createdAt = createdAt;
+            this.lastUsed = createdAt;
+        }
+    }
+
+    private record Lookup(String scope, float[] embedding, String question) {
+    }
+
+    /**
+     * Result of the blocking part of a streamed request; both fields may be {@code null}.
+     */
+    private record Prepared(Lookup lookup, String answer) {
+    }
+
+    /**
+     * @param mode application mode ({@code app.mode}), part of the cache scope
+     * @param similarityThreshold minimum cosine similarity between two user messages to reuse the answer
+     */
+    public SemanticCacheAdvisor(EmbeddingModel embeddingModel, String mode, double similarityThreshold,
+            Duration ttl, int maxEntries, MeterRegistry meterRegistry) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive.");
+        }
+        this.embeddingModel = embeddingModel;
+        this.mode = mode;
+        this.similarityThreshold = similarityThreshold;
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.hits = lookupCounter(meterRegistry, "hit");
+        this.misses = lookupCounter(meterRegistry, "miss");
+        this.bypasses = lookupCounter(meterRegistry, "bypass");
+        Gauge.builder("chat.semantic.cache.entries", this, SemanticCacheAdvisor::size)
+                .description("Answers held by the semantic response cache")
+                .register(meterRegistry);
+        Gauge.builder("chat.semantic.cache.hit.ratio", this, SemanticCacheAdvisor::hitRatio)
+                .description("Share of cacheable prompts answered from the semantic response cache")
+                .register(meterRegistry);
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.semantic.cache.lookups")
+                .description("Semantic response cache lookups by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return "SemanticCacheAdvisor";
+    }
+
+    @Override
+    public int getOrder() {
+        return DEFAULT_ORDER;
+    }
+
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.size;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public double hitRatio() {
+        double lookups = this.hits.count() + this.misses.count();
+        return lookups == 0 ? 0 : this.hits.count() / lookups;
+    }
+
+    /**
+     * Drops every cached answer; call it when the indexed documents changed.
+     */
+    public void invalidateAll() {
+        this.lock.writeLock().lock();
+        try {
+            this.entriesByScope.clear();
+            this.size = 0;
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+        logger.info("Semantic response cache invalidated");
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest request, CallAdvisorChain chain) {
+        Lookup lookup = prepare(request);
+        if (lookup != null) {
+            String answer = find(lookup);
+            if (answer != null) {
+                return ChatClientResponse.builder().chatResponse(cachedResponse(answer))
+                        .context(request.context()).build();
+            }
+        }
+        ChatClientResponse response = chain.nextCall(request);
+        if (lookup != null) {
+            store(lookup, response.chatResponse());
+        }
+        return response;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest request, StreamAdvisorChain chain) {
+        // 임베딩 호출은 블로킹이므로 요청 스레드(event loop) 밖에서 수행한다
+        return Mono.fromCallable(() -> {
+                    Lookup lookup = prepare(request);
+                    return new Prepared(lookup, lookup != null ? find(lookup) : null);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(prepared -> {
+                    if (prepared.answer() != null) {
+                        return replay(prepared.answer(), request);
+                    }
+                    Flux<ChatClientResponse> responses = chain.nextStream(request);
+                    if (prepared.lookup() == null) {
+                        return responses;
+                    }
+                    return new ChatClientMessageAggregator().aggregateChatClientResponse(responses,
+                            aggregated -> store(prepared.lookup(), aggregated.chatResponse()));
+                });
+    }
+
+    /**
+     * Builds the scope and embedding of a cacheable request, or returns {@code null} when the cache is bypassed.
+     */
+    private Lookup prepare(ChatClientRequest request) {
+        Prompt prompt = request.prompt();
+        String question = prompt.getUserMessage() != null ? prompt.getUserMessage().getText() : null;
+        if (Boolean.TRUE.equals(request.context().get(BYPASS)) || !StringUtils.hasText(question)) {
+            this.bypasses.increment();
+            return null;
+        }
+        float[] embedding = VectorMath.normalize(this.embeddingModel.embed(question.strip()));
+        return new Lookup(scope(prompt, request.context()), embedding, question);
+    }
+
+    private String scope(Prompt prompt, Map<String, Object> context) {
+        Object filterExpression = context.get(VectorStoreDocumentRetriever.FILTER_EXPRESSION);
+        // 모델/샘플링 옵션이나 출력 형식이 다르면 같은 질문이라도 다른 답을 기대한다
+        ChatOptions options = prompt.getOptions();
+        String optionsKey = options == null ? "" : String.join(",", Objects.toString(options.getModel(), ""),
+                Objects.toString(options.getTemperature(), ""), Objects.toString(options.getTopP(), ""),
+                Objects.toString(options.getMaxTokens(), ""));
+        return String.join("\u0000", this.mode,
+                Objects.toString(prompt.getSystemMessage() != null ? prompt.getSystemMessage().getText() : null, ""),
+                optionsKey, Objects.toString(context.get(ChatClientAttributes.OUTPUT_FORMAT.getKey()), ""),
+                Objects.toString(filterExpression, ""),
+                historyDigest(prompt.getInstructions()));
+    }
+
+    /**
+     * SHA-256 of the messages in front of the last user message (without system messages), or {@code ""} for the
+     * first turn of a conversation.
+     */
+    private static String historyDigest(List<Message> instructions) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        boolean empty = true;
+        // 마지막 사용자 메시지 앞의 대화 이력이 같아야 같은 질문으로 본다
+        for (int i = 0; i < instructions.size() - 1; i++) {
+            Message message = instructions.get(i);
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                continue;
+            }
+            byte[] text = Objects.toString(message.getText(), "").getBytes(StandardCharsets.UTF_8);
+            // 길이를 앞에 붙여 메시지 경계가 달라도 같은 바이트열이 되지 않게 한다
+            digest.update(message.getMessageType().name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Integer.toString(text.length).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(text);
+            empty = false;
+        }
+        return empty ? "" : HexFormat.of().formatHex(digest.digest());
+    }
+
+    private String find(Lookup lookup) {
+        long now = System.nanoTime();
+        Entry best = null;
+        float bestScore = (float) this.similarityThreshold;
+        this.lock.readLock().lock();
+        try {
+            for (Entry entry : this.entriesByScope.getOrDefault(lookup.scope(), List.of())) {
+                if (now - entry.createdAt > this.ttlNanos) {
+                    continue;
+                }
+                float score = VectorMath.dot(lookup.embedding(), entry.embedding);
+                if (score >= bestScore) {
+                    best = entry;
+                    bestScore = score;
+                }
+            }
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+        if (best == null) {
+            this.misses.increment();
+            return null;
+        }
+        best.lastUsed = now;
+        this.hits.increment();
+        logger.debug("Semantic cache hit ({}) for '{}' with '{}'", "%.3f".formatted(bestScore), lookup.question(),
+                best.question);
+        return best.answer;
+    }
+
+    private void store(Lookup lookup, ChatResponse response) {
+        if (response == null || response.getResult() == null) {
+            return;
+        }
+        AssistantMessage output = response.getResult().getOutput();
+        // 도구 호출 중간 응답이나 빈 응답은 재사용할 답이 아니다
+        if (output == null || output.hasToolCalls() || !StringUtils.hasText(output.getText())) {
+            return;
+        }
+        long now = System.nanoTime();
+        this.lock.writeLock().lock();
+        try {
+            if (this.size >= this.maxEntries) {
+                evict(now);
+            }
+            this.entriesByScope.computeIfAbsent(lookup.scope(), scope -> new ArrayList<>())
+                    .add(new Entry(lookup.embedding(), lookup.question(), output.getText(), now));
+            this.size++;
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes expired entries, or the least recently used one when none has expired. Caller holds the write lock.
+     */
+    private void evict(long now) {
+        Entry lru = null;
+        List<Entry> lruScope = null;
+        for (List<Entry> entries : this.entriesByScope.values()) {
+            int before = entries.size();
+            entries.removeIf(entry -> now - entry.createdAt > this.ttlNanos);
+            this.size -= before - entries.size();
+            for (Entry entry : entries) {
+                if (lru == null || entry.lastUsed < lru.lastUsed) {
+                    lru = entry;
+                    lruScope = entries;
+                }
+            }
+        }
+        if (this.size >= this.maxEntries && lru != null) {
+            lruScope.remove(lru);
+            this.size--;
+        }
+        this.entriesByScope.values().removeIf(List::isEmpty);
+    }
+
+    private static ChatResponse cachedResponse(String answer) {
+        return ChatResponse.builder()
+                .generations(List.of(new Generation(new AssistantMessage(answer))))
+                .metadata(ChatResponseMetadata.builder().keyValue(CACHE_HIT_METADATA_KEY, true).build())
+                .build();
+    }
+
+    /**
+     * Replays a cached answer as a stream of word-sized chunks.
+     */
+    private static Flux<ChatClientResponse> replay(String answer, ChatClientRequest request) {
+        return Flux.fromArray(answer.split("(?<=\\s)(?=\\S)"))
+                .map(chunk -> ChatClientResponse.builder().chatResponse(cachedResponse(chunk))
+                        .context(request.context()).build());
+    }
+}
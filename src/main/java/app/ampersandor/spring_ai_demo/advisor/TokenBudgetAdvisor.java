@@ -0,0 +1,228 @@
+package app.ampersandor.spring_ai_demo.advisor;
+
+import app.ampersandor.spring_ai_demo.memory.SummarizingChatMemory;
+import app.ampersandor.spring_ai_demo.token.TokenEstimator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.advisor.RetrievalAugmentationAdvisor;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps every prompt within {@code maxPromptTokens}, as estimated by {@link TokenEstimator}.
+ * <p>
+ * Runs after the chat memory advisor has added the history and before retrieval augmentation. The system prompt
+ * and the new user message are never touched; if together with the history they leave less than
+ * {@code documentReserve} tokens for retrieved documents, whole turns of history are dropped, oldest first (a
+ * conversation summary counts as the oldest). What is left of the budget is passed to the retrieval pipeline in
+ * the {@value #DOCUMENT_BUDGET} context parameter, where {@code TokenBudgetDocumentPostProcessor} drops the
+ * lowest-scoring documents until they fit.
+ * <p>
+ * The estimated tokens of each prompt part are recorded in {@code chat.tokens.estimated} by {@code part}, dropped
+ * history messages in {@code chat.tokens.trimmed}, and prompts still over budget with no history left in
+ * {@code chat.tokens.budget.exceeded}. Blocking responses carry the {@link TokenAccount} of their request in the
+ * {@value #TOKEN_ACCOUNT} context entry.
+ */
+public class TokenBudgetAdvisor implements CallAdvisor, StreamAdvisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenBudgetAdvisor.class);
+
+    /**
+     * Context parameter with the tokens left for retrieved documents.
+     */
+    public static final String DOCUMENT_BUDGET = "token_budget_documents";
+
+    /**
+     * Response context entry with the {@link TokenAccount} of the request.
+     */
+    public static final String TOKEN_ACCOUNT = "token_budget_account";
+
+    public static final int DEFAULT_ORDER = Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER + 600;
+
+    private final int maxPromptTokens;
+
+    private final int documentReserve;
+
+    private final Map<String, DistributionSummary> estimatedTokens = new HashMap<>();
+
+    private final Counter trimmedMessages;
+
+    private final Counter budgetExceeded;
+
+    /**
+     * Estimated prompt tokens of one request by part, the history messages dropped to fit the budget and, when the
+     * model reported usage, the prompt tokens it actually counted.
+     */
+    public record TokenAccount(int system, int memory, int user, int documents, int trimmedMessages,
+            Integer promptTokens) {
+
+        public int estimated() {
+            return this.system + this.memory + this.user + this.documents;
+        }
+    }
+
+    /**
+     * Result of {@link #trim}: the request to send on and its accounting so far.
+     */
+    private record Trimmed(ChatClientRequest request, int system, int memory, int user, int trimmedMessages) {
+    }
+
+    /**
+     * @param maxPromptTokens estimated prompt tokens allowed per request
+     * @param documentReserve tokens kept free for retrieved documents when trimming history, 0 without retrieval
+     */
+    public TokenBudgetAdvisor(int maxPromptTokens, int documentReserve, MeterRegistry meterRegistry) {
+        if (maxPromptTokens <= 0 || documentReserve < 0 || documentReserve >= maxPromptTokens) {
+            throw new IllegalArgumentException(
+                    "maxPromptTokens must be positive and documentReserve between 0 and maxPromptTokens.");
+        }
+        this.maxPromptTokens = maxPromptTokens;
+        this.documentReserve = documentReserve;
+        for (String part : List.of("system", "memory", "user", "documents")) {
+            this.estimatedTokens.put(part, DistributionSummary.builder("chat.tokens.estimated")
+                    .description("Estimated prompt tokens per request by prompt part")
+                    .baseUnit("tokens")
+                    .tag("part", part)
+                    .register(meterRegistry));
+        }
+        this.trimmedMessages = Counter.builder("chat.tokens.trimmed")
+                .description("Prompt parts dropped to stay within the token budget")
+                .tag("part", "memory")
+                .register(meterRegistry);
+        this.budgetExceeded = Counter.builder("chat.tokens.budget.exceeded")
+                .description("Prompts over the token budget after dropping all history")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return "TokenBudgetAdvisor";
+    }
+
+    @Override
+    public int getOrder() {
+        return DEFAULT_ORDER;
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest request, CallAdvisorChain chain) {
+        Trimmed trimmed = trim(request);
+        ChatClientResponse response = chain.nextCall(trimmed.request());
+        TokenAccount account = account(trimmed, response);
+        Map<String, Object> context = new HashMap<>(response.context());
+        context.put(TOKEN_ACCOUNT, account);
+        return ChatClientResponse.builder().chatResponse(response.chatResponse()).context(context).build();
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest request, StreamAdvisorChain chain) {
+        Trimmed trimmed = trim(request);
+        return new ChatClientMessageAggregator().aggregateChatClientResponse(chain.nextStream(trimmed.request()),
+                aggregated -> account(trimmed, aggregated));
+    }
+
+    private Trimmed trim(ChatClientRequest request) {
+        List<Message> messages = request.prompt().getInstructions();
+        int userIndex = -1;
+        for (int i = messages.size() - 1; i >= 0 && userIndex < 0; i--) {
+            if (messages.get(i).getMessageType() == MessageType.USER) {
+                userIndex = i;
+            }
+        }
+        int[] tokens = new int[messages.size()];
+        boolean[] history = new boolean[messages.size()];
+        int system = 0;
+        int memory = 0;
+        int user = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            tokens[i] = TokenEstimator.estimate(message);
+            if (i == userIndex) {
+                user = tokens[i];
+            }
+            else if (message.getMessageType() == MessageType.SYSTEM
+                    && !message.getMetadata().containsKey(SummarizingChatMemory.SUMMARY_METADATA)) {
+                system += tokens[i];
+            }
+            else {
+                history[i] = true;
+                memory += tokens[i];
+            }
+        }
+        int limit = this.maxPromptTokens - this.documentReserve;
+        boolean[] dropped = new boolean[messages.size()];
+        int trimmedMessages = 0;
+        // 가장 오래된 턴부터 통째로 버린다 (user 메시지와 그 뒤의 응답, tool 메시지까지)
+        for (int i = 0; i < messages.size() && system + memory + user > limit; i++) {
+            if (!history[i]) {
+                continue;
+            }
+            do {
+                dropped[i] = true;
+                memory -= tokens[i];
+                trimmedMessages++;
+                i++;
+            }
+            while (i < messages.size() && history[i] && messages.get(i).getMessageType() != MessageType.USER
+                    && messages.get(i).getMessageType() != MessageType.SYSTEM);
+            i--;
+        }
+        if (system + memory + user > limit) {
+            this.budgetExceeded.increment();
+            logger.debug("Prompt needs {} estimated tokens without history, budget is {}", system + user, limit);
+        }
+        ChatClientRequest.Builder builder = request.mutate()
+                .context(DOCUMENT_BUDGET, Math.max(0, this.maxPromptTokens - system - memory - user));
+        if (trimmedMessages > 0) {
+            List<Message> kept = new ArrayList<>(messages.size() - trimmedMessages);
+            for (int i = 0; i < messages.size(); i++) {
+                if (!dropped[i]) {
+                    kept.add(messages.get(i));
+                }
+            }
+            builder.prompt(new Prompt(kept, request.prompt().getOptions()));
+            this.trimmedMessages.increment(trimmedMessages);
+        }
+        return new Trimmed(builder.build(), system, memory, user, trimmedMessages);
+    }
+
+    private TokenAccount account(Trimmed trimmed, ChatClientResponse response) {
+        int documents = 0;
+        if (response.context().get(RetrievalAugmentationAdvisor.DOCUMENT_CONTEXT) instanceof List<?> retrieved) {
+            for (Object document : retrieved) {
+                if (document instanceof Document retrievedDocument) {
+                    documents += TokenEstimator.estimate(retrievedDocument.getText());
+                }
+            }
+        }
+        Usage usage = response.chatResponse() != null ? response.chatResponse().getMetadata().getUsage() : null;
+        TokenAccount account = new TokenAccount(trimmed.system(), trimmed.memory(), trimmed.user(), documents,
+                trimmed.trimmedMessages(), usage != null ? usage.getPromptTokens() : null);
+        this.estimatedTokens.get("system").record(account.system());
+        this.estimatedTokens.get("memory").record(account.memory());
+        this.estimatedTokens.get("user").record(account.user());
+        this.estimatedTokens.get("documents").record(account.documents());
+        logger.debug("Prompt tokens: {}", account);
+        return account;
+    }
+}
@@ -0,0 +1,164 @@
+package app.ampersandor.spring_ai_demo.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-memory cache with per-entry TTL and least-recently-used eviction that also coalesces concurrent
+ * loads: while a value is being loaded, other callers asking for the same key wait for that load instead of
+ * starting their own (single flight). Failed loads are not cached and the failure is rethrown to every waiter.
+ * <p>
+ * Lookups are counted in {@code cache.lookups} tagged with the cache {@code name} and the result
+ * ({@code hit}, {@code miss} or {@code coalesced}).
+ *
+ * @param <K> key type, must implement {@code equals}/{@code hashCode}
+ * @param <V> value type, {@code null} values are not cached
+ */
+public class SingleFlightCache<K, V> {
+
+    private final long ttlNanos;
+
+    private final Map<K, Entry<V>> entries;
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter coalesced;
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+
+    public SingleFlightCache(String name, int maxEntries, Duration ttl, MeterRegistry meterRegistry) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive.");
+        }
+        this.ttlNanos = ttl.toNanos();
+        // access-order LinkedHashMap: 가장 오래 사용되지 않은 항목부터 제거된다
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = lookupCounter(meterRegistry, name, "hit");
+        this.misses = lookupCounter(meterRegistry, name, "miss");
+        this.coalesced = lookupCounter(meterRegistry, name, "coalesced");
+        Gauge.builder("cache.entries", this, SingleFlightCache::size)
+                .description("Entries held by the cache")
+                .tag("cache", name)
+                .register(meterRegistry);
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String name, String result) {
+        return Counter.builder("cache.lookups")
+                .description("Cache lookups by outcome")
+                .tag("cache", name)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * Returns the cached value of {@code key}, joins a load already running for it, or loads it with
+     * {@code loader} on the calling thread.
+     */
+    public V get(K key, Supplier<V> loader) {
+        V cached = getIfPresent(key);
+        if (cached != null) {
+            this.hits.increment();
+            return cached;
+        }
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> running = this.inFlight.putIfAbsent(key, load);
+        if (running != null) {
+            this.coalesced.increment();
+            return await(running);
+        }
+        try {
+            // 앞선 load 가 값을 저장하고 inFlight 에서 빠진 직후일 수 있으므로 다시 확인한다
+            V value = getIfPresent(key);
+            if (value != null) {
+                this.hits.increment();
+                load.complete(value);
+                return value;
+            }
+            this.misses.increment();
+            value = loader.get();
+            if (value != null) {
+                put(key, value);
+            }
+            load.complete(value);
+            return value;
+        }
+        catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            this.inFlight.remove(key, load);
+        }
+    }
+
+    public V getIfPresent(K key) {
+        synchronized (this.entries) {
+            Entry<V> entry = this.entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.expiresAt() > 0) {
+                this.entries.remove(key);
+                return null;
+            }
+            return entry.value();
+        }
+    }
+
+    public void put(K key, V value) {
+        synchronized (this.entries) {
+            this.entries.put(key, new Entry<>(value, System.nanoTime() + this.ttlNanos));
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> running) {
+        try {
+            return running.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a concurrent load", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package app.ampersandor.spring_ai_demo.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Limits the concurrent calls to one upstream model with a limit that follows its latency (gradient algorithm).
+ * <p>
+ * Each window of at least a second and {@value #WINDOW_SAMPLES} completed calls, the average latency of the window
+ * is compared with its average over the last {@value #LONG_WINDOWS} windows. While the window is not more than
+ * {@value #TOLERANCE} times slower the limit grows by about the square root of itself; when latency rises beyond
+ * that, the upstream is queueing and the limit shrinks in proportion. Changes are smoothed, a window with failed
+ * calls cuts the limit by 10%, and the limit only grows while the calls actually use at least half of it. Because
+ * both averages see cached answers in the same proportion, fast cache hits do not distort the ratio.
+ * <p>
+ * Calls over the limit wait up to {@code maxQueueWait} in a queue of at most {@code maxQueue} calls. When the queue
+ * is full the call fails at once with 429, when the wait runs out with 503 (see
+ * {@link ConcurrencyLimitExceededException}).
+ * <p>
+ * The limit, calls in flight and queued calls are published as {@code chat.concurrency.limit},
+ * {@code chat.concurrency.in.flight} and {@code chat.concurrency.queued}, the time admitted calls waited as
+ * {@code chat.concurrency.queue.wait} and rejected calls as {@code chat.concurrency.rejections} by
+ * {@code reason}, all tagged with the {@code model}.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final int WINDOW_SAMPLES = 10;
+
+    private static final long MIN_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int LONG_WINDOWS = 600;
+
+    private static final double TOLERANCE = 1.5;
+
+    private static final double SMOOTHING = 0.2;
+
+    private static final double DROP_DECREASE = 0.9;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int maxQueue;
+
+    private final long maxQueueWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = this.lock.newCondition();
+
+    private double estimatedLimit;
+
+    private volatile int limit;
+
+    private volatile int inFlight;
+
+    private volatile int queued;
+
+    private double longRtt;
+
+    private double windowRttSum;
+
+    private int windowSamples;
+
+    private int windowDrops;
+
+    private int windowMaxInFlight;
+
+    private long windowStart = System.nanoTime();
+
+    private final Timer queueWait;
+
+    private final Counter queueFull;
+
+    private final Counter queueTimeout;
+
+    /**
+     * @param model tag of the metrics
+     * @param maxQueue calls allowed to wait for a permit, 0 to reject at once when the limit is reached
+     */
+    public AdaptiveConcurrencyLimiter(String model, int initialLimit, int minLimit, int maxLimit, int maxQueue,
+            Duration maxQueueWait, MeterRegistry meterRegistry) {
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit || maxQueue < 0) {
+            throw new IllegalArgumentException(
+                    "Limits must satisfy 0 < minLimit <= initialLimit <= maxLimit and maxQueue must not be negative.");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.maxQueueWaitNanos = maxQueueWait.toNanos();
+        this.estimatedLimit = initialLimit;
+        this.limit = initialLimit;
+        Gauge.builder("chat.concurrency.limit", this, AdaptiveConcurrencyLimiter::limit)
+                .description("Current concurrency limit of model calls")
+                .tag("model", model)
+                .register(meterRegistry);
+        Gauge.builder("chat.concurrency.in.flight", this, AdaptiveConcurrencyLimiter::inFlight)
+                .description("Model calls in flight")
+                .tag("model", model)
+                .register(meterRegistry);
+        Gauge.builder("chat.concurrency.queued", this, AdaptiveConcurrencyLimiter::queued)
+                .description("Model calls waiting for a permit")
+                .tag("model", model)
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("chat.concurrency.queue.wait")
+                .description("Time model calls waited for a permit")
+                .tag("model", model)
+                .register(meterRegistry);
+        this.queueFull = rejectionCounter(meterRegistry, model, "queue_full");
+        this.queueTimeout = rejectionCounter(meterRegistry, model, "queue_timeout");
+    }
+
+    private static Counter rejectionCounter(MeterRegistry meterRegistry, String model, String reason) {
+        return Counter.builder("chat.concurrency.rejections")
+                .description("Model calls rejected by the concurrency limiter by reason")
+                .tag("model", model)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    public int limit() {
+        return this.limit;
+    }
+
+    public int inFlight() {
+        return this.inFlight;
+    }
+
+    public int queued() {
+        return this.queued;
+    }
+
+    /**
+     * Runs {@code call} once a permit is available and feeds its latency, or its failure, into the limit.
+     *
+     * @throws ConcurrencyLimitExceededException if no permit could be obtained
+     */
+    public <T> T execute(Supplier<T> call) {
+        acquire();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.get();
+            failed = false;
+            return result;
+        }
+        finally {
+            release(System.nanoTime() - start, failed);
+        }
+    }
+
+    private void acquire() {
+        long start = System.nanoTime();
+        this.lock.lock();
+        try {
+            if (this.inFlight >= this.limit) {
+                if (this.queued >= this.maxQueue) {
+                    this.queueFull.increment();
+                    throw new ConcurrencyLimitExceededException(HttpStatus.TOO_MANY_REQUESTS,
+                            "Too many concurrent model calls");
+                }
+                this.queued++;
+                try {
+                    long remaining = this.maxQueueWaitNanos;
+                    while (this.inFlight >= this.limit) {
+                        if (remaining <= 0) {
+                            this.queueTimeout.increment();
+                            throw new ConcurrencyLimitExceededException(HttpStatus.SERVICE_UNAVAILABLE,
+                                    "Timed out waiting for a model call permit");
+                        }
+                        remaining = this.released.awaitNanos(remaining);
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.queueTimeout.increment();
+                    throw new ConcurrencyLimitExceededException(HttpStatus.SERVICE_UNAVAILABLE,
+                            "Interrupted waiting for a model call permit");
+                }
+                finally {
+                    this.queued--;
+                }
+            }
+            this.inFlight++;
+            this.windowMaxInFlight = Math.max(this.windowMaxInFlight, this.inFlight);
+        }
+        finally {
+            this.lock.unlock();
+        }
+        this.queueWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void release(long rttNanos, boolean failed) {
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            int previousLimit = this.limit;
+            sample(rttNanos, failed);
+            if (this.limit > previousLimit) {
+                this.released.signalAll();
+            }
+            else {
+                this.released.signal();
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void sample(long rttNanos, boolean failed) {
+        if (failed) {
+            this.windowDrops++;
+        }
+        else {
+            this.windowRttSum += rttNanos;
+            this.windowSamples++;
+        }
+        long now = System.nanoTime();
+        if (this.windowSamples + this.windowDrops < WINDOW_SAMPLES || now - this.windowStart < MIN_WINDOW_NANOS) {
+            return;
+        }
+        double newLimit = this.estimatedLimit;
+        if (this.windowDrops > 0) {
+            newLimit = this.estimatedLimit * DROP_DECREASE;
+        }
+        else {
+            double shortRtt = this.windowRttSum / this.windowSamples;
+            if (this.longRtt == 0) {
+                this.longRtt = shortRtt;
+            }
+            else {
+                this.longRtt += (shortRtt - this.longRtt) / LONG_WINDOWS;
+            }
+            // 지연이 크게 줄었으면 (느린 구간이 끝남) 장기 평균도 빠르게 따라 내려가게 한다
+            if (this.longRtt / shortRtt > 2) {
+                this.longRtt *= 0.95;
+            }
+            // 한도의 절반도 쓰지 않는 동안에는 지연이 한도 때문이 아니므로 늘리지 않는다
+            if (this.windowMaxInFlight * 2 >= this.estimatedLimit) {
+                double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * this.longRtt / shortRtt));
+                double target = this.estimatedLimit * gradient + Math.sqrt(this.estimatedLimit);
+                newLimit = this.estimatedLimit * (1 - SMOOTHING) + target * SMOOTHING;
+            }
+        }
+        this.estimatedLimit = Math.max(this.minLimit, Math.min(this.maxLimit, newLimit));
+        this.limit = (int) this.estimatedLimit;
+        this.windowRttSum = 0;
+        this.windowSamples = 0;
+        this.windowDrops = 0;
+        this.windowMaxInFlight = this.inFlight;
+        this.windowStart = now;
+    }
+}
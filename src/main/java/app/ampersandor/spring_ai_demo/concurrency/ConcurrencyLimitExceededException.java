@@ -0,0 +1,26 @@
+package app.ampersandor.spring_ai_demo.concurrency;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Thrown when a model call is rejected by its {@link AdaptiveConcurrencyLimiter}: {@code 429 Too Many Requests}
+ * when the wait queue is full, {@code 503 Service Unavailable} when no permit freed up in time. Both responses ask
+ * the client to retry after a second.
+ */
+public class ConcurrencyLimitExceededException extends ResponseStatusException {
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    public ConcurrencyLimitExceededException(HttpStatus status, String reason) {
+        super(status, reason);
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        return headers;
+    }
+}
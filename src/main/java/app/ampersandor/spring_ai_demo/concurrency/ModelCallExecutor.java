@@ -0,0 +1,64 @@
+package app.ampersandor.spring_ai_demo.concurrency;
+
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.util.StringUtils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs blocking chat calls off the servlet thread, on {@code executor} (virtual threads), behind an
+ * {@link AdaptiveConcurrencyLimiter} per upstream model. Controllers return the future so Spring MVC completes
+ * the request asynchronously; a rejected call completes it with {@link ConcurrencyLimitExceededException}.
+ * <p>
+ * The model is the one requested in the chat options, or {@code defaultModel}. Because the model name comes from
+ * the request, at most {@value #MAX_MODELS} limiters are created; further model names share one limiter.
+ */
+public class ModelCallExecutor {
+
+    private static final int MAX_MODELS = 32;
+
+    private static final String OTHER_MODELS = "other";
+
+    private final String defaultModel;
+
+    private final Function<String, AdaptiveConcurrencyLimiter> limiterFactory;
+
+    private final Executor executor;
+
+    private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * @param limiterFactory creates the limiter of a model name
+     */
+    public ModelCallExecutor(String defaultModel, Function<String, AdaptiveConcurrencyLimiter> limiterFactory,
+            Executor executor) {
+        this.defaultModel = defaultModel;
+        this.limiterFactory = limiterFactory;
+        this.executor = executor;
+    }
+
+    /**
+     * Runs {@code call} on the executor once the limiter of the model selected by {@code options} admits it.
+     *
+     * @param options chat options of the request, may be {@code null}
+     */
+    public <T> CompletableFuture<T> submit(ChatOptions options, Supplier<T> call) {
+        AdaptiveConcurrencyLimiter limiter = limiter(options != null && StringUtils.hasText(options.getModel())
+                ? options.getModel() : this.defaultModel);
+        return CompletableFuture.supplyAsync(() -> limiter.execute(call), this.executor);
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(String model) {
+        AdaptiveConcurrencyLimiter limiter = this.limiters.get(model);
+        if (limiter != null) {
+            return limiter;
+        }
+        String key = this.limiters.size() < MAX_MODELS ? model : OTHER_MODELS;
+        return this.limiters.computeIfAbsent(key, this.limiterFactory);
+    }
+}
@@ -1,11 +1,33 @@
 package app.ampersandor.spring_ai_demo.config;
 
+import app.ampersandor.spring_ai_demo.advisor.SemanticCacheAdvisor;
+import app.ampersandor.spring_ai_demo.advisor.TokenBudgetAdvisor;
+import app.ampersandor.spring_ai_demo.concurrency.AdaptiveConcurrencyLimiter;
+import app.ampersandor.spring_ai_demo.concurrency.ModelCallExecutor;
+import app.ampersandor.spring_ai_demo.memory.BoundedChatMemoryRepository;
+import app.ampersandor.spring_ai_demo.memory.SegmentedLogChatMemoryRepository;
+import app.ampersandor.spring_ai_demo.memory.SummarizingChatMemory;
+import app.ampersandor.spring_ai_demo.stream.SseTokenStreamer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
 import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
 
 @Configuration
 public class ChatConfig {
@@ -20,19 +42,69 @@ public class ChatConfig {
         return SimpleLoggerAdvisor.builder().order(0).build();
     }
 
+    /**
+     * Keeps conversations in memory, dropping those idle longer than {@code app.chat.memory.idle-ttl} and the least
+     * recently used ones beyond {@code app.chat.memory.max-conversations}. Conversations are lost on restart.
+     */
+    @ConditionalOnProperty(prefix = "app.chat.memory", name = "repository", havingValue = "memory",
+            matchIfMissing = true)
+    @Bean
+    public BoundedChatMemoryRepository boundedChatMemoryRepository(MeterRegistry meterRegistry,
+            @Value("${app.chat.memory.max-conversations:10000}") int maxConversations,
+            @Value("${app.chat.memory.idle-ttl:30m}") Duration idleTtl) {
+        return new BoundedChatMemoryRepository(maxConversations, idleTtl, meterRegistry);
+    }
+
+    /**
+     * Keeps conversations across restarts in an append-only log under {@code app.chat.memory.log.directory},
+     * replayed on startup. Conversations are kept until deleted.
+     */
+    @ConditionalOnProperty(prefix = "app.chat.memory", name = "repository", havingValue = "log")
+    @Bean
+    public SegmentedLogChatMemoryRepository logChatMemoryRepository(ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${app.chat.memory.log.directory:data/chat-memory}") String directory,
+            @Value("${app.chat.memory.log.segment-size:16MB}") DataSize segmentSize) {
+        return new SegmentedLogChatMemoryRepository(Path.of(directory), segmentSize.toBytes(), objectMapper,
+                meterRegistry);
+    }
+
     /**
      * Stores the last N exchanges for each conversation id.
      * Spring AI will call {@link ChatMemory} between requests to keep context.
      * {@link MessageWindowChatMemory} simply evicts the oldest messages when the window size is exceeded.
      */
+    @ConditionalOnProperty(prefix = "app.chat.memory", name = "type", havingValue = "window", matchIfMissing = true)
     @Bean
-    public ChatMemory chatMemory() {
+    public ChatMemory chatMemory(ChatMemoryRepository chatMemoryRepository,
+            @Value("${app.chat.memory.max-messages:20}") int maxMessages) {
         return MessageWindowChatMemory.builder()
-                // A different ChatMemoryRepository (e.g. Redis) can be plugged in here if persistence is required.
-                .maxMessages(20)
+                .chatMemoryRepository(chatMemoryRepository)
+                .maxMessages(maxMessages)
                 .build();
     }
 
+    /**
+     * Keeps the last {@code app.chat.memory.summary.recent-turns} turns verbatim and folds older ones into a summary
+     * written in the background, so long conversations stop resending every earlier answer.
+     * {@code app.chat.memory.summary.model} can point the summarization at a cheaper model.
+     */
+    @ConditionalOnProperty(prefix = "app.chat.memory", name = "type", havingValue = "summary")
+    @Bean
+    public SummarizingChatMemory summarizingChatMemory(ChatMemoryRepository chatMemoryRepository,
+            ChatModel chatModel, MeterRegistry meterRegistry,
+            @Value("${app.chat.memory.max-messages:20}") int maxMessages,
+            @Value("${app.chat.memory.summary.recent-turns:4}") int recentTurns,
+            @Value("${app.chat.memory.summary.fold-turns:2}") int foldTurns,
+            @Value("${app.chat.memory.summary.max-concurrency:4}") int maxConcurrency,
+            @Value("${app.chat.memory.summary.model:}") String model) {
+        ChatOptions summaryOptions = model.isBlank() ? null : ChatOptions.builder().model(model).build();
+        SimpleAsyncTaskExecutor summaryExecutor = new SimpleAsyncTaskExecutor("chat-memory-summary-");
+        summaryExecutor.setVirtualThreads(true);
+        return new SummarizingChatMemory(chatMemoryRepository, chatModel, summaryOptions, recentTurns, foldTurns,
+                maxMessages, maxConcurrency, summaryExecutor, meterRegistry);
+    }
+
     /**
      * Injects chat history into prompts and captures model replies back into {@link ChatMemory}.
      * The advisor pulls the conversation id from the request metadata (see ChatService).
@@ -43,5 +115,74 @@ public class ChatConfig {
                 .build();
     }
 
+    /**
+     * Reuses the answer of a semantically similar earlier question (same mode, system prompt, chat options,
+     * output format, filter expression and conversation history) instead of running retrieval and generation
+     * again. Off unless {@code app.chat.semantic-cache.enabled} is set.
+     * Only created for the modes listed in {@code app.chat.semantic-cache.modes}; tool answers such as the current
+     * time must not be replayed.
+     */
+    @ConditionalOnExpression("${app.chat.semantic-cache.enabled:false} "
+            + "and ',${app.chat.semantic-cache.modes:chat,rag},'.contains(',${app.mode},')")
+    @Bean
+    public SemanticCacheAdvisor semanticCacheAdvisor(EmbeddingModel embeddingModel, MeterRegistry meterRegistry,
+            @Value("${app.mode}") String mode,
+            @Value("${app.chat.semantic-cache.similarity-threshold:0.95}") double similarityThreshold,
+            @Value("${app.chat.semantic-cache.ttl:1h}") Duration ttl,
+            @Value("${app.chat.semantic-cache.max-entries:1000}") int maxEntries) {
+        return new SemanticCacheAdvisor(embeddingModel, mode, similarityThreshold, ttl, maxEntries, meterRegistry);
+    }
+
+    /**
+     * Keeps prompts within {@code app.chat.token-budget.max-prompt-tokens} estimated tokens by dropping the oldest
+     * history first and then, in rag mode, the lowest-scoring retrieved documents.
+     * {@code app.chat.token-budget.document-reserve} is only held back for documents in rag mode.
+     */
+    @ConditionalOnProperty(prefix = "app.chat.token-budget", name = "enabled", havingValue = "true")
+    @Bean
+    public TokenBudgetAdvisor tokenBudgetAdvisor(MeterRegistry meterRegistry, @Value("${app.mode}") String mode,
+            @Value("${app.chat.token-budget.max-prompt-tokens:6000}") int maxPromptTokens,
+            @Value("${app.chat.token-budget.document-reserve:2000}") int documentReserve) {
+        return new TokenBudgetAdvisor(maxPromptTokens, "rag".equals(mode) ? documentReserve : 0, meterRegistry);
+    }
+
+    /**
+     * Runs the blocking {@code /call} endpoints on virtual threads, each upstream model behind its own adaptive
+     * concurrency limit between {@code app.chat.concurrency.min-limit} and {@code max-limit}. Calls over the limit
+     * wait up to {@code max-queue-wait} in a queue of {@code max-queue}, then fail with 429 or 503.
+     */
+    @Bean
+    public ModelCallExecutor modelCallExecutor(ChatModel chatModel, MeterRegistry meterRegistry,
+            @Value("${app.chat.concurrency.initial-limit:20}") int initialLimit,
+            @Value("${app.chat.concurrency.min-limit:2}") int minLimit,
+            @Value("${app.chat.concurrency.max-limit:200}") int maxLimit,
+            @Value("${app.chat.concurrency.max-queue:50}") int maxQueue,
+            @Value("${app.chat.concurrency.max-queue-wait:2s}") Duration maxQueueWait) {
+        ChatOptions defaultOptions = chatModel.getDefaultOptions();
+        String defaultModel = defaultOptions != null && defaultOptions.getModel() != null
+                ? defaultOptions.getModel() : "default";
+        SimpleAsyncTaskExecutor callExecutor = new SimpleAsyncTaskExecutor("chat-call-");
+        callExecutor.setVirtualThreads(true);
+        return new ModelCallExecutor(defaultModel, model -> new AdaptiveConcurrencyLimiter(model, initialLimit,
+                minLimit, maxLimit, maxQueue, maxQueueWait, meterRegistry), callExecutor);
+    }
+
+    /**
+     * Sends the answers of the {@code /stream} endpoints as SSE frames, coalescing tokens when
+     * {@code app.chat.stream.coalesce.enabled}. Each setting can be overridden for the endpoint of one mode under
+     * {@code app.chat.stream.coalesce.endpoints.<mode>} and per request with query parameters.
+     */
+    @Bean
+    public SseTokenStreamer sseTokenStreamer(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+            @Value("${app.mode}") String mode,
+            @Value("${app.chat.stream.coalesce.endpoints.${app.mode}.enabled:"
+                    + "${app.chat.stream.coalesce.enabled:false}}") boolean enabled,
+            @Value("${app.chat.stream.coalesce.endpoints.${app.mode}.max-bytes:"
+                    + "${app.chat.stream.coalesce.max-bytes:256}}") int maxBytes,
+            @Value("${app.chat.stream.coalesce.endpoints.${app.mode}.max-delay:"
+                    + "${app.chat.stream.coalesce.max-delay:50ms}}") Duration maxDelay) {
+        return new SseTokenStreamer(mode, new SseTokenStreamer.Coalescing(enabled, maxBytes, maxDelay), objectMapper,
+                meterRegistry);
+    }
 
 }
@@ -0,0 +1,56 @@
+package app.ampersandor.spring_ai_demo.config;
+
+import app.ampersandor.spring_ai_demo.embedding.BatchingEmbeddingModel;
+import app.ampersandor.spring_ai_demo.embedding.CachingEmbeddingModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnExpression("${app.embedding.cache.enabled:false} or ${app.embedding.batch.enabled:false}")
+public class EmbeddingConfig {
+
+    /**
+     * Decorates the auto-configured Ollama {@link EmbeddingModel}; the layers are applied inside out:
+     * 1. {@link BatchingEmbeddingModel} splits large requests into concurrent, retried batches.
+     * 2. {@link CachingEmbeddingModel} answers repeated texts from memory/disk before anything reaches the batcher.
+     * Marked {@link Primary} so vector stores and retrievers pick the decorated model, while the raw model stays
+     * reachable under its own bean name.
+     */
+    @Primary
+    @Bean
+    public EmbeddingModel decoratedEmbeddingModel(
+            @Qualifier("ollamaEmbeddingModel") EmbeddingModel embeddingModel,
+            @Value("${spring.ai.ollama.embedding.options.model:}") String modelId,
+            @Value("${app.embedding.batch.enabled:false}") boolean batchEnabled,
+            @Value("${app.embedding.batch.max-batch-size:32}") int maxBatchSize,
+            @Value("${app.embedding.batch.max-batch-tokens:8192}") int maxBatchTokens,
+            @Value("${app.embedding.batch.max-in-flight:4}") int maxInFlight,
+            @Value("${app.embedding.batch.max-attempts:3}") int maxAttempts,
+            @Value("${app.embedding.batch.initial-backoff:500ms}") Duration initialBackoff,
+            @Value("${app.embedding.cache.enabled:false}") boolean cacheEnabled,
+            @Value("${app.embedding.cache.max-memory:256MB}") DataSize maxMemory,
+            @Value("${app.embedding.cache.path:}") String cachePath,
+            @Value("${app.embedding.cache.max-disk:1GB}") DataSize maxDisk,
+            MeterRegistry meterRegistry) {
+        EmbeddingModel decorated = embeddingModel;
+        if (batchEnabled) {
+            decorated = new BatchingEmbeddingModel(decorated, maxBatchSize, maxBatchTokens, maxInFlight, maxAttempts,
+                    initialBackoff, meterRegistry);
+        }
+        if (cacheEnabled) {
+            decorated = new CachingEmbeddingModel(decorated, modelId, maxMemory.toBytes(),
+                    cachePath.isBlank() ? null : Path.of(cachePath), maxDisk.toBytes(), meterRegistry);
+        }
+        return decorated;
+    }
+}
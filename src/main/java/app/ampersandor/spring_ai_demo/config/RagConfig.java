@@ -1,8 +1,32 @@
 package app.ampersandor.spring_ai_demo.config;
 
+import app.ampersandor.spring_ai_demo.advisor.SemanticCacheAdvisor;
+import app.ampersandor.spring_ai_demo.etl.DocumentIndex;
+import app.ampersandor.spring_ai_demo.etl.DocumentManifest;
+import app.ampersandor.spring_ai_demo.etl.EtlPipeline;
+import app.ampersandor.spring_ai_demo.etl.IncrementalIndexer;
+import app.ampersandor.spring_ai_demo.etl.NdjsonAuditDocumentWriter;
+import app.ampersandor.spring_ai_demo.etl.PdfPageDocumentReader;
+import app.ampersandor.spring_ai_demo.rag.BatchKeywordMetadataEnricher;
+import app.ampersandor.spring_ai_demo.rag.Bm25Index;
+import app.ampersandor.spring_ai_demo.rag.BoundedFanOutTaskExecutor;
+import app.ampersandor.spring_ai_demo.rag.CachingQueryExpander;
+import app.ampersandor.spring_ai_demo.rag.CachingQueryTransformer;
+import app.ampersandor.spring_ai_demo.rag.HybridDocumentRetriever;
+import app.ampersandor.spring_ai_demo.rag.KeywordExtractionBenchmark;
+import app.ampersandor.spring_ai_demo.rag.LanguageAwareQueryTransformer;
+import app.ampersandor.spring_ai_demo.rag.LanguageDetector;
 import app.ampersandor.spring_ai_demo.rag.LengthTextSplitter;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import app.ampersandor.spring_ai_demo.rag.LocalKeywordMetadataEnricher;
+import app.ampersandor.spring_ai_demo.rag.OffsetTextSplitter;
+import app.ampersandor.spring_ai_demo.rag.ScoreOrderedDocumentJoiner;
+import app.ampersandor.spring_ai_demo.rag.TokenBudgetDocumentPostProcessor;
+import app.ampersandor.spring_ai_demo.token.TokenEstimator;
+import app.ampersandor.spring_ai_demo.vectorstore.DenseVectorStore;
+import app.ampersandor.spring_ai_demo.vectorstore.HnswVectorStore;
+import app.ampersandor.spring_ai_demo.vectorstore.PersistentVectorStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.document.Document;
@@ -11,11 +35,13 @@ import org.springframework.ai.document.DocumentTransformer;
 import org.springframework.ai.document.DocumentWriter;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.model.transformer.KeywordMetadataEnricher;
+import org.springframework.ai.rag.Query;
 import org.springframework.ai.rag.advisor.RetrievalAugmentationAdvisor;
 import org.springframework.ai.rag.generation.augmentation.ContextualQueryAugmenter;
 import org.springframework.ai.rag.postretrieval.document.DocumentPostProcessor;
 import org.springframework.ai.rag.preretrieval.query.expansion.MultiQueryExpander;
 import org.springframework.ai.rag.preretrieval.query.transformation.TranslationQueryTransformer;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
 import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
 import org.springframework.ai.reader.tika.TikaDocumentReader;
 import org.springframework.ai.vectorstore.SimpleVectorStore;
@@ -26,27 +52,37 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
+import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.util.unit.DataSize;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Configuration
 @ConditionalOnProperty(name = "app.mode", havingValue = "rag")
 public class RagConfig {
 
     /**
-     * Loads arbitrary PDF (or other Tika-supported) documents matching the
+     * Locates arbitrary PDF (or other Tika-supported) documents matching the
      * configured glob expression.
-     * Each {@link DocumentReader} produces a collection of {@link Document} objects
+     * Each resource is read by a {@link DocumentReader} into a collection of {@link Document} objects
      * that later flow through the ETL pipeline.
      */
     @Bean
-    public DocumentReader[] documentReaders(
+    public Resource[] documentResources(
             @Value("${app.rag.documents-location-pattern}") String documentsLocationPattern) throws IOException {
-        return Arrays.stream(new PathMatchingResourcePatternResolver().getResources(documentsLocationPattern))
-                .map(TikaDocumentReader::new).toArray(DocumentReader[]::new);
+        return new PathMatchingResourcePatternResolver().getResources(documentsLocationPattern);
     }
 
     /**
@@ -54,55 +90,187 @@ public class RagConfig {
      * within the token budget.
      * Chunks are 400 characters with a 200 character overlap to preserve continuity
      * between slices.
+     * {@link OffsetTextSplitter} produces the same chunks as {@link LengthTextSplitter}, unless
+     * {@code app.etl.splitter.boundary} asks it to end chunks at whitespace or sentence boundaries.
      */
     @Bean
-    public DocumentTransformer textSplitter() {
+    public DocumentTransformer textSplitter(@Value("${app.etl.splitter.boundary:none}") String boundary) {
         // return new TokenTextSplitter();
-        return new LengthTextSplitter(400, 200);
+        return new OffsetTextSplitter(400, 200, OffsetTextSplitter.Boundary.valueOf(boundary.toUpperCase()));
     }
 
     /**
-     * Asks the underlying LLM to extract keywords, enriching every chunk with
-     * metadata.
+     * Enriches every chunk with keywords.
      * The metadata is stored alongside the vector embedding and can later be used
      * for filtering or display.
      * ChatModel을 이용해 각 문서 내용의 핵심 키워드를 추출
      * metadata 에 콤마(,)로 구분된 키워드 문자열이 excerpt_keywords 키추가
      * 문서 태깅, 검색 용이성 향상
+     * {@code app.etl.keywords.mode} picks how:
+     * {@code llm} is Spring AI's {@link KeywordMetadataEnricher} (one chat call per chunk),
+     * {@code batch} is {@link BatchKeywordMetadataEnricher} (many chunks per structured-output prompt),
+     * {@code tf-idf} and {@code rake} are {@link LocalKeywordMetadataEnricher} (no LLM at all).
      */
     @Bean
-    public DocumentTransformer keywordMetadataEnricher(ChatModel chatModel) {
+    public DocumentTransformer keywordMetadataEnricher(ChatModel chatModel,
+            @Value("${app.etl.keywords.mode:llm}") String mode,
+            @Value("${app.etl.keywords.count:3}") int keywordCount,
+            @Value("${app.etl.keywords.batch-size:20}") int batchSize,
+            @Value("${app.etl.keywords.max-batch-chars:12000}") int maxBatchChars) {
         // new SummaryMetadataEnricher();
-        return new KeywordMetadataEnricher(chatModel, 3);
+        return switch (mode) {
+            case "llm" -> new KeywordMetadataEnricher(chatModel, keywordCount);
+            case "batch" -> new BatchKeywordMetadataEnricher(chatModel, keywordCount, batchSize, maxBatchChars);
+            case "tf-idf" -> new LocalKeywordMetadataEnricher(LocalKeywordMetadataEnricher.Algorithm.TF_IDF,
+                    keywordCount);
+            case "rake" -> new LocalKeywordMetadataEnricher(LocalKeywordMetadataEnricher.Algorithm.RAKE, keywordCount);
+            default -> throw new IllegalArgumentException("Unknown keyword extraction mode: " + mode);
+        };
+    }
+
+    /**
+     * Compares the keyword extraction modes on the first {@code app.etl.keywords.benchmark.sample-size} chunks of
+     * the configured documents and logs time, LLM calls, tokens and cost of each.
+     */
+    @ConditionalOnProperty(prefix = "app.etl.keywords.benchmark", name = "enabled", havingValue = "true")
+    @Order(0)
+    @Bean
+    public ApplicationRunner keywordExtractionBenchmark(ChatModel chatModel, Resource[] documentResources,
+            DocumentTransformer textSplitter,
+            @Value("${app.etl.keywords.count:3}") int keywordCount,
+            @Value("${app.etl.keywords.batch-size:20}") int batchSize,
+            @Value("${app.etl.keywords.max-batch-chars:12000}") int maxBatchChars,
+            @Value("${app.etl.keywords.benchmark.sample-size:100}") int sampleSize,
+            @Value("${app.etl.keywords.benchmark.cost-per-million-tokens:0}") double costPerMillionTokens) {
+        return args -> {
+            List<Document> chunks = new ArrayList<>();
+            for (Resource resource : documentResources) {
+                if (chunks.size() >= sampleSize) {
+                    break;
+                }
+                chunks.addAll(textSplitter.apply(new TikaDocumentReader(resource).read()));
+            }
+            new KeywordExtractionBenchmark(chatModel, keywordCount, batchSize, maxBatchChars, costPerMillionTokens)
+                    .run(chunks.subList(0, Math.min(sampleSize, chunks.size())));
+        };
     }
 
     /**
-     * Writes the transformed documents in JSON form to the console so you can see
+     * Records the transformed documents as compact NDJSON lines in a rolling audit file so you can see
      * what is being indexed.
      * DocumentWriter is a functional interface so you can implement your own
      * writers to push chunks to databases, search engines, etc.
      * The writer is used when the ETL pipeline calls
      * documentWriter.write(documents).
-     * Spring AI autowires a Jackson {@link ObjectMapper}, so we reuse it for
-     * pretty-printing.
+     * {@link NdjsonAuditDocumentWriter} serializes only the fields in {@code app.etl.audit.fields} of a
+     * {@code sample-rate} fraction of the chunks and writes them from a background thread; with
+     * {@code overflow: drop} a full queue never slows ingestion down.
+     * Spring AI autowires a Jackson {@link ObjectMapper}, so we reuse it for serialization.
      */
+    @ConditionalOnProperty(prefix = "app.etl.audit", name = "enabled", havingValue = "true", matchIfMissing = true)
     @Bean
-    public DocumentWriter jsonConsoleDocumentWriter(ObjectMapper objectMapper) {
-        return documents -> {
-            System.out.printf("======= save chunks size %d ========\n", documents.size());
-            try {
-                System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(documents));
-            } catch (JsonProcessingException e) {
-                throw new RuntimeException(e);
-            }
-            System.out.println("====================================");
-        };
+    public NdjsonAuditDocumentWriter auditDocumentWriter(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+            @Value("${app.etl.audit.path:log/etl-audit.ndjson}") String path,
+            @Value("${app.etl.audit.fields:id,text,metadata}") List<String> fields,
+            @Value("${app.etl.audit.sample-rate:1.0}") double sampleRate,
+            @Value("${app.etl.audit.queue-capacity:10000}") int queueCapacity,
+            @Value("${app.etl.audit.overflow:drop}") String overflow,
+            @Value("${app.etl.audit.max-file-size:64MB}") DataSize maxFileSize,
+            @Value("${app.etl.audit.max-files:5}") int maxFiles) {
+        Set<NdjsonAuditDocumentWriter.Field> selected = fields.stream()
+                .map(field -> NdjsonAuditDocumentWriter.Field.valueOf(field.strip().toUpperCase()))
+                .collect(Collectors.toSet());
+        return new NdjsonAuditDocumentWriter(Path.of(path), selected, sampleRate, queueCapacity,
+                NdjsonAuditDocumentWriter.OverflowPolicy.valueOf(overflow.toUpperCase()), maxFileSize.toBytes(),
+                maxFiles, objectMapper, meterRegistry);
     }
 
+    /**
+     * In-memory vector store used instead of the auto-configured external store.
+     * {@code app.vectorstore.in-memory.type} picks the implementation:
+     * {@code simple} is Spring AI's {@link SimpleVectorStore} (one object per embedding),
+     * {@code dense} is {@link DenseVectorStore}, which packs all embeddings into one contiguous array
+     * and scores them with SIMD dot products (optionally int8/PQ quantized, see
+     * {@code app.vectorstore.in-memory.dense.*}) and is reloaded from a binary snapshot at
+     * {@code app.vectorstore.in-memory.dense.path} on restart,
+     * {@code hnsw} is {@link HnswVectorStore}, an approximate graph index that answers in sub-linear time and
+     * is reloaded from {@code app.vectorstore.in-memory.hnsw.path} on restart.
+     * Both custom stores answer filter expressions from a bitmap index over the metadata keys in
+     * {@code app.vectorstore.in-memory.metadata-index.keys} (every key when empty).
+     */
     @ConditionalOnProperty(prefix = "app.vectorstore.in-memory", name = "enabled", havingValue = "true")
     @Bean
-    public VectorStore vectorStore(EmbeddingModel embeddingModel) {
-        return SimpleVectorStore.builder(embeddingModel).build();
+    public VectorStore vectorStore(EmbeddingModel embeddingModel,
+            @Value("${app.vectorstore.in-memory.type:simple}") String type,
+            @Value("${app.vectorstore.in-memory.dense.quantization:none}") String quantization,
+            @Value("${app.vectorstore.in-memory.dense.pq-subspaces:0}") int pqSubspaces,
+            @Value("${app.vectorstore.in-memory.dense.training-size:10000}") int trainingSize,
+            @Value("${app.vectorstore.in-memory.dense.rerank-factor:0}") int rerankFactor,
+            @Value("${app.vectorstore.in-memory.dense.path:}") String densePath,
+            @Value("${spring.ai.ollama.embedding.options.model:}") String embeddingModelId,
+            @Value("${app.vectorstore.in-memory.hnsw.m:16}") int m,
+            @Value("${app.vectorstore.in-memory.hnsw.ef-construction:200}") int efConstruction,
+            @Value("${app.vectorstore.in-memory.hnsw.ef-search:64}") int efSearch,
+            @Value("${app.vectorstore.in-memory.hnsw.compaction-ratio:0.3}") double compactionRatio,
+            @Value("${app.vectorstore.in-memory.hnsw.path:}") String hnswPath,
+            @Value("${app.vectorstore.in-memory.metadata-index.keys:}") Set<String> indexedMetadataKeys) {
+        return switch (type) {
+            case "simple" -> SimpleVectorStore.builder(embeddingModel).build();
+            case "dense" -> DenseVectorStore.builder(embeddingModel)
+                    .quantization(DenseVectorStore.Quantization.valueOf(quantization.toUpperCase()))
+                    .pqSubspaces(pqSubspaces)
+                    .trainingSize(trainingSize)
+                    .rerankFactor(rerankFactor)
+                    .path(densePath.isBlank() ? null : Path.of(densePath))
+                    .modelId(embeddingModelId)
+                    .indexedMetadataKeys(indexedMetadataKeys)
+                    .build();
+            case "hnsw" -> HnswVectorStore.builder(embeddingModel)
+                    .m(m)
+                    .efConstruction(efConstruction)
+                    .efSearch(efSearch)
+                    .compactionRatio(compactionRatio)
+                    .path(hnswPath.isBlank() ? null : Path.of(hnswPath))
+                    .indexedMetadataKeys(indexedMetadataKeys)
+                    .build();
+            default -> throw new IllegalArgumentException("Unknown in-memory vector store type: " + type);
+        };
+    }
+
+    /**
+     * Lexical BM25 index over the chunk text and {@code excerpt_keywords}, filled by the ETL pipeline next to the
+     * vector store (it is one of the {@link DocumentWriter}s) and used by {@link HybridDocumentRetriever}.
+     * Kept at {@code app.rag.hybrid.path} so a restart with an up-to-date manifest does not lose it.
+     */
+    @ConditionalOnProperty(prefix = "app.rag.hybrid", name = "enabled", havingValue = "true")
+    @Bean
+    public Bm25Index bm25Index(@Value("${app.rag.hybrid.bm25.k1:1.2}") double k1,
+            @Value("${app.rag.hybrid.bm25.b:0.75}") double b,
+            @Value("${app.rag.hybrid.bm25.keyword-boost:2}") int keywordBoost,
+            @Value("${app.rag.hybrid.path:}") String path) {
+        return new Bm25Index(k1, b, keywordBoost, path.isBlank() ? null : Path.of(path));
+    }
+
+    /**
+     * Staged ETL engine: read → split → enrich → write run concurrently, connected by bounded queues of
+     * {@code app.etl.pipeline.queue-capacity} batches (a whole file, or a few pages of a PDF).
+     * The enrich (LLM) and write (embedding) stages mostly wait on the network, so they run on virtual threads;
+     * read and split are CPU-bound and use platform threads.
+     */
+    @ConditionalOnProperty(prefix = "app.etl.pipeline", name = "init", havingValue = "true")
+    @Bean
+    public EtlPipeline etlPipeline(DocumentTransformer textSplitter, DocumentTransformer keywordMetadataEnricher,
+            DocumentWriter[] documentWriters, MeterRegistry meterRegistry,
+            @Value("${app.etl.pipeline.queue-capacity:4}") int queueCapacity,
+            @Value("${app.etl.pipeline.read-concurrency:2}") int readConcurrency,
+            @Value("${app.etl.pipeline.split-concurrency:2}") int splitConcurrency,
+            @Value("${app.etl.pipeline.enrich-concurrency:8}") int enrichConcurrency,
+            @Value("${app.etl.pipeline.write-concurrency:4}") int writeConcurrency) {
+        return new EtlPipeline(EtlPipeline.Stage.read(readConcurrency, false),
+                List.of(EtlPipeline.Stage.transform("split", textSplitter, splitConcurrency, false),
+                        EtlPipeline.Stage.transform("enrich", keywordMetadataEnricher, enrichConcurrency, true),
+                        EtlPipeline.Stage.write("write", documentWriters, writeConcurrency, true)),
+                queueCapacity, meterRegistry);
     }
 
     /**
@@ -111,22 +279,53 @@ public class RagConfig {
      * 2. Transform: split and enrich each document.
      * 3. Load: push the transformed chunks to the configured
      * {@link DocumentWriter}s (e.g. vector store).
+     * Documents flow through {@link EtlPipeline} independently; a document that fails in one stage is reported
+     * and skipped without aborting the others.
+     * PDF files are read page by page ({@link PdfPageDocumentReader}), other formats with Tika.
+     * With {@code app.etl.manifest.path} set, {@link IncrementalIndexer} only re-processes new or changed files,
+     * removes the chunks of changed or deleted ones and checkpoints each finished file, so an interrupted run
+     * resumes where it stopped. An unchanged file is still re-processed when a writer lost its chunks, e.g. one
+     * configured without a path after a restart.
+     * Writers that keep a local index ({@link PersistentVectorStore}, {@link DocumentIndex}) are flushed to disk at
+     * every checkpoint.
+     * Answers cached by the {@link SemanticCacheAdvisor} are dropped when the run finishes.
      */
     @ConditionalOnProperty(prefix = "app.etl.pipeline", name = "init", havingValue = "true")
     @Order(1) // cli 보다 먼저 실행
     @Bean
-    public ApplicationRunner initEtlPipeline(DocumentReader[] documentReaders, DocumentTransformer textSplitter,
-            DocumentTransformer keywordMetadataEnricher,
-            DocumentWriter[] documentWriters) {
-        return args ->
-        // Extract
-        Arrays.stream(documentReaders).map(DocumentReader::read)
-                // Transform
-                .map(textSplitter)
-                .map(keywordMetadataEnricher)
-                // Load
-                .forEach(documents -> Arrays.stream(documentWriters)
-                        .forEach(documentWriter -> documentWriter.write(documents)));
+    public ApplicationRunner initEtlPipeline(EtlPipeline etlPipeline, Resource[] documentResources,
+            DocumentWriter[] documentWriters, Optional<SemanticCacheAdvisor> semanticCacheAdvisor,
+            @Value("${app.rag.documents-location-pattern}") String documentsLocationPattern,
+            @Value("${app.etl.manifest.path:}") String manifestPath,
+            @Value("${app.etl.manifest.checkpoint-interval:30s}") Duration checkpointInterval,
+            @Value("${app.etl.reader.pdf.pages-per-document:1}") int pagesPerDocument,
+            @Value("${app.etl.reader.pdf.pages-per-task:16}") int pagesPerTask,
+            @Value("${app.etl.reader.pdf.parallelism:0}") int parallelism) {
+        return args -> {
+            List<VectorStore> vectorStores = Arrays.stream(documentWriters).filter(VectorStore.class::isInstance)
+                    .map(VectorStore.class::cast).toList();
+            List<DocumentIndex> documentIndexes = Arrays.stream(documentWriters)
+                    .filter(DocumentIndex.class::isInstance).map(DocumentIndex.class::cast).toList();
+            DocumentManifest manifest = manifestPath.isBlank() ? null : new DocumentManifest(Path.of(manifestPath));
+            // PDF 는 페이지 범위 단위로 병렬 추출, 그 외 형식은 Tika 로 파일 전체를 읽는다
+            try (ForkJoinPool pdfPool = new ForkJoinPool(
+                    parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors())) {
+                Function<Resource, DocumentReader> readerFactory = resource -> isPdf(resource)
+                        ? new PdfPageDocumentReader(resource, pagesPerDocument, pagesPerTask, pdfPool)
+                        : new TikaDocumentReader(resource);
+                new IncrementalIndexer(etlPipeline, manifest, vectorStores, documentIndexes, readerFactory,
+                        IncrementalIndexer.sourceNames(new PathMatchingResourcePatternResolver(),
+                                documentsLocationPattern),
+                        checkpointInterval).index(documentResources);
+            }
+            // 인덱싱 도중 캐시된 답변은 바뀌기 전/중간 인덱스를 기준으로 만들어졌을 수 있다
+            semanticCacheAdvisor.ifPresent(SemanticCacheAdvisor::invalidateAll);
+        };
+    }
+
+    private static boolean isPdf(Resource resource) {
+        String filename = resource.getFilename();
+        return filename != null && filename.toLowerCase().endsWith(".pdf");
     }
 
     /**
@@ -135,22 +334,69 @@ public class RagConfig {
      * search and document post-processing.
      * This bean focuses on the retrieval piece and exposes an optional post
      * processor hook for the CLI.
+     * Translations and expansions are cached per query text ({@code app.rag.query-cache.*}), the expanded queries
+     * are embedded and searched in parallel on virtual threads, at most {@code app.rag.retrieval.concurrency} at a
+     * time per request (see {@link BoundedFanOutTaskExecutor}; concurrent requests do not queue behind each other),
+     * and {@link ScoreOrderedDocumentJoiner} merges the results in a stable order.
+     * Queries that {@link LanguageDetector} already recognizes as {@code app.rag.translation.target-language} skip
+     * the translation call entirely.
+     * When a {@link Bm25Index} is configured, {@link HybridDocumentRetriever} fuses BM25 and vector results with
+     * reciprocal rank fusion and answers short keyword lookups (CLI flags and the like) from BM25 alone.
+     * With {@code app.chat.token-budget.enabled}, {@link TokenBudgetDocumentPostProcessor} drops the lowest-scoring
+     * documents that do not fit in the tokens the token budget advisor left for them.
      */
     @Bean
     public RetrievalAugmentationAdvisor retrievalAugmentationAdvisor(VectorStore vectorStore,
              ChatClient.Builder chatClientBuilder,
-            Optional<DocumentPostProcessor> documentsPostProcessor) {
+            Optional<DocumentPostProcessor> documentsPostProcessor, Optional<Bm25Index> bm25Index,
+            MeterRegistry meterRegistry,
+            @Value("${app.rag.retrieval.concurrency:4}") int retrievalConcurrency,
+            @Value("${app.rag.query-cache.max-entries:1000}") int queryCacheMaxEntries,
+            @Value("${app.rag.query-cache.ttl:1h}") Duration queryCacheTtl,
+            @Value("${app.rag.translation.target-language:korean}") String targetLanguage,
+            @Value("${app.rag.translation.min-script-share:0.4}") double minScriptShare,
+            @Value("${app.rag.hybrid.candidates:20}") int hybridCandidates,
+            @Value("${app.rag.hybrid.rank-constant:60}") int rankConstant,
+            @Value("${app.rag.hybrid.keyword-max-terms:3}") int keywordMaxTerms,
+            @Value("${app.chat.token-budget.enabled:false}") boolean tokenBudgetEnabled) {
+        SimpleAsyncTaskExecutor retrievalExecutor = new SimpleAsyncTaskExecutor("rag-retrieval-");
+        retrievalExecutor.setVirtualThreads(true);
+        int topK = 3;
+        DocumentRetriever documentRetriever = VectorStoreDocumentRetriever.builder().similarityThreshold(0.3)
+                .topK(bm25Index.isPresent() ? hybridCandidates : topK).vectorStore(vectorStore).build();
+        if (bm25Index.isPresent()) {
+            // 검색 스레드 안에서 다시 제출하므로 동시성 제한이 걸린 retrievalExecutor 와 분리한다
+            SimpleAsyncTaskExecutor lexicalExecutor = new SimpleAsyncTaskExecutor("rag-lexical-");
+            lexicalExecutor.setVirtualThreads(true);
+            documentRetriever = new HybridDocumentRetriever(documentRetriever, bm25Index.get(), topK,
+                    hybridCandidates, rankConstant, keywordMaxTerms, lexicalExecutor, meterRegistry);
+        }
+        ContextualQueryAugmenter queryAugmenter = ContextualQueryAugmenter.builder().allowEmptyContext(true).build();
         RetrievalAugmentationAdvisor.Builder retrievalAugmentationAdvisorBuilder = RetrievalAugmentationAdvisor
                 .builder()
-                .queryExpander(MultiQueryExpander.builder().chatClientBuilder(chatClientBuilder).build())
-                .queryTransformers(TranslationQueryTransformer.builder().chatClientBuilder(chatClientBuilder)
-                        .targetLanguage("korean").build())
-                .queryAugmenter(ContextualQueryAugmenter.builder().allowEmptyContext(true).build())
-                .documentRetriever(VectorStoreDocumentRetriever.builder().similarityThreshold(0.3).topK(3)
-                        .vectorStore(vectorStore).build());
+                .queryExpander(new CachingQueryExpander(
+                        MultiQueryExpander.builder().chatClientBuilder(chatClientBuilder).build(),
+                        "rag.expansion", queryCacheMaxEntries, queryCacheTtl, meterRegistry))
+                .queryTransformers(new LanguageAwareQueryTransformer(new CachingQueryTransformer(
+                        TranslationQueryTransformer.builder().chatClientBuilder(chatClientBuilder)
+                                .targetLanguage(targetLanguage).build(),
+                        "rag.translation", queryCacheMaxEntries, queryCacheTtl, meterRegistry),
+                        targetLanguage, new LanguageDetector(minScriptShare), meterRegistry))
+                .queryAugmenter(queryAugmenter)
+                .documentRetriever(documentRetriever)
+                .documentJoiner(new ScoreOrderedDocumentJoiner())
+                .taskExecutor(new BoundedFanOutTaskExecutor(retrievalExecutor, retrievalConcurrency));
         // .documentPostProcessors() // 뒤에서도 document post process 까지 이렇게 5개의 설정을 해볼 수 있다.;
+        List<DocumentPostProcessor> documentPostProcessors = new ArrayList<>();
+        if (tokenBudgetEnabled) {
+            // 질의와 문서를 뺀 템플릿 자체의 토큰 수
+            int templateTokens = TokenEstimator.estimate(
+                    queryAugmenter.augment(new Query("x"), List.of(new Document("x"))).text()) - 2;
+            documentPostProcessors.add(new TokenBudgetDocumentPostProcessor(templateTokens, meterRegistry));
+        }
         // RAG CLI 를 위해 등록
-        documentsPostProcessor.ifPresent(retrievalAugmentationAdvisorBuilder::documentPostProcessors);
+        documentsPostProcessor.ifPresent(documentPostProcessors::add);
+        retrievalAugmentationAdvisorBuilder.documentPostProcessors(documentPostProcessors);
         return retrievalAugmentationAdvisorBuilder.build();
     }
 
@@ -1,11 +1,17 @@
 package app.ampersandor.spring_ai_demo.config;
 
+import app.ampersandor.spring_ai_demo.tool.CachingToolCallback;
+import app.ampersandor.spring_ai_demo.tool.Tools;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.tool.ToolCallbackProvider;
 import org.springframework.ai.tool.execution.DefaultToolExecutionExceptionProcessor;
 import org.springframework.ai.tool.execution.ToolExecutionExceptionProcessor;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 
 @Configuration
 @ConditionalOnProperty(name = "app.mode", havingValue = "tool")
@@ -23,4 +29,17 @@ public class ToolConfig {
         return new DefaultToolExecutionExceptionProcessor(false);
     }
 
+    /**
+     * Tool callbacks of {@link Tools}; methods annotated with {@code @CachedTool} run on virtual threads with
+     * a shared TTL cache, single-flight and a timeout (see {@link CachingToolCallback}).
+     */
+    @Bean
+    public ToolCallbackProvider toolCallbackProvider(Tools tools, ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        SimpleAsyncTaskExecutor toolExecutor = new SimpleAsyncTaskExecutor("tool-");
+        toolExecutor.setVirtualThreads(true);
+        return ToolCallbackProvider.from(
+                CachingToolCallback.decorate(tools, toolExecutor, objectMapper, meterRegistry));
+    }
+
 }
\ No newline at end of file
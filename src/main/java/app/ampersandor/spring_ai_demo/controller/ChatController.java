@@ -1,9 +1,12 @@
 package app.ampersandor.spring_ai_demo.controller;
 
 
+import app.ampersandor.spring_ai_demo.concurrency.ModelCallExecutor;
 import app.ampersandor.spring_ai_demo.dto.EmotionEvaluation;
 import app.ampersandor.spring_ai_demo.dto.PromptBody;
+import app.ampersandor.spring_ai_demo.dto.StreamOptions;
 import app.ampersandor.spring_ai_demo.service.ChatService;
+import app.ampersandor.spring_ai_demo.stream.SseTokenStreamer;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
@@ -16,8 +19,10 @@ import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springdoc.core.annotations.ParameterObject;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -27,6 +32,7 @@ import reactor.core.publisher.Flux;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 
 
@@ -37,13 +43,21 @@ class ChatController {
 
     private final ChatService chatService;
 
-    public ChatController(ChatService chatService) {
+    private final SseTokenStreamer sseTokenStreamer;
+
+    private final ModelCallExecutor modelCallExecutor;
+
+    public ChatController(ChatService chatService, SseTokenStreamer sseTokenStreamer,
+            ModelCallExecutor modelCallExecutor) {
         this.chatService = chatService;
+        this.sseTokenStreamer = sseTokenStreamer;
+        this.modelCallExecutor = modelCallExecutor;
     }
 
     /**
      * Handles a synchronous REST call and returns the raw {@link ChatResponse} produced by the LLM.
      * The heavy lifting is delegated to {@link ChatService}; the controller only prepares the prompt structure.
+     * The call runs on a virtual thread behind the concurrency limit of the model (see {@link ModelCallExecutor}).
      */
     @Operation(
             summary = "단일 응답 채팅",
@@ -67,9 +81,10 @@ class ChatController {
             )
     )
     @PostMapping(value = "/call", produces = MediaType.APPLICATION_JSON_VALUE)
-    ChatResponse call(@RequestBody @Valid PromptBody promptBody) {
+    CompletableFuture<ChatResponse> call(@RequestBody @Valid PromptBody promptBody) {
         Prompt.Builder promptBuilder = getPromptBuilder(promptBody);
-        return this.chatService.call(promptBody.conversationId(), promptBuilder.build());
+        return this.modelCallExecutor.submit(promptBody.chatOptions(),
+                () -> this.chatService.call(promptBody.conversationId(), promptBuilder.build()));
     }
 
     /**
@@ -89,7 +104,9 @@ class ChatController {
 
     /**
      * Streams the assistant answer over Server-Sent Events (SSE).
-     * {@link ChatService#stream} emits a {@link Flux} so the client can render tokens as they arrive.
+     * {@link ChatService#streamResponses} emits a {@link Flux} so the client can render tokens as they arrive;
+     * {@link SseTokenStreamer} sends one frame per token or, when coalescing is on, batches of tokens followed by
+     * a final usage event.
      */
     @Operation(
             summary = "채팅 스트리밍 응답 (SSE)",
@@ -118,9 +135,12 @@ class ChatController {
             )
     )
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    Flux<String> stream(@RequestBody @Valid PromptBody promptBody) {
+    Flux<ServerSentEvent<String>> stream(@RequestBody @Valid PromptBody promptBody,
+            @ParameterObject @Valid StreamOptions streamOptions) {
         Prompt.Builder promptBuilder = getPromptBuilder(promptBody);
-        return this.chatService.stream(promptBody.conversationId(), promptBuilder.build());
+        return this.sseTokenStreamer.stream(
+                this.chatService.streamResponses(promptBody.conversationId(), promptBuilder.build()),
+                streamOptions);
     }
 
     /**
@@ -168,8 +188,9 @@ class ChatController {
             )
     })
     @PostMapping(value = "/emotion", produces = MediaType.APPLICATION_JSON_VALUE)
-    EmotionEvaluation callEmotionEvaluation(@RequestBody @Valid PromptBody promptBody) {
+    CompletableFuture<EmotionEvaluation> callEmotionEvaluation(@RequestBody @Valid PromptBody promptBody) {
         Prompt.Builder promptBuilder = getPromptBuilder(promptBody);
-        return this.chatService.callEmotionEvaluation(promptBody.conversationId(), promptBuilder.build());
+        return this.modelCallExecutor.submit(promptBody.chatOptions(),
+                () -> this.chatService.callEmotionEvaluation(promptBody.conversationId(), promptBuilder.build()));
     }
 }
@@ -7,15 +7,20 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.annotation.Nullable;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
+import app.ampersandor.spring_ai_demo.concurrency.ModelCallExecutor;
+import app.ampersandor.spring_ai_demo.dto.StreamOptions;
 import app.ampersandor.spring_ai_demo.service.RagChatService;
+import app.ampersandor.spring_ai_demo.stream.SseTokenStreamer;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.DefaultChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springdoc.core.annotations.ParameterObject;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -25,6 +30,7 @@ import reactor.core.publisher.Flux;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 
 @RestController
@@ -34,8 +40,15 @@ class RagChatController {
 
     private final RagChatService ragChatService;
 
-    public RagChatController(RagChatService ragChatService) {
+    private final SseTokenStreamer sseTokenStreamer;
+
+    private final ModelCallExecutor modelCallExecutor;
+
+    public RagChatController(RagChatService ragChatService, SseTokenStreamer sseTokenStreamer,
+            ModelCallExecutor modelCallExecutor) {
         this.ragChatService = ragChatService;
+        this.sseTokenStreamer = sseTokenStreamer;
+        this.modelCallExecutor = modelCallExecutor;
     }
 
     /**
@@ -53,6 +66,7 @@ class RagChatController {
     /**
      * Standard REST call that wraps the prompt, executes RAG and returns the fully materialized {@link ChatResponse}.
      * A filter expression can be passed to narrow the candidate documents stored in the vector store.
+     * The call runs on a virtual thread behind the concurrency limit of the model (see {@link ModelCallExecutor}).
      */
     @Operation(
             summary = "단일 응답 채팅",
@@ -77,10 +91,11 @@ class RagChatController {
             )
     )
     @PostMapping(value = "/call", produces = MediaType.APPLICATION_JSON_VALUE)
-    ChatResponse call(@RequestBody @Valid RagPromptBody ragPromptBody) {
+    CompletableFuture<ChatResponse> call(@RequestBody @Valid RagPromptBody ragPromptBody) {
         Prompt.Builder promptBuilder = getPromptBuilder(ragPromptBody);
-        return this.ragChatService.call(ragPromptBody.conversationId, promptBuilder.build(),
-                Optional.ofNullable(ragPromptBody.filterExpression()));
+        return this.modelCallExecutor.submit(ragPromptBody.chatOptions(),
+                () -> this.ragChatService.call(ragPromptBody.conversationId, promptBuilder.build(),
+                        Optional.ofNullable(ragPromptBody.filterExpression())));
     }
 
     /**
@@ -99,7 +114,8 @@ class RagChatController {
 
     /**
      * Streams RAG answers while still honoring the optional filter expression.
-     * Downstream clients receive tokens as soon as the model produces them.
+     * Downstream clients receive tokens as soon as the model produces them, or in batches when coalescing is on
+     * (see {@link SseTokenStreamer}).
      */
     @Operation(
             summary = "채팅 스트리밍 응답 (SSE)",
@@ -128,10 +144,13 @@ class RagChatController {
             )
     )
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    Flux<String> stream(@RequestBody @Valid RagPromptBody ragPromptBody) {
+    Flux<ServerSentEvent<String>> stream(@RequestBody @Valid RagPromptBody ragPromptBody,
+            @ParameterObject @Valid StreamOptions streamOptions) {
         Prompt.Builder promptBuilder = getPromptBuilder(ragPromptBody);
-        return this.ragChatService.stream(ragPromptBody.conversationId, promptBuilder.build(),
-                Optional.ofNullable(ragPromptBody.filterExpression()));
+        return this.sseTokenStreamer.stream(
+                this.ragChatService.streamResponses(ragPromptBody.conversationId, promptBuilder.build(),
+                        Optional.ofNullable(ragPromptBody.filterExpression())),
+                streamOptions);
     }
 
 }
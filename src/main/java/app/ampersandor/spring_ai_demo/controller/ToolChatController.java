@@ -1,7 +1,10 @@
 package app.ampersandor.spring_ai_demo.controller;
 
+import app.ampersandor.spring_ai_demo.concurrency.ModelCallExecutor;
 import app.ampersandor.spring_ai_demo.dto.PromptBody;
+import app.ampersandor.spring_ai_demo.dto.StreamOptions;
 import app.ampersandor.spring_ai_demo.service.ToolChatService;
+import app.ampersandor.spring_ai_demo.stream.SseTokenStreamer;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
@@ -13,8 +16,10 @@ import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springdoc.core.annotations.ParameterObject;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -24,6 +29,7 @@ import reactor.core.publisher.Flux;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 
 @RestController
@@ -33,8 +39,15 @@ class ToolChatController {
 
     private final ToolChatService toolChatService;
 
-    public ToolChatController(ToolChatService toolChatService) {
+    private final SseTokenStreamer sseTokenStreamer;
+
+    private final ModelCallExecutor modelCallExecutor;
+
+    public ToolChatController(ToolChatService toolChatService, SseTokenStreamer sseTokenStreamer,
+            ModelCallExecutor modelCallExecutor) {
         this.toolChatService = toolChatService;
+        this.sseTokenStreamer = sseTokenStreamer;
+        this.modelCallExecutor = modelCallExecutor;
     }
 
     @Operation(
@@ -60,9 +73,10 @@ class ToolChatController {
             )
     )
     @PostMapping(value = "/call", produces = MediaType.APPLICATION_JSON_VALUE)
-    ChatResponse call(@RequestBody @Valid PromptBody promptBody) {
+    CompletableFuture<ChatResponse> call(@RequestBody @Valid PromptBody promptBody) {
         Prompt.Builder promptBuilder = getPromptBuilder(promptBody);
-        return this.toolChatService.call(promptBody.conversationId(), promptBuilder.build());
+        return this.modelCallExecutor.submit(promptBody.chatOptions(),
+                () -> this.toolChatService.call(promptBody.conversationId(), promptBuilder.build()));
     }
 
 
@@ -93,9 +107,12 @@ class ToolChatController {
             )
     )
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    Flux<String> stream(@RequestBody @Valid PromptBody promptBody) {
+    Flux<ServerSentEvent<String>> stream(@RequestBody @Valid PromptBody promptBody,
+            @ParameterObject @Valid StreamOptions streamOptions) {
         Prompt.Builder promptBuilder = getPromptBuilder(promptBody);
-        return this.toolChatService.stream(promptBody.conversationId(), promptBuilder.build());
+        return this.sseTokenStreamer.stream(
+                this.toolChatService.streamResponses(promptBody.conversationId(), promptBuilder.build()),
+                streamOptions);
     }
 
     private static Prompt.Builder getPromptBuilder(PromptBody promptBody) {
@@ -0,0 +1,16 @@
+package app.ampersandor.spring_ai_demo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.annotation.Nullable;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+
+/**
+ * Per-request overrides of the SSE token coalescing of the {@code /stream} endpoints, bound from query parameters.
+ * Unset values fall back to the endpoint configuration under {@code app.chat.stream.coalesce}.
+ */
+public record StreamOptions(
+            @Nullable @Schema(description = "토큰을 묶어서 전송할지 여부(선택)", example = "true") Boolean coalesce,
+            @Nullable @Positive @Schema(description = "프레임 하나에 묶을 최대 바이트(선택)", example = "256") Integer maxBytes,
+            @Nullable @PositiveOrZero @Schema(description = "프레임을 보내기 전 최대 대기 시간 ms(선택)", example = "50") Long maxDelayMs
+    ) {}
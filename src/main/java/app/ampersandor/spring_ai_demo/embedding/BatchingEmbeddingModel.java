@@ -0,0 +1,193 @@
+package app.ampersandor.spring_ai_demo.embedding;
+
+import app.ampersandor.spring_ai_demo.token.TokenEstimator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * {@link EmbeddingModel} decorator that splits large embedding requests into batches and sends several of them
+ * to the delegate at once.
+ * <p>
+ * The vector store hands the whole chunk list of a document to {@link #call}; here it is cut into batches bounded
+ * by {@code maxBatchSize} texts and {@code maxBatchTokens} tokens (as counted by {@link TokenEstimator}), and at
+ * most {@code maxInFlight} batches run concurrently on virtual threads. Results are reassembled in input order, a
+ * failed batch is retried with exponential backoff, and each call logs its throughput in chunks per second.
+ */
+public class BatchingEmbeddingModel implements EmbeddingModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchingEmbeddingModel.class);
+
+    private final EmbeddingModel delegate;
+
+    private final int maxBatchSize;
+
+    private final int maxBatchTokens;
+
+    private final int maxInFlight;
+
+    private final int maxAttempts;
+
+    private final Duration initialBackoff;
+
+    private final Counter chunks;
+
+    private final Counter retries;
+
+    private final Timer batchTimer;
+
+    public BatchingEmbeddingModel(EmbeddingModel delegate, int maxBatchSize, int maxBatchTokens, int maxInFlight,
+            int maxAttempts, Duration initialBackoff, MeterRegistry meterRegistry) {
+        if (maxBatchSize <= 0 || maxBatchTokens <= 0 || maxInFlight <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("Batch size, token budget, in-flight limit and attempts must be positive.");
+        }
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchTokens = maxBatchTokens;
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.chunks = Counter.builder("embedding.batch.chunks")
+                .description("Texts embedded through the batcher")
+                .register(meterRegistry);
+        this.retries = Counter.builder("embedding.batch.retries")
+                .description("Embedding batches retried after a failure")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("embedding.batch.duration")
+                .description("Latency of a single embedding batch")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        EmbeddingOptions options = request.getOptions() != null ? request.getOptions()
+                : EmbeddingOptionsBuilder.builder().build();
+        List<List<String>> batches = split(texts);
+        if (batches.size() <= 1) {
+            return embedBatch(texts, options);
+        }
+
+        long started = System.nanoTime();
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        Semaphore permits = new Semaphore(this.maxInFlight);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<EmbeddingResponse>> futures = new ArrayList<>(batches.size());
+            for (List<String> batch : batches) {
+                permits.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        return embedBatch(batch, options);
+                    }
+                    finally {
+                        permits.release();
+                    }
+                }));
+            }
+            // 배치 순서대로 결과를 이어 붙여 입력 순서를 유지
+            for (Future<EmbeddingResponse> future : futures) {
+                for (Embedding embedding : future.get().getResults()) {
+                    embeddings.add(new Embedding(embedding.getOutput(), embeddings.size()));
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while embedding batches", e);
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException
+                    : new IllegalStateException("Embedding batch failed", e.getCause());
+        }
+        double seconds = Math.max((System.nanoTime() - started) / 1e9, 1e-9);
+        logger.info("Embedded {} chunks in {} batches ({} in flight) in {} ms: {} chunks/sec", texts.size(),
+                batches.size(), this.maxInFlight, Math.round(seconds * 1000),
+                "%.1f".formatted(texts.size() / seconds));
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return this.delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return this.delegate.dimensions();
+    }
+
+    /**
+     * Greedy split that closes a batch when adding the next text would exceed either limit.
+     * A single text over the token budget still gets a batch of its own.
+     */
+    private List<List<String>> split(List<String> texts) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (String text : texts) {
+            int tokens = TokenEstimator.estimate(text);
+            if (!current.isEmpty()
+                    && (current.size() >= this.maxBatchSize || currentTokens + tokens > this.maxBatchTokens)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(text);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    private EmbeddingResponse embedBatch(List<String> batch, EmbeddingOptions options) {
+        Duration backoff = this.initialBackoff;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                EmbeddingResponse response = this.batchTimer
+                        .record(() -> this.delegate.call(new EmbeddingRequest(batch, options)));
+                this.chunks.increment(batch.size());
+                return response;
+            }
+            catch (RuntimeException e) {
+                if (attempt >= this.maxAttempts) {
+                    throw e;
+                }
+                this.retries.increment();
+                logger.warn("Embedding batch of {} texts failed (attempt {}/{}), retrying in {} ms: {}",
+                        batch.size(), attempt, this.maxAttempts, backoff.toMillis(), e.getMessage());
+                sleep(backoff);
+                backoff = backoff.multipliedBy(2);
+            }
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry an embedding batch", e);
+        }
+    }
+}
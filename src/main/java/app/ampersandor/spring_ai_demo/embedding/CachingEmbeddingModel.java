@@ -0,0 +1,281 @@
+package app.ampersandor.spring_ai_demo.embedding;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * {@link EmbeddingModel} decorator that remembers embeddings by content.
+ * <p>
+ * The key is the SHA-256 of the model id and the normalized text (NFC, trimmed, whitespace collapsed), so the same
+ * chunk produced by a re-run of the ETL pipeline, or the same user query, is embedded only once.
+ * Lookups go through a byte-bounded LRU in memory and then an optional, size-bounded {@link EmbeddingDiskCache};
+ * misses of one request are sent to the delegate in a single call. Concurrent requests for a key that is already
+ * being embedded wait for that call instead of issuing their own.
+ * <p>
+ * Batch calls ({@link #call}, {@link #embed(List)}) come from ingestion and are written to disk; single-text
+ * {@link #embed(String)} calls come from query-time retrieval and only populate the memory tier.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final EmbeddingModel delegate;
+
+    private final String modelId;
+
+    private final long maxMemoryBytes;
+
+    private final EmbeddingDiskCache diskCache;
+
+    private final LinkedHashMap<String, float[]> memory = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final Map<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+
+    private long memoryBytes;
+
+    private final Counter memoryHits;
+
+    private final Counter diskHits;
+
+    private final Counter coalesced;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    /**
+     * @param modelId used in the cache key when the request does not name a model
+     * @param maxMemoryBytes upper bound of the embedding bytes held by the memory tier
+     * @param diskPath file of the persistent tier, or {@code null} for memory only
+     * @param maxDiskBytes upper bound of the persistent tier's file size
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelId, long maxMemoryBytes, Path diskPath,
+            long maxDiskBytes, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.modelId = modelId;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.diskCache = diskPath != null ? new EmbeddingDiskCache(diskPath, maxDiskBytes) : null;
+        this.memoryHits = lookupCounter(meterRegistry, "memory");
+        this.diskHits = lookupCounter(meterRegistry, "disk");
+        this.coalesced = lookupCounter(meterRegistry, "coalesced");
+        this.misses = lookupCounter(meterRegistry, "miss");
+        this.evictions = Counter.builder("embedding.cache.evictions")
+                .description("Embeddings evicted from the memory tier")
+                .register(meterRegistry);
+        Gauge.builder("embedding.cache.memory.bytes", this, model -> model.memoryBytes())
+                .description("Embedding bytes held by the memory tier")
+                .register(meterRegistry);
+        Gauge.builder("embedding.cache.disk.entries", this,
+                        model -> model.diskCache != null ? model.diskCache.size() : 0)
+                .description("Embeddings stored in the disk tier")
+                .register(meterRegistry);
+        Gauge.builder("embedding.cache.disk.bytes", this,
+                        model -> model.diskCache != null ? model.diskCache.sizeInBytes() : 0)
+                .description("Size of the disk tier's file")
+                .register(meterRegistry);
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("embedding.cache.lookups")
+                .description("Embedding cache lookups by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public double hitCount() {
+        return this.memoryHits.count() + this.diskHits.count() + this.coalesced.count();
+    }
+
+    public double missCount() {
+        return this.misses.count();
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<float[]> vectors = lookup(request.getInstructions(), request.getOptions(), true);
+        List<Embedding> embeddings = new ArrayList<>(vectors.size());
+        for (int i = 0; i < vectors.size(); i++) {
+            embeddings.add(new Embedding(vectors.get(i), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(String text) {
+        return lookup(List.of(text), null, false).get(0);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) {
+        return lookup(texts, null, true);
+    }
+
+    @Override
+    public int dimensions() {
+        return this.delegate.dimensions();
+    }
+
+    @Override
+    public void close() {
+        if (this.diskCache != null) {
+            this.diskCache.close();
+        }
+    }
+
+    private List<float[]> lookup(List<String> texts, EmbeddingOptions options, boolean persist) {
+        String model = options != null && options.getModel() != null ? options.getModel() : this.modelId;
+        float[][] results = new float[texts.size()][];
+        // 같은 요청 안의 중복 텍스트도 한 번만 임베딩
+        Map<String, List<Integer>> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String key = key(model, texts.get(i));
+            float[] cached = fromMemory(key);
+            if (cached != null) {
+                this.memoryHits.increment();
+                results[i] = cached;
+                continue;
+            }
+            cached = this.diskCache != null ? this.diskCache.get(key) : null;
+            if (cached != null) {
+                this.diskHits.increment();
+                toMemory(key, cached);
+                results[i] = cached;
+                continue;
+            }
+            missing.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+        if (!missing.isEmpty()) {
+            resolveMissing(texts, options, persist, missing, results);
+        }
+        List<float[]> copies = new ArrayList<>(results.length);
+        for (float[] result : results) {
+            // 호출자가 벡터를 제자리에서 정규화해도 캐시가 오염되지 않도록 복사본을 돌려준다
+            copies.add(result.clone());
+        }
+        return copies;
+    }
+
+    private void resolveMissing(List<String> texts, EmbeddingOptions options, boolean persist,
+            Map<String, List<Integer>> missing, float[][] results) {
+        Map<String, CompletableFuture<float[]>> owned = new LinkedHashMap<>();
+        Map<String, CompletableFuture<float[]>> awaited = new LinkedHashMap<>();
+        for (String key : missing.keySet()) {
+            CompletableFuture<float[]> future = new CompletableFuture<>();
+            CompletableFuture<float[]> existing = this.inFlight.putIfAbsent(key, future);
+            if (existing == null) {
+                owned.put(key, future);
+            }
+            else {
+                awaited.put(key, existing);
+            }
+        }
+
+        if (!owned.isEmpty()) {
+            List<String> keys = new ArrayList<>(owned.keySet());
+            List<String> batch = keys.stream().map(key -> texts.get(missing.get(key).get(0))).toList();
+            try {
+                EmbeddingResponse response = this.delegate.call(new EmbeddingRequest(batch,
+                        options != null ? options : EmbeddingOptionsBuilder.builder().build()));
+                List<Embedding> embeddings = response.getResults();
+                for (int i = 0; i < keys.size(); i++) {
+                    String key = keys.get(i);
+                    float[] embedding = embeddings.get(i).getOutput();
+                    toMemory(key, embedding);
+                    if (persist && this.diskCache != null) {
+                        this.diskCache.put(key, embedding);
+                    }
+                    owned.get(key).complete(embedding);
+                    missing.get(key).forEach(position -> results[position] = embedding);
+                }
+                this.misses.increment(keys.size());
+            }
+            catch (RuntimeException e) {
+                owned.values().forEach(future -> future.completeExceptionally(e));
+                throw e;
+            }
+            finally {
+                owned.forEach(this.inFlight::remove);
+            }
+        }
+
+        awaited.forEach((key, future) -> {
+            float[] embedding;
+            try {
+                embedding = future.join();
+            }
+            catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+            }
+            this.coalesced.increment();
+            missing.get(key).forEach(position -> results[position] = embedding);
+        });
+    }
+
+    private synchronized float[] fromMemory(String key) {
+        return this.memory.get(key);
+    }
+
+    private synchronized void toMemory(String key, float[] embedding) {
+        if (this.memory.put(key, embedding) == null) {
+            this.memoryBytes += entryBytes(embedding);
+        }
+        Iterator<Map.Entry<String, float[]>> iterator = this.memory.entrySet().iterator();
+        while (this.memoryBytes > this.maxMemoryBytes && iterator.hasNext()) {
+            this.memoryBytes -= entryBytes(iterator.next().getValue());
+            iterator.remove();
+            this.evictions.increment();
+        }
+    }
+
+    private synchronized long memoryBytes() {
+        return this.memoryBytes;
+    }
+
+    private static long entryBytes(float[] embedding) {
+        return (long) embedding.length * Float.BYTES;
+    }
+
+    static String key(String model, String text) {
+        String normalized = WHITESPACE.matcher(Normalizer.normalize(text == null ? "" : text, Normalizer.Form.NFC)
+                .strip()).replaceAll(" ");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((model == null ? "" : model).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
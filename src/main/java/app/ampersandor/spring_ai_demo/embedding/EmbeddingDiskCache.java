@@ -0,0 +1,258 @@
+package app.ampersandor.spring_ai_demo.embedding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only file of {@code (key, embedding)} records used as the persistent tier of
+ * {@link CachingEmbeddingModel}. Only the key → file offset index is held in memory; vectors are read back
+ * with positional reads. A record cut short by a crash is detected on open and truncated away.
+ * <p>
+ * The file is bounded by {@code maxBytes}: when an append would exceed it, the file is rewritten with the most
+ * recently used records up to three quarters of the bound and the rest are dropped. Use is tracked
+ * in memory only, so after a restart records count as used in file order. Lookups wait while the file is
+ * rewritten.
+ * <p>
+ * Record layout: 64 ASCII bytes of hex key, int dimension count, then the floats (big-endian).
+ */
+class EmbeddingDiskCache implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingDiskCache.class);
+
+    private static final int KEY_BYTES = 64;
+
+    private static final int HEADER_BYTES = KEY_BYTES + Integer.BYTES;
+
+    private static final double COMPACTION_TARGET = 0.75;
+
+    private final Path file;
+
+    private final long maxBytes;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private FileChannel channel;
+
+    private long end;
+
+    /**
+     * @param maxBytes upper bound of the file size
+     */
+    EmbeddingDiskCache(Path file, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive.");
+        }
+        this.file = file;
+        this.maxBytes = maxBytes;
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            if (directory != null) {
+                Files.createDirectories(directory);
+            }
+            this.channel = open(file);
+            scan();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to open embedding cache " + file, e);
+        }
+        logger.info("Opened embedding cache {} with {} entries", file, this.entries.size());
+    }
+
+    int size() {
+        return this.entries.size();
+    }
+
+    long sizeInBytes() {
+        return this.end;
+    }
+
+    float[] get(String key) {
+        this.lock.readLock().lock();
+        try {
+            Entry entry = this.entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            entry.lastUsed = this.clock.incrementAndGet();
+            ByteBuffer body = ByteBuffer.allocate(entry.dimensions * Float.BYTES);
+            readFully(this.channel, body, entry.offset + HEADER_BYTES);
+            float[] embedding = new float[entry.dimensions];
+            body.flip().asFloatBuffer().get(embedding);
+            return embedding;
+        }
+        catch (IOException e) {
+            logger.warn("Failed to read cached embedding {}, treating as miss", key, e);
+            return null;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    void put(String key, float[] embedding) {
+        long recordBytes = HEADER_BYTES + (long) embedding.length * Float.BYTES;
+        if (recordBytes > this.maxBytes) {
+            return;
+        }
+        this.lock.writeLock().lock();
+        try {
+            if (this.entries.containsKey(key)) {
+                return;
+            }
+            if (this.end + recordBytes > this.maxBytes) {
+                compact((long) (this.maxBytes * COMPACTION_TARGET) - recordBytes);
+            }
+            ByteBuffer record = ByteBuffer.allocate((int) recordBytes);
+            record.put(key.getBytes(StandardCharsets.US_ASCII)).putInt(embedding.length);
+            record.asFloatBuffer().put(embedding);
+            record.position(0);
+            long position = this.end;
+            while (record.hasRemaining()) {
+                position += this.channel.write(record, position);
+            }
+            this.entries.put(key, new Entry(this.end, embedding.length, this.clock.incrementAndGet()));
+            this.end = position;
+        }
+        catch (IOException e) {
+            logger.warn("Failed to persist embedding {}", key, e);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.lock.writeLock().lock();
+        try {
+            this.channel.force(false);
+            this.channel.close();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to close embedding cache", e);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file with the most recently used records that fit in {@code targetBytes} and atomically
+     * replaces it. Caller must hold the write lock.
+     */
+    private void compact(long targetBytes) throws IOException {
+        long started = System.nanoTime();
+        List<Map.Entry<String, Entry>> byRecency = new ArrayList<>(this.entries.entrySet());
+        byRecency.sort(Comparator.comparingLong((Map.Entry<String, Entry> e) -> e.getValue().lastUsed).reversed());
+        Path temp = Files.createTempFile(this.file.toAbsolutePath().getParent(), this.file.getFileName().toString(),
+                ".tmp");
+        Map<String, Entry> kept = new ConcurrentHashMap<>();
+        long position = 0;
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                for (Map.Entry<String, Entry> candidate : byRecency) {
+                    Entry entry = candidate.getValue();
+                    long recordBytes = HEADER_BYTES + (long) entry.dimensions * Float.BYTES;
+                    if (position + recordBytes > targetBytes) {
+                        break;
+                    }
+                    long copied = 0;
+                    while (copied < recordBytes) {
+                        copied += this.channel.transferTo(entry.offset + copied, recordBytes - copied, out);
+                    }
+                    kept.put(candidate.getKey(), new Entry(position, entry.dimensions, entry.lastUsed));
+                    position += recordBytes;
+                }
+                out.force(true);
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+        this.channel.close();
+        this.channel = open(this.file);
+        int dropped = this.entries.size() - kept.size();
+        this.entries.clear();
+        this.entries.putAll(kept);
+        this.end = position;
+        logger.info("Compacted embedding cache {}: kept {} entries ({} bytes), dropped {} in {} ms", this.file,
+                kept.size(), position, dropped, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void scan() throws IOException {
+        long size = this.channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        byte[] key = new byte[KEY_BYTES];
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(this.channel, header, position);
+            header.flip().get(key);
+            int dimensions = header.getInt();
+            long next = position + HEADER_BYTES + (long) dimensions * Float.BYTES;
+            if (dimensions <= 0 || next > size) {
+                break;
+            }
+            this.entries.put(new String(key, StandardCharsets.US_ASCII),
+                    new Entry(position, dimensions, this.clock.incrementAndGet()));
+            position = next;
+        }
+        if (position < size) {
+            logger.warn("Truncating {} trailing bytes of a partially written embedding cache record",
+                    size - position);
+            this.channel.truncate(position);
+        }
+        this.end = position;
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of embedding cache");
+            }
+            position += read;
+        }
+    }
+
+    private static final class Entry {
+
+        final long offset;
+
+        final int dimensions;
+
+        volatile long lastUsed;
+
+        Entry(long offset, int dimensions, long lastUsed) {
+            this.offset = offset;
+            this.dimensions = dimensions;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package app.ampersandor.spring_ai_demo.etl;
+
+import app.ampersandor.spring_ai_demo.vectorstore.PersistentVectorStore;
+import org.springframework.ai.document.DocumentWriter;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A {@link DocumentWriter} that keeps its own local index of the written chunks next to the vector store (for
+ * example a lexical index). {@link IncrementalIndexer} removes stale chunks from it and flushes it at every
+ * checkpoint, like a {@link PersistentVectorStore}.
+ */
+public interface DocumentIndex extends DocumentWriter {
+
+    void delete(List<String> documentIds);
+
+    /**
+     * Writes the current contents to local storage, if the index is configured with a location.
+     */
+    void persist();
+
+    /**
+     * Whether every given document is currently held, see {@link PersistentVectorStore#containsAll}.
+     */
+    boolean containsAll(Collection<String> documentIds);
+}
@@ -0,0 +1,92 @@
+package app.ampersandor.spring_ai_demo.etl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of what the ETL pipeline has already indexed: for every source file the checksum of its content and the
+ * ids of the chunks written for it. Stored as a JSON object keyed by source name and replaced atomically on
+ * {@link #save()}, so a crash leaves either the previous or the new checkpoint on disk.
+ */
+public class DocumentManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentManifest.class);
+
+    private static final TypeReference<Map<String, Entry>> ENTRIES_TYPE = new TypeReference<>() {
+    };
+
+    private final Path path;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param checksum SHA-256 of the source content at the time it was indexed
+     * @param chunkIds ids of the documents the pipeline wrote for the source
+     * @param indexedAt ISO-8601 instant of the checkpoint
+     */
+    public record Entry(String checksum, List<String> chunkIds, String indexedAt) {
+    }
+
+    public DocumentManifest(Path path) {
+        this.path = path;
+        if (Files.exists(path)) {
+            try {
+                this.entries.putAll(this.objectMapper.readValue(path.toFile(), ENTRIES_TYPE));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Failed to read ETL manifest " + path, e);
+            }
+            logger.info("Loaded ETL manifest {} with {} sources", path, this.entries.size());
+        }
+    }
+
+    public Entry get(String source) {
+        return this.entries.get(source);
+    }
+
+    public Set<String> sources() {
+        return Set.copyOf(this.entries.keySet());
+    }
+
+    public void put(String source, Entry entry) {
+        this.entries.put(source, entry);
+    }
+
+    public void remove(String source) {
+        this.entries.remove(source);
+    }
+
+    /**
+     * Writes the current entries to a temporary file and moves it over the manifest.
+     */
+    public synchronized void save() {
+        try {
+            Path directory = this.path.toAbsolutePath().getParent();
+            if (directory != null) {
+                Files.createDirectories(directory);
+            }
+            Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+            // 정렬해서 저장하면 실행 간 diff 를 보기 쉽다
+            this.objectMapper.writerWithDefaultPrettyPrinter().writeValue(temp.toFile(), new TreeMap<>(this.entries));
+            Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to write ETL manifest " + this.path, e);
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package app.ampersandor.spring_ai_demo.etl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentReader;
+import org.springframework.ai.document.DocumentTransformer;
+import org.springframework.ai.document.DocumentWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Runs the ETL steps as concurrent stages connected by bounded queues.
+ * <p>
+ * Every source document travels through read → transform stages → write on its own, so one file can be
+ * enriched by the LLM while the next one is being split. Each stage has its own worker count and can run on
+ * virtual threads when it mostly waits on I/O (LLM or embedding calls). A full queue blocks the upstream stage,
+ * which bounds how many documents are in memory at once. A {@link StreamingDocumentReader} hands its output
+ * over in batches (e.g. a few PDF pages), each travelling as its own item, so even a single large file is never
+ * held in memory as a whole. An exception only drops the batch it happened on; it is recorded in the
+ * {@link EtlReport} and the run continues.
+ * <p>
+ * Before a {@link Stage#write write} stage every chunk gets an id derived from its source name, batch number and
+ * position in the batch, so running the same file again writes the same ids and overwrites chunks an earlier,
+ * interrupted run left behind instead of adding a second copy.
+ */
+public class EtlPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(EtlPipeline.class);
+
+    private final Stage readStage;
+
+    private final List<Stage> stages;
+
+    private final int queueCapacity;
+
+    private final MeterRegistry meterRegistry;
+
+    public EtlPipeline(Stage readStage, List<Stage> stages, int queueCapacity, MeterRegistry meterRegistry) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive.");
+        }
+        this.readStage = readStage;
+        this.stages = List.copyOf(stages);
+        this.queueCapacity = queueCapacity;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Processes every source and blocks until the last stage has drained.
+     */
+    public EtlReport run(List<Source> sources) {
+        return run(sources, new Listener() {
+        });
+    }
+
+    /**
+     * Same as {@link #run(List)}, reporting every source as soon as all of its batches have left the pipeline.
+     */
+    public EtlReport run(List<Source> sources, Listener listener) {
+        long started = System.nanoTime();
+        List<Stage> all = new ArrayList<>(this.stages.size() + 1);
+        all.add(this.readStage);
+        all.addAll(this.stages);
+
+        List<BlockingQueue<Item>> queues = new ArrayList<>(all.size());
+        for (int i = 0; i < all.size(); i++) {
+            queues.add(new ArrayBlockingQueue<>(this.queueCapacity));
+        }
+        List<StageRunner> runners = new ArrayList<>(all.size());
+        List<EtlReport.Failure> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < all.size(); i++) {
+            BlockingQueue<Item> output = i + 1 < all.size() ? queues.get(i + 1) : null;
+            int downstreamWorkers = i + 1 < all.size() ? all.get(i + 1).concurrency() : 0;
+            runners.add(new StageRunner(all.get(i), queues.get(i), output, downstreamWorkers, failures));
+        }
+        runners.forEach(StageRunner::start);
+
+        try {
+            // 큐가 가득 차면 여기서 대기하므로 읽기 단계가 하위 단계보다 앞서 나가지 않는다
+            for (Source source : sources) {
+                queues.get(0).put(new Item(new SourceState(source.name(), listener), source.reader(), List.of(), 0));
+            }
+            for (int i = 0; i < this.readStage.concurrency(); i++) {
+                queues.get(0).put(Item.END);
+            }
+            for (StageRunner runner : runners) {
+                runner.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            runners.forEach(StageRunner::interrupt);
+            throw new IllegalStateException("ETL pipeline interrupted", e);
+        }
+
+        EtlReport report = new EtlReport(Duration.ofNanos(System.nanoTime() - started),
+                runners.stream().map(StageRunner::stats).toList(), List.copyOf(failures));
+        logger.info("{}", report);
+        return report;
+    }
+
+    /**
+     * One step of the pipeline.
+     *
+     * @param concurrency number of workers pulling from this stage's input queue
+     * @param virtualThreads run the workers on virtual threads (for stages that block on I/O)
+     * @param assignsIds replace the chunk ids with ones derived from source and position before {@code function}
+     */
+    public record Stage(String name, Function<List<Document>, List<Document>> function, int concurrency,
+            boolean virtualThreads, boolean assignsIds) {
+
+        public Stage {
+            if (concurrency <= 0) {
+                throw new IllegalArgumentException("Stage " + name + " concurrency must be positive.");
+            }
+        }
+
+        public Stage(String name, Function<List<Document>, List<Document>> function, int concurrency,
+                boolean virtualThreads) {
+            this(name, function, concurrency, virtualThreads, false);
+        }
+
+        /**
+         * The read stage; its function receives every batch the source's reader returned.
+         */
+        public static Stage read(int concurrency, boolean virtualThreads) {
+            return new Stage("read", documents -> documents, concurrency, virtualThreads);
+        }
+
+        public static Stage transform(String name, DocumentTransformer transformer, int concurrency,
+                boolean virtualThreads) {
+            return new Stage(name, transformer, concurrency, virtualThreads);
+        }
+
+        /**
+         * Gives the chunks their stable ids, sends them to every writer and passes them on.
+         */
+        public static Stage write(String name, DocumentWriter[] writers, int concurrency, boolean virtualThreads) {
+            return new Stage(name, documents -> {
+                for (DocumentWriter writer : writers) {
+                    writer.write(documents);
+                }
+                return documents;
+            }, concurrency, virtualThreads, true);
+        }
+    }
+
+    /**
+     * A source file and the reader that extracts it; {@code name} identifies it in reports and callbacks.
+     */
+    public record Source(String name, DocumentReader reader) {
+    }
+
+    /**
+     * Callbacks from the worker threads. A source is reported exactly once, after its last batch has finished:
+     * completed when every batch went through every stage, failed otherwise.
+     */
+    public interface Listener {
+
+        /**
+         * @param documentIds ids of the documents the last stage returned, over all batches
+         */
+        default void completed(String source, List<String> documentIds) {
+        }
+
+        /**
+         * @param stage stage of the first failure
+         * @param writtenDocumentIds ids of the documents of batches that did complete, e.g. to roll them back
+         */
+        default void failed(String source, String stage, RuntimeException error, List<String> writtenDocumentIds) {
+        }
+    }
+
+    /**
+     * Tracks the batches of one source that are still in flight and reports the source once they are done.
+     * The read itself holds one reference until the reader has returned.
+     */
+    private static final class SourceState {
+
+        private final String name;
+
+        private final Listener listener;
+
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+
+        private final AtomicInteger batches = new AtomicInteger();
+
+        private final List<String> documentIds = Collections.synchronizedList(new ArrayList<>());
+
+        private volatile String failedStage;
+
+        private volatile RuntimeException error;
+
+        SourceState(String name, Listener listener) {
+            this.name = name;
+            this.listener = listener;
+        }
+
+        /**
+         * Takes a reference for a new batch and returns its number; batches are numbered in read order.
+         */
+        int retain() {
+            this.outstanding.incrementAndGet();
+            return this.batches.getAndIncrement();
+        }
+
+        void completed(List<Document> documents) {
+            documents.forEach(document -> this.documentIds.add(document.getId()));
+            release();
+        }
+
+        void failed(String stage, RuntimeException error) {
+            synchronized (this) {
+                if (this.error == null) {
+                    this.failedStage = stage;
+                    this.error = error;
+                }
+            }
+            release();
+        }
+
+        void release() {
+            if (this.outstanding.decrementAndGet() != 0) {
+                return;
+            }
+            try {
+                if (this.error == null) {
+                    this.listener.completed(this.name, List.copyOf(this.documentIds));
+                }
+                else {
+                    this.listener.failed(this.name, this.failedStage, this.error, List.copyOf(this.documentIds));
+                }
+            }
+            catch (RuntimeException e) {
+                logger.warn("ETL listener failed for {}", this.name, e);
+            }
+        }
+    }
+
+    /**
+     * A batch in flight. {@link #END} tells a worker that its upstream stage has finished.
+     *
+     * @param batch number of the batch within its source
+     */
+    private record Item(SourceState source, DocumentReader reader, List<Document> documents, int batch) {
+
+        static final Item END = new Item(null, null, List.of(), 0);
+
+        Item withDocuments(List<Document> next) {
+            return new Item(this.source, null, next, this.batch);
+        }
+
+        /**
+         * The documents with ids that only depend on source, batch and position.
+         */
+        List<Document> withStableIds() {
+            List<Document> renamed = new ArrayList<>(this.documents.size());
+            for (int i = 0; i < this.documents.size(); i++) {
+                String key = this.source.name + "#" + this.batch + "#" + i;
+                String id = UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+                renamed.add(this.documents.get(i).mutate().id(id).build());
+            }
+            return renamed;
+        }
+    }
+
+    /**
+     * Thrown out of a {@link StreamingDocumentReader} callback when the pipeline is interrupted.
+     */
+    private static final class Interrupted extends RuntimeException {
+
+        Interrupted(InterruptedException cause) {
+            super(cause);
+        }
+    }
+
+    private final class StageRunner {
+
+        private final Stage stage;
+
+        private final BlockingQueue<Item> input;
+
+        private final BlockingQueue<Item> output;
+
+        private final int downstreamWorkers;
+
+        private final List<EtlReport.Failure> failures;
+
+        private final List<Thread> workers = new ArrayList<>();
+
+        private final AtomicInteger running;
+
+        private final AtomicLong processed = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        private final AtomicLong blockedNanos = new AtomicLong();
+
+        private final Timer timer;
+
+        StageRunner(Stage stage, BlockingQueue<Item> input, BlockingQueue<Item> output, int downstreamWorkers,
+                List<EtlReport.Failure> failures) {
+            this.stage = stage;
+            this.input = input;
+            this.output = output;
+            this.downstreamWorkers = downstreamWorkers;
+            this.failures = failures;
+            this.running = new AtomicInteger(stage.concurrency());
+            this.timer = Timer.builder("etl.stage.duration")
+                    .description("Time spent by an ETL stage on one batch of documents")
+                    .tag("stage", stage.name())
+                    .register(EtlPipeline.this.meterRegistry);
+        }
+
+        void start() {
+            Thread.Builder builder = this.stage.virtualThreads() ? Thread.ofVirtual() : Thread.ofPlatform();
+            builder = builder.name("etl-" + this.stage.name() + "-", 0);
+            for (int i = 0; i < this.stage.concurrency(); i++) {
+                this.workers.add(builder.start(this::work));
+            }
+        }
+
+        void join() throws InterruptedException {
+            for (Thread worker : this.workers) {
+                worker.join();
+            }
+        }
+
+        void interrupt() {
+            this.workers.forEach(Thread::interrupt);
+        }
+
+        EtlReport.StageStats stats() {
+            return new EtlReport.StageStats(this.stage.name(), this.stage.concurrency(), this.processed.get(),
+                    this.failed.get(), Duration.ofNanos(this.busyNanos.get()),
+                    Duration.ofNanos(this.blockedNanos.get()));
+        }
+
+        private void work() {
+            try {
+                while (true) {
+                    Item item = this.input.take();
+                    if (item == Item.END) {
+                        break;
+                    }
+                    if (this.stage == EtlPipeline.this.readStage) {
+                        read(item);
+                    }
+                    else {
+                        transform(item);
+                    }
+                }
+            }
+            catch (InterruptedException | Interrupted e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                // 마지막으로 끝나는 worker 가 하위 단계 worker 수만큼 종료 신호를 보낸다
+                if (this.running.decrementAndGet() == 0 && this.output != null) {
+                    signalEnd();
+                }
+            }
+        }
+
+        private void read(Item item) {
+            long started = System.nanoTime();
+            long blockedBefore = this.blockedNanos.get();
+            try {
+                if (item.reader() instanceof StreamingDocumentReader streamingReader) {
+                    streamingReader.read(batch -> emit(item.source(), this.stage.function().apply(batch)));
+                }
+                else {
+                    emit(item.source(), this.stage.function().apply(item.reader().read()));
+                }
+                this.processed.incrementAndGet();
+                item.source().release();
+            }
+            catch (Interrupted e) {
+                throw e;
+            }
+            catch (RuntimeException e) {
+                fail(item, e);
+            }
+            finally {
+                // 하위 단계를 기다린 시간은 blocked 로 따로 집계한다
+                record(System.nanoTime() - started - (this.blockedNanos.get() - blockedBefore));
+            }
+        }
+
+        private void emit(SourceState source, List<Document> documents) {
+            int batch = source.retain();
+            try {
+                forward(new Item(source, null, documents, batch));
+            }
+            catch (InterruptedException e) {
+                throw new Interrupted(e);
+            }
+        }
+
+        private void transform(Item item) throws InterruptedException {
+            long started = System.nanoTime();
+            Item next;
+            try {
+                List<Document> documents = this.stage.assignsIds() ? item.withStableIds() : item.documents();
+                next = item.withDocuments(this.stage.function().apply(documents));
+                this.processed.incrementAndGet();
+            }
+            catch (RuntimeException e) {
+                fail(item, e);
+                return;
+            }
+            finally {
+                record(System.nanoTime() - started);
+            }
+            forward(next);
+        }
+
+        private void forward(Item item) throws InterruptedException {
+            if (this.output == null) {
+                item.source().completed(item.documents());
+                return;
+            }
+            long waitStarted = System.nanoTime();
+            this.output.put(item);
+            this.blockedNanos.addAndGet(System.nanoTime() - waitStarted);
+        }
+
+        private void fail(Item item, RuntimeException e) {
+            this.failed.incrementAndGet();
+            this.failures.add(new EtlReport.Failure(item.source().name, this.stage.name(), e.toString()));
+            logger.warn("ETL stage '{}' failed for {}, skipping it", this.stage.name(), item.source().name, e);
+            item.source().failed(this.stage.name(), e);
+        }
+
+        private void record(long nanos) {
+            this.busyNanos.addAndGet(nanos);
+            this.timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void signalEnd() {
+            try {
+                // offer 는 큐가 가득 차면 신호를 버리므로 put 으로 기다린다
+                for (int i = 0; i < this.downstreamWorkers; i++) {
+                    this.output.put(Item.END);
+                }
+            }
+            catch (InterruptedException e) {
+                // run() 이 중단된 경우로, 하위 단계 worker 도 함께 인터럽트된다
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
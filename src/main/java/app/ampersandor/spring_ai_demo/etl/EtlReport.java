@@ -0,0 +1,37 @@
+package app.ampersandor.spring_ai_demo.etl;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Outcome of one {@link EtlPipeline#run}: wall-clock time, per-stage statistics and the documents that were
+ * dropped because a stage failed on them.
+ */
+public record EtlReport(Duration elapsed, List<StageStats> stages, List<Failure> failures) {
+
+    /**
+     * @param busy summed time the workers spent inside the stage function
+     * @param blocked summed time the workers waited for room in the downstream queue (backpressure)
+     */
+    public record StageStats(String name, int concurrency, long processed, long failed, Duration busy,
+            Duration blocked) {
+    }
+
+    public record Failure(String source, String stage, String error) {
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("ETL pipeline finished in %d ms with %d failure(s)"
+                .formatted(this.elapsed.toMillis(), this.failures.size()));
+        for (StageStats stage : this.stages) {
+            builder.append("%n  %-8s x%d processed=%d failed=%d busy=%d ms blocked=%d ms".formatted(stage.name(),
+                    stage.concurrency(), stage.processed(), stage.failed(), stage.busy().toMillis(),
+                    stage.blocked().toMillis()));
+        }
+        for (Failure failure : this.failures) {
+            builder.append("%n  ! %s failed in %s: %s".formatted(failure.source(), failure.stage(), failure.error()));
+        }
+        return builder.toString();
+    }
+}
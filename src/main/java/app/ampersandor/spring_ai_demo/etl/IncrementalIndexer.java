@@ -0,0 +1,297 @@
+package app.ampersandor.spring_ai_demo.etl;
+
+import app.ampersandor.spring_ai_demo.vectorstore.PersistentVectorStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.DocumentReader;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Runs the {@link EtlPipeline} only for source files that are new or changed since the last run.
+ * <p>
+ * Every file is fingerprinted with SHA-256 and compared with the {@link DocumentManifest}. Chunks of changed and
+ * deleted files are removed from the vector stores first, then the remaining work goes through the pipeline and
+ * each finished file is checkpointed into the manifest. A run that is interrupted therefore resumes with the files
+ * that had not been checkpointed yet.
+ * <p>
+ * Stores that only live in memory until {@link PersistentVectorStore#persist()} are flushed before the manifest
+ * is saved, at most once per {@code checkpointInterval}, so the manifest never claims chunks the store on disk
+ * does not have. Without a manifest every file is processed, as before.
+ * <p>
+ * The manifest is only as durable as the stores it describes: an unchanged file is skipped only if every
+ * {@link PersistentVectorStore} and {@link DocumentIndex} still holds all of its recorded chunks (one configured
+ * without a location starts empty after a restart), otherwise it is indexed again. A {@link SimpleVectorStore}
+ * cannot be checked and keeps nothing across restarts, so with one the manifest never skips a file. Other
+ * external stores are trusted.
+ * <p>
+ * {@link DocumentIndex}es the pipeline writes to besides the vector stores get the same deletes and flushes.
+ * <p>
+ * Sources are keyed in the manifest, and their stable chunk ids derived, by a name that does not depend on where
+ * the application runs from (see {@link #sourceNames}), so a new jar version or install directory does not turn
+ * every file into a removed one plus a new one.
+ */
+public class IncrementalIndexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalIndexer.class);
+
+    private final EtlPipeline pipeline;
+
+    private final DocumentManifest manifest;
+
+    private final List<VectorStore> vectorStores;
+
+    private final List<DocumentIndex> documentIndexes;
+
+    private final Function<Resource, DocumentReader> readerFactory;
+
+    private final Function<Resource, String> sourceNames;
+
+    private final Duration checkpointInterval;
+
+    private final boolean manifestTrusted;
+
+    private long lastCheckpoint = System.nanoTime();
+
+    /**
+     * @param manifest manifest to diff against, or {@code null} to index every file
+     * @param vectorStores stores the pipeline writes to; stale chunks are deleted from them
+     * @param documentIndexes other indexes the pipeline writes to, kept in step with the vector stores
+     * @param sourceNames name of each resource in the manifest and its chunk ids, e.g. {@link #sourceNames}
+     * @param checkpointInterval minimum time between two flushes of {@link PersistentVectorStore}s
+     */
+    public IncrementalIndexer(EtlPipeline pipeline, DocumentManifest manifest, List<VectorStore> vectorStores,
+            List<DocumentIndex> documentIndexes, Function<Resource, DocumentReader> readerFactory,
+            Function<Resource, String> sourceNames, Duration checkpointInterval) {
+        this.pipeline = pipeline;
+        this.manifest = manifest;
+        this.vectorStores = List.copyOf(vectorStores);
+        this.documentIndexes = List.copyOf(documentIndexes);
+        this.readerFactory = readerFactory;
+        this.sourceNames = sourceNames;
+        this.checkpointInterval = checkpointInterval;
+        this.manifestTrusted = this.vectorStores.stream().noneMatch(SimpleVectorStore.class::isInstance);
+        if (manifest != null && !this.manifestTrusted) {
+            logger.warn("SimpleVectorStore is not checked against the ETL manifest; every file will be re-indexed");
+        }
+    }
+
+    public EtlReport index(Resource[] resources) {
+        Map<String, Resource> current = new LinkedHashMap<>();
+        for (Resource resource : resources) {
+            current.put(this.sourceNames.apply(resource), resource);
+        }
+        if (this.manifest == null) {
+            EtlReport report = this.pipeline.run(current.entrySet().stream()
+                    .map(entry -> new EtlPipeline.Source(entry.getKey(), this.readerFactory.apply(entry.getValue())))
+                    .toList());
+            checkpoint();
+            return report;
+        }
+
+        int removed = 0;
+        for (String source : this.manifest.sources()) {
+            if (!current.containsKey(source)) {
+                deleteChunks(source);
+                removed++;
+            }
+        }
+        Map<String, String> checksums = new LinkedHashMap<>();
+        List<EtlPipeline.Source> pending = new ArrayList<>();
+        int changed = 0;
+        int missing = 0;
+        for (Map.Entry<String, Resource> entry : current.entrySet()) {
+            String checksum;
+            try {
+                checksum = checksum(entry.getValue());
+            }
+            catch (UncheckedIOException e) {
+                logger.warn("Skipping {}: {}", entry.getKey(), e.getMessage());
+                continue;
+            }
+            DocumentManifest.Entry indexed = this.manifest.get(entry.getKey());
+            if (indexed != null && indexed.checksum().equals(checksum)) {
+                if (held(indexed.chunkIds())) {
+                    continue;
+                }
+                // 파일은 그대로지만 저장소가 청크를 잃었다 (경로 없는 저장소의 재시작 등)
+                logger.warn("Chunks of {} are missing from the index, re-indexing it", entry.getKey());
+                deleteChunks(entry.getKey());
+                missing++;
+            }
+            else if (indexed != null) {
+                deleteChunks(entry.getKey());
+                changed++;
+            }
+            checksums.put(entry.getKey(), checksum);
+            pending.add(new EtlPipeline.Source(entry.getKey(), this.readerFactory.apply(entry.getValue())));
+        }
+        logger.info("ETL manifest: {} unchanged, {} new, {} changed, {} missing, {} removed source(s)",
+                current.size() - pending.size(), pending.size() - changed - missing, changed, missing, removed);
+        // 삭제 결과를 먼저 확정해야 재시작 시 같은 청크를 다시 지우거나 고아 청크가 남지 않는다
+        checkpoint();
+        if (pending.isEmpty()) {
+            return new EtlReport(Duration.ZERO, List.of(), List.of());
+        }
+
+        EtlReport report = this.pipeline.run(pending, new EtlPipeline.Listener() {
+
+            @Override
+            public void completed(String source, List<String> documentIds) {
+                IncrementalIndexer.this.manifest.put(source,
+                        new DocumentManifest.Entry(checksums.get(source), documentIds, Instant.now().toString()));
+                checkpointIfDue();
+            }
+
+            @Override
+            public void failed(String source, String stage, RuntimeException error, List<String> writtenDocumentIds) {
+                // 일부 배치만 저장된 파일은 manifest 에 없으므로 다음 실행에서 다시 처리된다; 그때까지 검색되지 않도록 되돌린다
+                if (!writtenDocumentIds.isEmpty()) {
+                    delete(writtenDocumentIds);
+                }
+            }
+        });
+        checkpoint();
+        return report;
+    }
+
+    /**
+     * Whether the chunks the manifest records for a file are still in every store that can be checked.
+     */
+    private boolean held(List<String> chunkIds) {
+        if (!this.manifestTrusted) {
+            return false;
+        }
+        return this.vectorStores.stream().filter(PersistentVectorStore.class::isInstance)
+                .map(PersistentVectorStore.class::cast)
+                .allMatch(vectorStore -> vectorStore.containsAll(chunkIds))
+                && this.documentIndexes.stream().allMatch(documentIndex -> documentIndex.containsAll(chunkIds));
+    }
+
+    private void deleteChunks(String source) {
+        List<String> chunkIds = this.manifest.get(source).chunkIds();
+        if (!chunkIds.isEmpty()) {
+            delete(chunkIds);
+        }
+        this.manifest.remove(source);
+        logger.info("Removed {} chunk(s) of {}", chunkIds.size(), source);
+    }
+
+    private void delete(List<String> chunkIds) {
+        this.vectorStores.forEach(vectorStore -> vectorStore.delete(chunkIds));
+        this.documentIndexes.forEach(documentIndex -> documentIndex.delete(chunkIds));
+    }
+
+    private synchronized void checkpointIfDue() {
+        boolean buffered = !this.documentIndexes.isEmpty()
+                || this.vectorStores.stream().anyMatch(PersistentVectorStore.class::isInstance);
+        if (!buffered || System.nanoTime() - this.lastCheckpoint >= this.checkpointInterval.toNanos()) {
+            checkpoint();
+        }
+    }
+
+    private synchronized void checkpoint() {
+        this.vectorStores.stream().filter(PersistentVectorStore.class::isInstance)
+                .map(PersistentVectorStore.class::cast).forEach(PersistentVectorStore::persist);
+        this.documentIndexes.forEach(DocumentIndex::persist);
+        if (this.manifest != null) {
+            this.manifest.save();
+        }
+        this.lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * Names resources by their path below the base directory of {@code locationPattern} (the directory holding the
+     * first wildcard). For classpath patterns the name is classpath-relative, e.g. {@code docs/guide.pdf} for
+     * {@code classpath*:docs/**}{@code /*.pdf} whether the file comes from {@code target/classes} or from inside a
+     * jar; for other patterns it is relative to the base directory. Resources outside every base directory fall
+     * back to their entry path inside the archive, or their filename.
+     */
+    public static Function<Resource, String> sourceNames(ResourcePatternResolver resolver, String locationPattern) {
+        String baseDirectory = baseDirectory(locationPattern);
+        List<String> roots = new ArrayList<>();
+        try {
+            for (Resource root : resolver.getResources(baseDirectory)) {
+                if (root.exists()) {
+                    roots.add(root.getURI().toString());
+                }
+            }
+        }
+        catch (IOException e) {
+            logger.warn("Could not resolve {}, naming sources by filename: {}", baseDirectory, e.getMessage());
+        }
+        // 겹치는 루트가 있으면 더 깊은 쪽을 기준으로 한다
+        roots.sort(Comparator.comparingInt(String::length).reversed());
+        String prefix = baseDirectory.startsWith(ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX)
+                || baseDirectory.startsWith(ResourcePatternResolver.CLASSPATH_URL_PREFIX)
+                ? baseDirectory.substring(baseDirectory.indexOf(':') + 1).replaceFirst("^/+", "") : "";
+        return resource -> sourceName(resource, roots, prefix);
+    }
+
+    static String baseDirectory(String locationPattern) {
+        int start = locationPattern.indexOf(':') + 1;
+        int end = locationPattern.length();
+        for (int i = start; i < locationPattern.length(); i++) {
+            char c = locationPattern.charAt(i);
+            if (c == '*' || c == '?' || c == '{') {
+                end = i;
+                break;
+            }
+        }
+        return locationPattern.substring(0, Math.max(start, locationPattern.lastIndexOf('/', end - 1) + 1));
+    }
+
+    static String sourceName(Resource resource, List<String> roots, String prefix) {
+        String uri;
+        try {
+            uri = resource.getURI().toString();
+        }
+        catch (IOException e) {
+            return resource.getDescription();
+        }
+        for (String root : roots) {
+            if (uri.startsWith(root)) {
+                return prefix + uri.substring(root.length());
+            }
+        }
+        int entry = uri.lastIndexOf("!/");
+        if (entry >= 0) {
+            return uri.substring(entry + 2);
+        }
+        return resource.getFilename() != null ? resource.getFilename() : resource.getDescription();
+    }
+
+    static String checksum(Resource resource) {
+        try (InputStream in = resource.getInputStream()) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + resource.getDescription(), e);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
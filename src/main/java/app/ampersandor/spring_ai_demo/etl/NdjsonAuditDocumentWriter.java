@@ -0,0 +1,317 @@
+package app.ampersandor.spring_ai_demo.etl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DocumentWriter} that records every indexed chunk as one compact JSON line (NDJSON) in a rolling file,
+ * so an ETL run can be audited without printing whole chunk lists.
+ * <p>
+ * {@link #write} only serializes the selected {@link Field}s of the sampled documents and hands the lines to a
+ * bounded queue; a single background thread drains the queue and appends the lines with gathering
+ * {@link FileChannel} writes. When the queue is full the {@link OverflowPolicy} decides between dropping the line
+ * (ingestion never waits on the audit log) and blocking the caller (no line is lost). Once the file would grow
+ * past {@code maxFileBytes} it is renamed to {@code <file>.1} (older files shift to {@code .2}, ...) and at most
+ * {@code maxFiles} rolled files are kept.
+ * <p>
+ * Sampling is decided from the document id. Inside an {@link EtlPipeline} write stage the id is derived from the
+ * source and the chunk's position, so the same chunk is either always or never audited across runs; documents
+ * written with random ids elsewhere are sampled independently on every run.
+ */
+public class NdjsonAuditDocumentWriter implements DocumentWriter, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NdjsonAuditDocumentWriter.class);
+
+    private static final byte[] END = new byte[0];
+
+    private static final int MAX_GATHER = 256;
+
+    /**
+     * Parts of a document written to the audit record.
+     */
+    public enum Field {
+        ID, TEXT, METADATA, SCORE
+    }
+
+    /**
+     * What {@link #write} does when the queue is full.
+     */
+    public enum OverflowPolicy {
+        DROP, BLOCK
+    }
+
+    private final Path path;
+
+    private final Set<Field> fields;
+
+    private final double sampleRate;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final long maxFileBytes;
+
+    private final int maxFiles;
+
+    private final ObjectMapper objectMapper;
+
+    private final BlockingQueue<byte[]> queue;
+
+    private final Thread writerThread;
+
+    private final Counter written;
+
+    private final Counter dropped;
+
+    private FileChannel channel;
+
+    private long fileBytes;
+
+    private volatile boolean closed;
+
+    /**
+     * @param fields parts of each document to record
+     * @param sampleRate fraction of documents to record, between 0 and 1
+     * @param queueCapacity lines buffered between {@link #write} and the file
+     * @param maxFileBytes size at which the file is rolled over
+     * @param maxFiles rolled files kept next to the active one, at least 1
+     */
+    public NdjsonAuditDocumentWriter(Path path, Set<Field> fields, double sampleRate, int queueCapacity,
+            OverflowPolicy overflowPolicy, long maxFileBytes, int maxFiles, ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1.");
+        }
+        if (queueCapacity <= 0 || maxFileBytes <= 0 || maxFiles <= 0) {
+            // 보관 파일이 0 개면 롤링할 때마다 방금 쓴 감사 기록을 지우게 된다
+            throw new IllegalArgumentException("queueCapacity, maxFileBytes and maxFiles must be positive.");
+        }
+        this.path = path;
+        this.fields = fields.isEmpty() ? EnumSet.noneOf(Field.class) : EnumSet.copyOf(fields);
+        this.sampleRate = sampleRate;
+        this.overflowPolicy = overflowPolicy;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.objectMapper = objectMapper;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.written = recordCounter(meterRegistry, "written");
+        this.dropped = recordCounter(meterRegistry, "dropped");
+        Gauge.builder("etl.audit.queue.size", this.queue, BlockingQueue::size)
+                .description("Audit lines waiting to be written")
+                .register(meterRegistry);
+        try {
+            Path directory = path.toAbsolutePath().getParent();
+            if (directory != null) {
+                Files.createDirectories(directory);
+            }
+            open();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to open audit file " + path, e);
+        }
+        this.writerThread = Thread.ofPlatform().name("etl-audit-writer").daemon().start(this::drain);
+    }
+
+    private static Counter recordCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("etl.audit.records")
+                .description("Audit lines by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void accept(List<Document> documents) {
+        if (this.closed) {
+            throw new IllegalStateException("Audit writer is closed");
+        }
+        String timestamp = Instant.now().toString();
+        for (Document document : documents) {
+            if (!sampled(document.getId())) {
+                continue;
+            }
+            byte[] line = toLine(document, timestamp);
+            if (this.overflowPolicy == OverflowPolicy.BLOCK) {
+                try {
+                    this.queue.put(line);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            else if (!this.queue.offer(line)) {
+                this.dropped.increment();
+            }
+        }
+    }
+
+    /**
+     * Writes the lines still queued, then closes the file.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.queue.put(END);
+            this.writerThread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            this.channel.force(false);
+            this.channel.close();
+        }
+        catch (IOException e) {
+            logger.warn("Failed to close audit file {}", this.path, e);
+        }
+    }
+
+    private boolean sampled(String id) {
+        if (this.sampleRate >= 1) {
+            return true;
+        }
+        // id 해시를 [0, 1) 로 편다; 파이프라인이 준 id 는 소스와 위치로 정해지므로 실행마다 같은 결정이 나온다
+        long hash = (id.hashCode() * 0x9E3779B97F4A7C15L) >>> 11;
+        return hash * 0x1.0p-53 < this.sampleRate;
+    }
+
+    private byte[] toLine(Document document, String timestamp) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("ts", timestamp);
+        if (this.fields.contains(Field.ID)) {
+            record.put("id", document.getId());
+        }
+        if (this.fields.contains(Field.TEXT)) {
+            record.put("text", document.getText());
+        }
+        if (this.fields.contains(Field.METADATA)) {
+            record.put("metadata", document.getMetadata());
+        }
+        if (this.fields.contains(Field.SCORE) && document.getScore() != null) {
+            record.put("score", document.getScore());
+        }
+        try {
+            byte[] json = this.objectMapper.writeValueAsBytes(record);
+            byte[] line = new byte[json.length + 1];
+            System.arraycopy(json, 0, line, 0, json.length);
+            line[json.length] = '\n';
+            return line;
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize audit record of " + document.getId(), e);
+        }
+    }
+
+    /**
+     * Writer thread: waits for a line, takes whatever else is queued and writes it in one gathering write.
+     */
+    private void drain() {
+        List<byte[]> batch = new ArrayList<>(MAX_GATHER);
+        boolean end = false;
+        while (!end) {
+            try {
+                byte[] first = this.queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, MAX_GATHER - 1);
+            }
+            catch (InterruptedException e) {
+                // close() 가 END 를 넣을 때까지 계속 비운다
+                continue;
+            }
+            int endIndex = batch.indexOf(END);
+            if (endIndex >= 0) {
+                end = true;
+                batch.subList(endIndex, batch.size()).clear();
+            }
+            try {
+                writeBatch(batch);
+                this.written.increment(batch.size());
+            }
+            catch (IOException e) {
+                this.dropped.increment(batch.size());
+                logger.warn("Failed to write {} audit lines to {}", batch.size(), this.path, e);
+            }
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<byte[]> lines) throws IOException {
+        int from = 0;
+        while (from < lines.size()) {
+            if (this.fileBytes > 0 && this.fileBytes + lines.get(from).length > this.maxFileBytes) {
+                roll();
+            }
+            // 현재 파일에 들어가는 만큼만 한 번에 쓴다
+            int to = from;
+            long bytes = this.fileBytes;
+            while (to < lines.size() && (to == from || bytes + lines.get(to).length <= this.maxFileBytes)) {
+                bytes += lines.get(to).length;
+                to++;
+            }
+            ByteBuffer[] buffers = new ByteBuffer[to - from];
+            for (int i = from; i < to; i++) {
+                buffers[i - from] = ByteBuffer.wrap(lines.get(i));
+            }
+            long remaining = bytes - this.fileBytes;
+            while (remaining > 0) {
+                remaining -= this.channel.write(buffers);
+            }
+            this.fileBytes = bytes;
+            from = to;
+        }
+    }
+
+    private void roll() throws IOException {
+        this.channel.close();
+        Files.deleteIfExists(rolled(this.maxFiles));
+        for (int index = this.maxFiles - 1; index >= 1; index--) {
+            if (Files.exists(rolled(index))) {
+                Files.move(rolled(index), rolled(index + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(this.path, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    private Path rolled(int index) {
+        return this.path.resolveSibling(this.path.getFileName() + "." + index);
+    }
+
+    private void open() throws IOException {
+        this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.fileBytes = this.channel.size();
+    }
+}
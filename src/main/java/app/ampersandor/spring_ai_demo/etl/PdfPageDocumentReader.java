@@ -0,0 +1,152 @@
+package app.ampersandor.spring_ai_demo.etl;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.tika.TikaDocumentReader;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * PDF reader that emits one {@link Document} per {@code pagesPerDocument} pages instead of one document for the
+ * whole file like {@link TikaDocumentReader}.
+ * <p>
+ * The file is cut into page ranges of {@code pagesPerTask} pages that are extracted in parallel on a
+ * {@link ForkJoinPool}, each task with its own PDFBox document opened on the file (PDFBox documents are not
+ * thread-safe, and opening a file only parses its cross-reference table). At most {@code parallelism} ranges are
+ * extracted ahead of the consumer and they are handed over in page order, so the text held in memory depends on
+ * the range size, not on the file size. Resources that are not files (e.g. inside a jar) are copied to a
+ * temporary file first.
+ * <p>
+ * Every document carries the {@code source} file name and its {@code page_number} / {@code end_page_number}
+ * (1-based, inclusive) and {@code total_pages}; pages without text are skipped.
+ */
+public class PdfPageDocumentReader implements StreamingDocumentReader {
+
+    public static final String SOURCE_METADATA_KEY = "source";
+
+    public static final String PAGE_NUMBER_METADATA_KEY = "page_number";
+
+    public static final String END_PAGE_NUMBER_METADATA_KEY = "end_page_number";
+
+    public static final String TOTAL_PAGES_METADATA_KEY = "total_pages";
+
+    private final Resource resource;
+
+    private final int pagesPerDocument;
+
+    private final int pagesPerTask;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pagesPerTask pages extracted by one fork-join task; rounded up to a multiple of {@code pagesPerDocument}
+     */
+    public PdfPageDocumentReader(Resource resource, int pagesPerDocument, int pagesPerTask, ForkJoinPool pool) {
+        if (pagesPerDocument <= 0 || pagesPerTask <= 0) {
+            throw new IllegalArgumentException("pagesPerDocument and pagesPerTask must be positive.");
+        }
+        this.resource = resource;
+        this.pagesPerDocument = pagesPerDocument;
+        this.pagesPerTask = (pagesPerTask + pagesPerDocument - 1) / pagesPerDocument * pagesPerDocument;
+        this.pool = pool;
+    }
+
+    @Override
+    public void read(Consumer<List<Document>> batchConsumer) {
+        Path temp = null;
+        Deque<ForkJoinTask<List<Document>>> window = new ArrayDeque<>();
+        try {
+            File file;
+            if (this.resource.isFile()) {
+                file = this.resource.getFile();
+            }
+            else {
+                temp = Files.createTempFile("etl-", ".pdf");
+                try (InputStream in = this.resource.getInputStream()) {
+                    Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                file = temp.toFile();
+            }
+            int totalPages;
+            try (PDDocument document = Loader.loadPDF(file)) {
+                totalPages = document.getNumberOfPages();
+            }
+
+            int nextPage = 1;
+            while (nextPage <= totalPages || !window.isEmpty()) {
+                // 소비 속도보다 parallelism 개 범위까지만 미리 추출한다
+                while (nextPage <= totalPages && window.size() < this.pool.getParallelism()) {
+                    int first = nextPage;
+                    int last = Math.min(totalPages, first + this.pagesPerTask - 1);
+                    window.add(this.pool.submit(() -> extract(file, first, last, totalPages)));
+                    nextPage = last + 1;
+                }
+                List<Document> documents = window.removeFirst().join();
+                if (!documents.isEmpty()) {
+                    batchConsumer.accept(documents);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to read PDF " + this.resource.getDescription(), e);
+        }
+        finally {
+            window.forEach(task -> task.cancel(true));
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                }
+                catch (IOException ignored) {
+                    // 임시 파일은 OS 가 정리한다
+                }
+            }
+        }
+    }
+
+    private List<Document> extract(File file, int firstPage, int lastPage, int totalPages) {
+        List<Document> documents = new ArrayList<>();
+        try (PDDocument document = Loader.loadPDF(file)) {
+            PDFTextStripper stripper = new PDFTextStripper();
+            for (int start = firstPage; start <= lastPage; start += this.pagesPerDocument) {
+                int end = Math.min(lastPage, start + this.pagesPerDocument - 1);
+                stripper.setStartPage(start);
+                stripper.setEndPage(end);
+                String text = stripper.getText(document);
+                if (!StringUtils.hasText(text)) {
+                    continue;
+                }
+                Map<String, Object> metadata = new HashMap<>();
+                metadata.put(SOURCE_METADATA_KEY, this.resource.getFilename() != null ? this.resource.getFilename()
+                        : this.resource.getDescription());
+                metadata.put(PAGE_NUMBER_METADATA_KEY, start);
+                metadata.put(END_PAGE_NUMBER_METADATA_KEY, end);
+                metadata.put(TOTAL_PAGES_METADATA_KEY, totalPages);
+                documents.add(new Document(text, metadata));
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to extract pages %d-%d of %s".formatted(firstPage, lastPage,
+                    this.resource.getDescription()), e);
+        }
+        return documents;
+    }
+}
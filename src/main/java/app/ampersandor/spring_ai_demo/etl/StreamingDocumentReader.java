@@ -0,0 +1,31 @@
+package app.ampersandor.spring_ai_demo.etl;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentReader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * {@link DocumentReader} that can hand its documents over in batches while it is still reading.
+ * {@link EtlPipeline} sends every batch downstream as soon as it arrives, and blocks the reader while the queue
+ * is full, so the memory used for one source is bounded by the batch size instead of the file size.
+ */
+public interface StreamingDocumentReader extends DocumentReader {
+
+    /**
+     * Reads the source, passing the documents to {@code batchConsumer} in source order.
+     */
+    void read(Consumer<List<Document>> batchConsumer);
+
+    /**
+     * Collects every batch; only for callers that need the whole source at once.
+     */
+    @Override
+    default List<Document> get() {
+        List<Document> documents = new ArrayList<>();
+        read(documents::addAll);
+        return documents;
+    }
+}
@@ -0,0 +1,199 @@
+package app.ampersandor.spring_ai_demo.memory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ChatMemoryRepository} that, unlike {@link InMemoryChatMemoryRepository}, bounds what it keeps:
+ * conversations idle for longer than {@code idleTtl} are dropped, and once more than {@code maxConversations} are
+ * held the least recently used ones are evicted.
+ * <p>
+ * Each conversation is an immutable message list in a {@link ConcurrentHashMap} entry, so requests for different
+ * conversations never contend on a shared lock. Capacity eviction runs in batches down to 90% of the limit on
+ * whichever caller crosses it (others skip it while one runs), and a background sweep removes idle conversations
+ * every {@code idleTtl / 4}.
+ * <p>
+ * Metrics: {@code chat.memory.conversations}, {@code chat.memory.retained.bytes} (an estimate from text length and
+ * metadata entries) and {@code chat.memory.evictions} tagged with the {@code reason} ({@code idle} or
+ * {@code capacity}).
+ */
+public class BoundedChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedChatMemoryRepository.class);
+
+    private static final int MESSAGE_OVERHEAD_BYTES = 96;
+
+    private static final int METADATA_ENTRY_BYTES = 64;
+
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+
+    private final int maxConversations;
+
+    private final long idleTtlNanos;
+
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final ScheduledExecutorService sweeper;
+
+    private final Counter idleEvictions;
+
+    private final Counter capacityEvictions;
+
+    private record Conversation(List<Message> messages, long bytes, long lastAccess) {
+
+        Conversation touch() {
+            return new Conversation(this.messages, this.bytes, System.nanoTime());
+        }
+    }
+
+    public BoundedChatMemoryRepository(int maxConversations, Duration idleTtl, MeterRegistry meterRegistry) {
+        if (maxConversations <= 0) {
+            throw new IllegalArgumentException("maxConversations must be positive.");
+        }
+        this.maxConversations = maxConversations;
+        this.idleTtlNanos = idleTtl.toNanos();
+        this.idleEvictions = evictionCounter(meterRegistry, "idle");
+        this.capacityEvictions = evictionCounter(meterRegistry, "capacity");
+        Gauge.builder("chat.memory.conversations", this.conversations, Map::size)
+                .description("Conversations held in chat memory")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.retained.bytes", this.retainedBytes, AtomicLong::get)
+                .description("Estimated heap retained by chat memory messages")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        long sweepMillis = Math.max(1000, idleTtl.toMillis() / 4);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("chat-memory-sweeper").daemon().factory());
+        this.sweeper.scheduleWithFixedDelay(this::evictIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static Counter evictionCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("chat.memory.evictions")
+                .description("Conversations evicted from chat memory")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    public long retainedBytes() {
+        return this.retainedBytes.get();
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        return List.copyOf(this.conversations.keySet());
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        Conversation conversation = this.conversations.computeIfPresent(conversationId, (id, current) -> {
+            if (!expired(current, System.nanoTime())) {
+                return current.touch();
+            }
+            // 아직 sweep 되지 않은 만료 대화
+            this.retainedBytes.addAndGet(-current.bytes());
+            this.idleEvictions.increment();
+            return null;
+        });
+        return conversation != null ? conversation.messages() : List.of();
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        Conversation saved = new Conversation(List.copyOf(messages), estimateBytes(messages), System.nanoTime());
+        Conversation previous = this.conversations.put(conversationId, saved);
+        this.retainedBytes.addAndGet(saved.bytes() - (previous != null ? previous.bytes() : 0));
+        if (previous == null && this.conversations.size() > this.maxConversations) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        Conversation removed = this.conversations.remove(conversationId);
+        if (removed != null) {
+            this.retainedBytes.addAndGet(-removed.bytes());
+        }
+    }
+
+    @Override
+    public void close() {
+        this.sweeper.shutdownNow();
+    }
+
+    private boolean expired(Conversation conversation, long now) {
+        return now - conversation.lastAccess() > this.idleTtlNanos;
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (Map.Entry<String, Conversation> entry : this.conversations.entrySet()) {
+            Conversation conversation = entry.getValue();
+            // 확인 이후 다시 사용된 대화는 remove(key, value) 가 실패해 남는다
+            if (expired(conversation, now) && this.conversations.remove(entry.getKey(), conversation)) {
+                this.retainedBytes.addAndGet(-conversation.bytes());
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            this.idleEvictions.increment(evicted);
+            logger.debug("Evicted {} idle conversations, {} left", evicted, this.conversations.size());
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        if (!this.evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int excess = this.conversations.size() - this.maxConversations * 9 / 10;
+            if (excess <= 0) {
+                return;
+            }
+            List<Map.Entry<String, Conversation>> oldest = new ArrayList<>(this.conversations.entrySet());
+            oldest.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess()));
+            int evicted = 0;
+            for (Map.Entry<String, Conversation> entry : oldest.subList(0, Math.min(excess, oldest.size()))) {
+                if (this.conversations.remove(entry.getKey(), entry.getValue())) {
+                    this.retainedBytes.addAndGet(-entry.getValue().bytes());
+                    evicted++;
+                }
+            }
+            this.capacityEvictions.increment(evicted);
+            logger.debug("Evicted {} least recently used conversations, {} left", evicted, this.conversations.size());
+        }
+        finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    static long estimateBytes(List<Message> messages) {
+        long bytes = 0;
+        for (Message message : messages) {
+            String text = message.getText();
+            bytes += MESSAGE_OVERHEAD_BYTES + (text != null ? 2L * text.length() : 0)
+                    + (long) METADATA_ENTRY_BYTES * message.getMetadata().size();
+        }
+        return bytes;
+    }
+}
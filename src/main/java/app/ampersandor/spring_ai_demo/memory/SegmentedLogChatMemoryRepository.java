@@ -0,0 +1,481 @@
+package app.ampersandor.spring_ai_demo.memory;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * {@link ChatMemoryRepository} that survives restarts by appending every change to a segmented log on disk.
+ * <p>
+ * Reads are served from an in-memory map holding the latest window of each conversation. {@link #saveAll} and
+ * {@link #deleteByConversationId} update that map and queue the change; they never touch the disk, so the request
+ * path costs a map update and a queue offer. A single writer thread encodes the queued changes, appends them to the
+ * active segment and issues one {@code fsync} for everything it took from the queue (group commit): while one
+ * {@code fsync} runs the next batch piles up behind it. A change is therefore acknowledged before it is durable,
+ * and a crash loses at most the batch being written.
+ * <p>
+ * Each record is {@code int length, int crc32c, JSON payload} holding the whole window of one conversation (or its
+ * deletion), so the last record of a conversation is its current state. A segment is sealed once it would grow past
+ * {@code segmentBytes}. When the sealed segments are more than twice the size of the live state, the writer replaces
+ * them with one snapshot segment written from the in-memory map.
+ * <p>
+ * On startup the segments are memory-mapped and replayed in order. A record cut short or corrupted by a crash ends
+ * the replay of its segment, and the active segment is truncated there.
+ */
+public class SegmentedLogChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedLogChatMemoryRepository.class);
+
+    private static final String SUFFIX = ".log";
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    private static final Change END = new Change(null, null);
+
+    private final Path directory;
+
+    private final long segmentBytes;
+
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, List<Message>> conversations = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<Change> queue = new LinkedBlockingQueue<>();
+
+    private final Thread writerThread;
+
+    private final Timer commitTimer;
+
+    // 이하 필드는 생성 이후 writer thread 만 사용한다
+    private final Map<String, Integer> liveRecordBytes = new HashMap<>();
+
+    private final List<Path> sealedSegments = new ArrayList<>();
+
+    private final CRC32C crc = new CRC32C();
+
+    private long liveBytes;
+
+    private long sealedBytes;
+
+    private long activeId;
+
+    private FileChannel active;
+
+    private long activeBytes;
+
+    private volatile boolean closed;
+
+    /**
+     * A conversation's new window, or its deletion when {@code messages} is {@code null}.
+     */
+    private record Change(String conversationId, List<Message> messages) {
+    }
+
+    private record LogRecord(String conversationId, boolean deleted, List<StoredMessage> messages) {
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private record StoredMessage(MessageType type, String text, Map<String, Object> metadata,
+            List<AssistantMessage.ToolCall> toolCalls, List<ToolResponseMessage.ToolResponse> responses) {
+
+        static StoredMessage of(Message message) {
+            // 스칼라 값만 저장한다 (messageType 등은 메시지 생성자가 다시 채운다)
+            Map<String, Object> metadata = new LinkedHashMap<>();
+            message.getMetadata().forEach((key, value) -> {
+                if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+                    metadata.put(key, value);
+                }
+            });
+            return switch (message) {
+                case AssistantMessage assistant ->
+                        new StoredMessage(MessageType.ASSISTANT, assistant.getText(), metadata,
+                                assistant.getToolCalls(), null);
+                case ToolResponseMessage toolResponse ->
+                        new StoredMessage(MessageType.TOOL, null, metadata, null, toolResponse.getResponses());
+                default -> new StoredMessage(message.getMessageType(), message.getText(), metadata, null, null);
+            };
+        }
+
+        Message toMessage() {
+            Map<String, Object> properties = Objects.requireNonNullElse(this.metadata, Map.of());
+            return switch (this.type) {
+                case USER -> UserMessage.builder().text(this.text).metadata(properties).build();
+                case SYSTEM -> SystemMessage.builder().text(this.text).metadata(properties).build();
+                case ASSISTANT -> new AssistantMessage(this.text, properties,
+                        Objects.requireNonNullElse(this.toolCalls, List.of()));
+                case TOOL -> new ToolResponseMessage(Objects.requireNonNullElse(this.responses, List.of()),
+                        properties);
+            };
+        }
+    }
+
+    /**
+     * @param directory directory holding the segments, created if missing
+     * @param segmentBytes size at which the active segment is sealed and a new one started
+     */
+    public SegmentedLogChatMemoryRepository(Path directory, long segmentBytes, ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("segmentBytes must be positive.");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.objectMapper = objectMapper;
+        this.commitTimer = Timer.builder("chat.memory.log.commit")
+                .description("Time to append and fsync one group of chat memory changes")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.log.queue.size", this.queue, BlockingQueue::size)
+                .description("Chat memory changes waiting to be written")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.conversations", this.conversations, Map::size)
+                .description("Conversations held in chat memory")
+                .register(meterRegistry);
+        try {
+            Files.createDirectories(directory);
+            recover();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to open chat memory log " + directory, e);
+        }
+        this.writerThread = Thread.ofPlatform().name("chat-memory-log-writer").daemon().start(this::drain);
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        return List.copyOf(this.conversations.keySet());
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        return this.conversations.getOrDefault(conversationId, List.of());
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        List<Message> saved = List.copyOf(messages);
+        this.conversations.put(conversationId, saved);
+        enqueue(new Change(conversationId, saved));
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        this.conversations.remove(conversationId);
+        enqueue(new Change(conversationId, null));
+    }
+
+    private void enqueue(Change change) {
+        if (this.closed) {
+            throw new IllegalStateException("Chat memory log is closed");
+        }
+        this.queue.add(change);
+    }
+
+    /**
+     * Writes and syncs the changes still queued, then closes the active segment.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.queue.put(END);
+            this.writerThread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            this.active.close();
+        }
+        catch (IOException e) {
+            logger.warn("Failed to close chat memory log {}", this.directory, e);
+        }
+    }
+
+    /**
+     * Writer thread: waits for a change, takes whatever else is queued, appends it all and syncs once.
+     */
+    private void drain() {
+        List<Change> batch = new ArrayList<>();
+        boolean end = false;
+        while (!end) {
+            try {
+                Change first = this.queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch);
+            }
+            catch (InterruptedException e) {
+                // close() 가 END 를 넣을 때까지 계속 비운다
+                continue;
+            }
+            int endIndex = batch.indexOf(END);
+            if (endIndex >= 0) {
+                end = true;
+                // END 뒤에 들어온 변경은 close() 와 경합한 요청이므로 함께 기록한다
+                batch.remove(endIndex);
+            }
+            long start = System.nanoTime();
+            try {
+                append(batch);
+                this.commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                compactIfDue();
+            }
+            catch (IOException e) {
+                logger.error("Failed to append {} chat memory changes to {}", batch.size(), this.directory, e);
+            }
+            batch.clear();
+        }
+    }
+
+    private void append(List<Change> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<ByteBuffer> records = new ArrayList<>(batch.size());
+        long batchBytes = 0;
+        for (Change change : batch) {
+            ByteBuffer record = encode(change);
+            int recordBytes = record.remaining();
+            long segmentEnd = this.activeBytes + batchBytes;
+            if (segmentEnd > 0 && segmentEnd + recordBytes > this.segmentBytes) {
+                write(records);
+                roll();
+                records.clear();
+                batchBytes = 0;
+            }
+            records.add(record);
+            batchBytes += recordBytes;
+            track(change.conversationId(), change.messages() != null ? recordBytes : -1);
+        }
+        write(records);
+        this.active.force(false);
+    }
+
+    private void write(List<ByteBuffer> records) throws IOException {
+        ByteBuffer[] buffers = records.toArray(ByteBuffer[]::new);
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= this.active.write(buffers);
+        }
+        this.activeBytes = this.active.position();
+    }
+
+    private ByteBuffer encode(Change change) throws JsonProcessingException {
+        LogRecord record = change.messages() == null
+                ? new LogRecord(change.conversationId(), true, null)
+                : new LogRecord(change.conversationId(), false,
+                        change.messages().stream().map(StoredMessage::of).toList());
+        byte[] payload = this.objectMapper.writeValueAsBytes(record);
+        this.crc.reset();
+        this.crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putInt((int) this.crc.getValue()).put(payload);
+        return buffer.flip();
+    }
+
+    /**
+     * Keeps the size of each conversation's latest record, {@code -1} for a deletion, to judge when to compact.
+     */
+    private void track(String conversationId, int recordBytes) {
+        Integer previous = recordBytes < 0 ? this.liveRecordBytes.remove(conversationId)
+                : this.liveRecordBytes.put(conversationId, recordBytes);
+        this.liveBytes += Math.max(recordBytes, 0) - (previous != null ? previous : 0);
+    }
+
+    private void roll() throws IOException {
+        this.active.force(false);
+        this.active.close();
+        this.sealedSegments.add(segment(this.activeId));
+        this.sealedBytes += this.activeBytes;
+        openActive(this.activeId + 1);
+    }
+
+    private void openActive(long id) throws IOException {
+        this.activeId = id;
+        this.active = FileChannel.open(segment(id), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.activeBytes = this.active.size();
+        this.active.position(this.activeBytes);
+    }
+
+    /**
+     * Replaces the sealed segments and the active one with a snapshot of the in-memory map once they hold more than
+     * twice the live state.
+     * <p>
+     * Changes still queued are already in the map, so the snapshot may be ahead of the log; they are written after it
+     * and replaying them again ends in the same state.
+     */
+    private void compactIfDue() throws IOException {
+        if (this.sealedSegments.size() < 2 || this.sealedBytes <= Math.max(this.segmentBytes, 2 * this.liveBytes)) {
+            return;
+        }
+        long start = System.nanoTime();
+        roll();
+        long snapshotId = this.activeId;
+        this.active.close();
+        Path temp = this.directory.resolve(segment(snapshotId).getFileName() + ".tmp");
+        this.liveRecordBytes.clear();
+        this.liveBytes = 0;
+        long snapshotBytes = 0;
+        int snapshotConversations = 0;
+        try (FileChannel snapshot = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map.Entry<String, List<Message>> entry : this.conversations.entrySet()) {
+                ByteBuffer record = encode(new Change(entry.getKey(), entry.getValue()));
+                track(entry.getKey(), record.remaining());
+                while (record.hasRemaining()) {
+                    snapshotBytes += snapshot.write(record);
+                }
+                snapshotConversations++;
+            }
+            snapshot.force(false);
+        }
+        Files.move(temp, segment(snapshotId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Path sealed : this.sealedSegments) {
+            Files.deleteIfExists(sealed);
+        }
+        this.sealedSegments.clear();
+        this.sealedSegments.add(segment(snapshotId));
+        this.sealedBytes = snapshotBytes;
+        openActive(snapshotId + 1);
+        logger.info("Compacted chat memory log into {} conversations ({} bytes) in {} ms", snapshotConversations,
+                snapshotBytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(this.directory)) {
+            segments = files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        if (name.endsWith(SUFFIX + ".tmp")) {
+                            // 완료되지 않은 compaction 결과
+                            try {
+                                Files.delete(file);
+                            }
+                            catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            return false;
+                        }
+                        return name.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+        // 변환은 대화별 마지막 레코드에 대해서만 한다
+        Map<String, LogRecord> latest = new HashMap<>();
+        long validEnd = 0;
+        for (Path segment : segments) {
+            validEnd = replay(segment, latest);
+        }
+        latest.forEach((conversationId, record) -> this.conversations.put(conversationId,
+                record.messages().stream().map(StoredMessage::toMessage).toList()));
+        if (segments.isEmpty()) {
+            openActive(1);
+        }
+        else {
+            Path last = segments.getLast();
+            for (Path sealed : segments.subList(0, segments.size() - 1)) {
+                this.sealedSegments.add(sealed);
+                this.sealedBytes += Files.size(sealed);
+            }
+            openActive(Long.parseLong(last.getFileName().toString().replace(SUFFIX, "")));
+            if (validEnd < this.activeBytes) {
+                logger.warn("Truncating {} trailing bytes of a partially written chat memory record in {}",
+                        this.activeBytes - validEnd, last);
+                this.active.truncate(validEnd);
+                this.activeBytes = validEnd;
+                this.active.position(validEnd);
+            }
+        }
+        logger.info("Recovered {} conversations from {} chat memory log segments in {} ms",
+                this.conversations.size(), segments.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Applies the valid records of {@code segment} to {@code latest} and returns where they end.
+     */
+    private long replay(Path segment, Map<String, LogRecord> latest) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= HEADER_BYTES) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    buffer.position(start);
+                    break;
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                this.crc.reset();
+                this.crc.update(payload.duplicate());
+                if ((int) this.crc.getValue() != checksum) {
+                    buffer.position(start);
+                    break;
+                }
+                LogRecord record = this.objectMapper.readValue(new ByteBufferBackedInputStream(payload),
+                        LogRecord.class);
+                if (record.deleted()) {
+                    latest.remove(record.conversationId());
+                }
+                else {
+                    latest.put(record.conversationId(), record);
+                }
+                track(record.conversationId(), record.deleted() ? -1 : HEADER_BYTES + length);
+                buffer.position(buffer.position() + length);
+            }
+            if (buffer.hasRemaining()) {
+                logger.warn("Stopped replaying {} at byte {} of {}: record is incomplete or corrupt", segment,
+                        buffer.position(), buffer.limit());
+            }
+            return buffer.position();
+        }
+    }
+
+    private Path segment(long id) {
+        return this.directory.resolve("%020d%s".formatted(id, SUFFIX));
+    }
+}
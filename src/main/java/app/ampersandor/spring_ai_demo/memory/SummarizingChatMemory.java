@@ -0,0 +1,304 @@
+package app.ampersandor.spring_ai_demo.memory;
+
+import app.ampersandor.spring_ai_demo.token.TokenEstimator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChatMemory} that keeps the last {@code recentTurns} turns verbatim and folds older turns into a running
+ * summary, so long conversations do not resend every earlier answer with each request.
+ * <p>
+ * The summary is stored through the {@link ChatMemoryRepository} as the first message of the conversation, a
+ * {@link SystemMessage} marked with the {@value #SUMMARY_METADATA} metadata key. Once at least {@code foldTurns}
+ * turns have fallen out of the verbatim window, {@link #add} schedules a summarization on {@code executor} and
+ * returns; at most {@code maxConcurrentSummaries} run at once and one per conversation. Until it completes the
+ * older turns are still returned as they are. When the summary is ready it replaces exactly the messages it was
+ * made from, so turns added in the meantime are kept. If summarization keeps failing, the conversation is still
+ * capped at {@code maxMessages} by dropping its oldest messages like {@link MessageWindowChatMemory}.
+ * <p>
+ * Every {@link #get} records in {@code chat.memory.summary.tokens.saved} the estimated tokens of the folded
+ * messages minus those of the summary. Summarizations are counted in {@code chat.memory.summarizations} by
+ * {@code outcome} and timed in {@code chat.memory.summarization.duration}.
+ */
+public class SummarizingChatMemory implements ChatMemory {
+
+    private static final Logger logger = LoggerFactory.getLogger(SummarizingChatMemory.class);
+
+    /**
+     * Metadata key marking the summary message at the head of a conversation.
+     */
+    public static final String SUMMARY_METADATA = "conversationSummary";
+
+    private static final String SUMMARIZED_TOKENS_METADATA = "summarizedTokens";
+
+    private static final int LOCK_STRIPES = 64;
+
+    private static final String SUMMARY_INSTRUCTIONS = """
+            You maintain a running summary of a conversation between a user and an assistant.
+            Merge the previous summary, if any, with the new turns into one concise summary.
+            Keep facts, names, numbers, decisions and open questions the assistant may need later; drop greetings
+            and repetition. Write it in the language of the conversation, in plain prose, at most 200 words.
+            """;
+
+    private final ChatMemoryRepository chatMemoryRepository;
+
+    private final ChatModel chatModel;
+
+    private final ChatOptions summaryOptions;
+
+    private final int recentTurns;
+
+    private final int foldTurns;
+
+    private final int maxMessages;
+
+    private final Executor executor;
+
+    private final Semaphore summaryPermits;
+
+    private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final DistributionSummary tokensSaved;
+
+    private final Timer summarizationTimer;
+
+    private final Counter succeeded;
+
+    private final Counter failed;
+
+    /**
+     * @param summaryOptions options of the summarization call, e.g. a smaller model, or {@code null} for the
+     *                       model defaults
+     * @param recentTurns turns (a user message and the replies to it) always kept verbatim
+     * @param foldTurns older turns to collect before summarizing them in one call
+     * @param maxMessages messages kept per conversation, besides the summary, when summaries fall behind
+     */
+    public SummarizingChatMemory(ChatMemoryRepository chatMemoryRepository, ChatModel chatModel,
+            ChatOptions summaryOptions, int recentTurns, int foldTurns, int maxMessages, int maxConcurrentSummaries,
+            Executor executor, MeterRegistry meterRegistry) {
+        if (recentTurns <= 0 || foldTurns <= 0 || maxConcurrentSummaries <= 0) {
+            throw new IllegalArgumentException(
+                    "recentTurns, foldTurns and maxConcurrentSummaries must be positive.");
+        }
+        if (maxMessages < 2 * (recentTurns + foldTurns)) {
+            throw new IllegalArgumentException("maxMessages must hold at least recentTurns + foldTurns turns.");
+        }
+        this.chatMemoryRepository = chatMemoryRepository;
+        this.chatModel = chatModel;
+        this.summaryOptions = summaryOptions;
+        this.recentTurns = recentTurns;
+        this.foldTurns = foldTurns;
+        this.maxMessages = maxMessages;
+        this.executor = executor;
+        this.summaryPermits = new Semaphore(maxConcurrentSummaries);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+        this.tokensSaved = DistributionSummary.builder("chat.memory.summary.tokens.saved")
+                .description("Estimated prompt tokens saved per request by the conversation summary")
+                .baseUnit("tokens")
+                .register(meterRegistry);
+        this.summarizationTimer = Timer.builder("chat.memory.summarization.duration")
+                .description("Time to summarize older turns of a conversation")
+                .register(meterRegistry);
+        this.succeeded = summarizationCounter(meterRegistry, "success");
+        this.failed = summarizationCounter(meterRegistry, "failure");
+    }
+
+    private static Counter summarizationCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("chat.memory.summarizations")
+                .description("Conversation summarizations by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        List<Message> stored;
+        synchronized (lock(conversationId)) {
+            stored = new ArrayList<>(this.chatMemoryRepository.findByConversationId(conversationId));
+            stored.addAll(messages);
+            int first = isSummary(stored) ? 1 : 0;
+            int excess = stored.size() - first - this.maxMessages;
+            if (excess > 0) {
+                stored.subList(first, first + excess).clear();
+            }
+            this.chatMemoryRepository.saveAll(conversationId, stored);
+        }
+        if (foldableCount(stored) > 0) {
+            scheduleSummary(conversationId);
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        List<Message> messages = this.chatMemoryRepository.findByConversationId(conversationId);
+        if (isSummary(messages)) {
+            Message summary = messages.getFirst();
+            Object summarized = summary.getMetadata().get(SUMMARIZED_TOKENS_METADATA);
+            if (summarized instanceof Number summarizedTokens) {
+                this.tokensSaved.record(Math.max(0, summarizedTokens.longValue() - TokenEstimator.estimate(summary)));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        synchronized (lock(conversationId)) {
+            this.chatMemoryRepository.deleteByConversationId(conversationId);
+        }
+    }
+
+    private void scheduleSummary(String conversationId) {
+        if (!this.summarizing.add(conversationId)) {
+            return;
+        }
+        // 동시 요약 수를 넘으면 다음 add() 에서 다시 시도한다
+        if (!this.summaryPermits.tryAcquire()) {
+            this.summarizing.remove(conversationId);
+            return;
+        }
+        try {
+            this.executor.execute(() -> {
+                try {
+                    summarize(conversationId);
+                }
+                finally {
+                    this.summaryPermits.release();
+                    this.summarizing.remove(conversationId);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            this.summaryPermits.release();
+            this.summarizing.remove(conversationId);
+            logger.warn("Summarization of conversation {} was rejected", conversationId, e);
+        }
+    }
+
+    private void summarize(String conversationId) {
+        List<Message> stored = this.chatMemoryRepository.findByConversationId(conversationId);
+        int foldable = foldableCount(stored);
+        if (foldable == 0) {
+            return;
+        }
+        int first = isSummary(stored) ? 1 : 0;
+        List<Message> folded = List.copyOf(stored.subList(0, first + foldable));
+        Message previous = first == 1 ? folded.getFirst() : null;
+        List<Message> turns = folded.subList(first, folded.size());
+        long start = System.nanoTime();
+        String summaryText;
+        try {
+            summaryText = this.chatModel.call(new Prompt(
+                    List.of(new SystemMessage(SUMMARY_INSTRUCTIONS),
+                            new UserMessage(transcript(previous, turns))),
+                    this.summaryOptions)).getResult().getOutput().getText();
+        }
+        catch (RuntimeException e) {
+            this.failed.increment();
+            logger.warn("Failed to summarize {} messages of conversation {}", turns.size(), conversationId, e);
+            return;
+        }
+        this.summarizationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!StringUtils.hasText(summaryText)) {
+            this.failed.increment();
+            return;
+        }
+        long summarizedTokens = TokenEstimator.estimate(turns) + summarizedTokens(previous);
+        Message summary = SystemMessage.builder()
+                .text(summaryText.strip())
+                .metadata(Map.of(SUMMARY_METADATA, true, SUMMARIZED_TOKENS_METADATA, summarizedTokens))
+                .build();
+        synchronized (lock(conversationId)) {
+            List<Message> current = this.chatMemoryRepository.findByConversationId(conversationId);
+            // 요약하는 동안 대화가 지워졌거나 앞부분이 잘려 나갔으면 결과를 버린다
+            if (current.size() < folded.size() || !current.subList(0, folded.size()).equals(folded)) {
+                logger.debug("Discarding summary of conversation {}: it changed while summarizing", conversationId);
+                return;
+            }
+            List<Message> compacted = new ArrayList<>(current.size() - folded.size() + 1);
+            compacted.add(summary);
+            compacted.addAll(current.subList(folded.size(), current.size()));
+            this.chatMemoryRepository.saveAll(conversationId, compacted);
+        }
+        this.succeeded.increment();
+        logger.debug("Folded {} messages of conversation {} into a summary ({} -> {} estimated tokens)",
+                turns.size(), conversationId, summarizedTokens, TokenEstimator.estimate(summary));
+    }
+
+    /**
+     * Messages, after the summary, that lie before the verbatim window, or 0 while fewer than {@code foldTurns}
+     * turns lie there. Folding always stops at a user message so a turn is never split.
+     */
+    private int foldableCount(List<Message> messages) {
+        int first = isSummary(messages) ? 1 : 0;
+        int turns = 0;
+        int verbatimStart = -1;
+        for (int i = messages.size() - 1; i >= first; i--) {
+            if (messages.get(i).getMessageType() == MessageType.USER) {
+                turns++;
+                if (turns == this.recentTurns) {
+                    verbatimStart = i;
+                }
+            }
+        }
+        return turns >= this.recentTurns + this.foldTurns ? verbatimStart - first : 0;
+    }
+
+    private static String transcript(Message previousSummary, List<Message> turns) {
+        StringBuilder transcript = new StringBuilder();
+        if (previousSummary != null) {
+            transcript.append("Previous summary:\n").append(previousSummary.getText()).append("\n\n");
+        }
+        transcript.append("New turns:\n");
+        for (Message message : turns) {
+            transcript.append(message.getMessageType() == MessageType.USER ? "User: " : "Assistant: ")
+                    .append(message.getText())
+                    .append('\n');
+        }
+        return transcript.toString();
+    }
+
+    private static long summarizedTokens(Message summary) {
+        if (summary != null && summary.getMetadata().get(SUMMARIZED_TOKENS_METADATA) instanceof Number tokens) {
+            return tokens.longValue();
+        }
+        return 0;
+    }
+
+    private static boolean isSummary(List<Message> messages) {
+        return !messages.isEmpty() && messages.getFirst().getMetadata().containsKey(SUMMARY_METADATA);
+    }
+
+    private Object lock(String conversationId) {
+        return this.locks[conversationId.hashCode() & (LOCK_STRIPES - 1)];
+    }
+}
@@ -0,0 +1,152 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentTransformer;
+import org.springframework.ai.model.transformer.KeywordMetadataEnricher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keyword enricher that asks the chat model for the keywords of many chunks in one structured-output prompt,
+ * instead of one round trip per chunk like {@link KeywordMetadataEnricher}.
+ * <p>
+ * Chunks are packed into a prompt until {@code batchSize} chunks or {@code maxBatchChars} characters; every chunk
+ * gets a numeric id and the model answers with a JSON list of {@code (id, keywords)}. Chunks the model skipped are
+ * asked again once in a follow-up batch. The result is written to the same {@code excerpt_keywords} metadata key
+ * as a comma separated string.
+ */
+public class BatchKeywordMetadataEnricher implements DocumentTransformer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchKeywordMetadataEnricher.class);
+
+    public static final String EXCERPT_KEYWORDS_METADATA_KEY = "excerpt_keywords";
+
+    private static final String PROMPT = """
+            Below are %d text excerpts, each starting with a line "### <id>".
+            For every excerpt give %d unique keywords that best describe it, in the language of the excerpt.
+            Answer for every id exactly once.
+
+            %s""";
+
+    private final ChatClient chatClient;
+
+    private final int keywordCount;
+
+    private final int batchSize;
+
+    private final int maxBatchChars;
+
+    record ChunkKeywords(int id, List<String> keywords) {
+    }
+
+    record KeywordBatch(List<ChunkKeywords> excerpts) {
+    }
+
+    /**
+     * @param batchSize maximum number of chunks per prompt
+     * @param maxBatchChars maximum characters of chunk text per prompt, keeps the prompt inside the context window
+     */
+    public BatchKeywordMetadataEnricher(ChatModel chatModel, int keywordCount, int batchSize, int maxBatchChars) {
+        if (keywordCount <= 0 || batchSize <= 0 || maxBatchChars <= 0) {
+            throw new IllegalArgumentException("keywordCount, batchSize and maxBatchChars must be positive.");
+        }
+        this.chatClient = ChatClient.create(chatModel);
+        this.keywordCount = keywordCount;
+        this.batchSize = batchSize;
+        this.maxBatchChars = maxBatchChars;
+    }
+
+    @Override
+    public List<Document> apply(List<Document> documents) {
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < documents.size(); i++) {
+            pending.add(i);
+        }
+        // 모델이 빠뜨린 청크는 한 번만 다시 묻는다
+        for (int attempt = 0; attempt < 2 && !pending.isEmpty(); attempt++) {
+            List<Integer> missed = new ArrayList<>();
+            for (List<Integer> batch : batches(documents, pending)) {
+                missed.addAll(enrich(documents, batch));
+            }
+            pending = missed;
+        }
+        if (!pending.isEmpty()) {
+            logger.warn("No keywords returned for {} of {} chunks", pending.size(), documents.size());
+        }
+        return documents;
+    }
+
+    private List<List<Integer>> batches(List<Document> documents, List<Integer> indexes) {
+        List<List<Integer>> batches = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        int chars = 0;
+        for (int index : indexes) {
+            int length = text(documents.get(index)).length();
+            if (!current.isEmpty() && (current.size() >= this.batchSize || chars + length > this.maxBatchChars)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                chars = 0;
+            }
+            current.add(index);
+            chars += length;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    /**
+     * Sends one batch and returns the document indexes the model did not answer for.
+     */
+    private List<Integer> enrich(List<Document> documents, List<Integer> batch) {
+        StringBuilder excerpts = new StringBuilder();
+        for (int id = 0; id < batch.size(); id++) {
+            excerpts.append("### ").append(id).append('\n').append(text(documents.get(batch.get(id)))).append("\n\n");
+        }
+        KeywordBatch response;
+        try {
+            response = this.chatClient.prompt()
+                    .user(PROMPT.formatted(batch.size(), this.keywordCount, excerpts))
+                    .call()
+                    .entity(KeywordBatch.class);
+        }
+        catch (RuntimeException e) {
+            // 구조화 출력 파싱 실패도 여기로 온다
+            logger.warn("Keyword batch of {} chunks failed: {}", batch.size(), e.getMessage());
+            return batch;
+        }
+
+        Map<Integer, List<String>> byId = new HashMap<>();
+        if (response != null && response.excerpts() != null) {
+            for (ChunkKeywords chunk : response.excerpts()) {
+                if (chunk != null && chunk.keywords() != null && !chunk.keywords().isEmpty()) {
+                    byId.putIfAbsent(chunk.id(), chunk.keywords());
+                }
+            }
+        }
+        List<Integer> missed = new ArrayList<>();
+        for (int id = 0; id < batch.size(); id++) {
+            List<String> keywords = byId.get(id);
+            if (keywords == null) {
+                missed.add(batch.get(id));
+                continue;
+            }
+            documents.get(batch.get(id)).getMetadata().put(EXCERPT_KEYWORDS_METADATA_KEY,
+                    String.join(", ", keywords.stream().map(String::strip).distinct().limit(this.keywordCount)
+                            .toList()));
+        }
+        return missed;
+    }
+
+    private static String text(Document document) {
+        return document.getText() == null ? "" : document.getText();
+    }
+}
@@ -0,0 +1,510 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import app.ampersandor.spring_ai_demo.etl.DocumentIndex;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index that ranks chunks with Okapi BM25, for exact terms such as command line flags
+ * ({@code --maxaccepts}) that embeddings tend to blur.
+ * <p>
+ * The chunk text and its {@code excerpt_keywords} metadata are indexed together; keyword terms count
+ * {@code keywordBoost} times. Latin words are indexed as lower-cased tokens, and flags additionally without their
+ * leading dashes, so {@code --auto} matches both {@code --auto} and {@code auto}. Hangul, Han and Kana runs are
+ * indexed as character bigrams since Korean words carry attached particles ({@code 옵션은}).
+ * <p>
+ * Deleted chunks leave a hole in the posting lists until more than half of the slots are holes, then the index is
+ * rebuilt from the remaining chunks. With a {@code path} the chunks are written there as JSON by
+ * {@link #persist()} and the postings are rebuilt from them on the next start.
+ * <p>
+ * A search only touches the posting lists of its terms: scores are accumulated in a sparse table sized by those
+ * lists, not by the number of chunks. {@link #persist()} only holds the read lock while it collects the chunks,
+ * so adds and deletes queued during the write do not hold up searches.
+ */
+public class Bm25Index implements DocumentIndex, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Bm25Index.class);
+
+    private static final String CJK = "\\p{IsHangul}\\p{IsHan}\\p{IsHiragana}\\p{IsKatakana}";
+
+    private static final String WORD = "[\\p{L}\\p{N}_&&[^" + CJK + "]]";
+
+    // 한중일 문자열, 또는 앞에 - 가 붙을 수 있고 . - 를 포함하는 단어 (--auto, fastx_uniques, v1.2)
+    private static final Pattern TOKEN = Pattern.compile(
+            "[" + CJK + "]+|-{0,2}" + WORD + "(?:(?:" + WORD + "|[.-])*" + WORD + ")?");
+
+    private static final TypeReference<List<StoredDocument>> DOCUMENTS_TYPE = new TypeReference<>() {
+    };
+
+    private final double k1;
+
+    private final double b;
+
+    private final int keywordBoost;
+
+    private final Path path;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ReentrantLock persistLock = new ReentrantLock();
+
+    private final SpelExpressionParser expressionParser = new SpelExpressionParser();
+
+    private final SimpleVectorStoreFilterExpressionConverter filterExpressionConverter =
+            new SimpleVectorStoreFilterExpressionConverter();
+
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    private final Map<String, Integer> slotById = new HashMap<>();
+
+    private StoredDocument[] documents = new StoredDocument[64];
+
+    private int[] lengths = new int[64];
+
+    private int slots;
+
+    private int live;
+
+    private long totalLength;
+
+    private volatile boolean dirty;
+
+    private record StoredDocument(String id, String text, Map<String, Object> metadata) {
+    }
+
+    /**
+     * Slots containing a term and how often it occurs there, in insertion order.
+     */
+    private static final class Postings {
+
+        private int[] slots = new int[4];
+
+        private int[] frequencies = new int[4];
+
+        private int size;
+
+        void add(int slot, int frequency) {
+            if (this.size == this.slots.length) {
+                this.slots = Arrays.copyOf(this.slots, this.size * 2);
+                this.frequencies = Arrays.copyOf(this.frequencies, this.size * 2);
+            }
+            this.slots[this.size] = slot;
+            this.frequencies[this.size] = frequency;
+            this.size++;
+        }
+    }
+
+    private record Hit(int slot, double score) {
+    }
+
+    /**
+     * Open-addressing {@code slot -> score} table of one query, sized by the postings it will receive.
+     */
+    private static final class ScoreAccumulator {
+
+        private final int[] keys;
+
+        private final double[] scores;
+
+        private final int mask;
+
+        private int size;
+
+        ScoreAccumulator(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+            this.keys = new int[capacity];
+            this.scores = new double[capacity];
+            this.mask = capacity - 1;
+            Arrays.fill(this.keys, -1);
+        }
+
+        void add(int slot, double score) {
+            int index = (slot * 0x9E3779B9) & this.mask;
+            while (this.keys[index] != -1 && this.keys[index] != slot) {
+                index = (index + 1) & this.mask;
+            }
+            if (this.keys[index] == -1) {
+                this.keys[index] = slot;
+                this.size++;
+            }
+            this.scores[index] += score;
+        }
+    }
+
+    /**
+     * @param k1 term frequency saturation, typically 1.2
+     * @param b document length normalization, typically 0.75
+     * @param keywordBoost how many times a term of {@code excerpt_keywords} counts
+     * @param path file the chunks are persisted to, or {@code null} to keep the index in memory only
+     */
+    public Bm25Index(double k1, double b, int keywordBoost, Path path) {
+        this.k1 = k1;
+        this.b = b;
+        this.keywordBoost = keywordBoost;
+        this.path = path;
+        if (path != null && Files.exists(path)) {
+            load();
+        }
+    }
+
+    /**
+     * Splits text into the terms the index uses, in order of occurrence.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            String token = matcher.group();
+            if (isCjk(token.codePointAt(0))) {
+                if (token.codePointCount(0, token.length()) == 1) {
+                    terms.add(token);
+                    continue;
+                }
+                int offset = 0;
+                int next = token.offsetByCodePoints(0, 1);
+                while (next < token.length()) {
+                    int end = token.offsetByCodePoints(next, 1);
+                    terms.add(token.substring(offset, end));
+                    offset = next;
+                    next = end;
+                }
+                continue;
+            }
+            terms.add(token);
+            if (token.startsWith("-")) {
+                terms.add(token.replaceFirst("^-+", ""));
+            }
+        }
+        return terms;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HANGUL || script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA || script == Character.UnicodeScript.KATAKANA;
+    }
+
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.live;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsAll(Collection<String> documentIds) {
+        this.lock.readLock().lock();
+        try {
+            return this.slotById.keySet().containsAll(documentIds);
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Whether any indexed chunk contains {@code term} (one of the terms {@link #tokenize} produces).
+     */
+    public boolean containsTerm(String term) {
+        this.lock.readLock().lock();
+        try {
+            Postings list = this.postings.get(term);
+            if (list == null) {
+                return false;
+            }
+            for (int i = 0; i < list.size; i++) {
+                if (this.documents[list.slots[i]] != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the chunks, replacing chunks with the same id.
+     */
+    @Override
+    public void accept(List<Document> documents) {
+        this.lock.writeLock().lock();
+        try {
+            for (Document document : documents) {
+                remove(document.getId());
+                insert(new StoredDocument(document.getId(), document.getText() != null ? document.getText() : "",
+                        new HashMap<>(document.getMetadata())));
+            }
+            this.dirty = true;
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> documentIds) {
+        this.lock.writeLock().lock();
+        try {
+            documentIds.forEach(this::remove);
+            if (this.slots - this.live > this.live) {
+                compact();
+            }
+            this.dirty = true;
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code topK} chunks matching any term of {@code query}, best first, with the BM25 score as
+     * {@link Document#getScore()}.
+     *
+     * @param filterExpression optional metadata filter, evaluated only on chunks that match a term
+     */
+    public List<Document> search(String query, int topK, Filter.Expression filterExpression) {
+        Map<String, Integer> queryTerms = new LinkedHashMap<>();
+        tokenize(query).forEach(term -> queryTerms.merge(term, 1, Integer::sum));
+        IntPredicate filter = filterExpression != null ? compileFilter(filterExpression) : slot -> true;
+        this.lock.readLock().lock();
+        try {
+            if (this.live == 0 || queryTerms.isEmpty()) {
+                return List.of();
+            }
+            double averageLength = (double) this.totalLength / this.live;
+            List<Map.Entry<Integer, Postings>> matchedTerms = new ArrayList<>(queryTerms.size());
+            int postingCount = 0;
+            for (Map.Entry<String, Integer> queryTerm : queryTerms.entrySet()) {
+                Postings list = this.postings.get(queryTerm.getKey());
+                if (list != null) {
+                    matchedTerms.add(Map.entry(queryTerm.getValue(), list));
+                    postingCount += list.size;
+                }
+            }
+            // 청크 수가 아니라 일치한 posting 수에 비례하는 공간만 쓴다
+            ScoreAccumulator scores = new ScoreAccumulator(postingCount);
+            for (Map.Entry<Integer, Postings> matchedTerm : matchedTerms) {
+                Postings list = matchedTerm.getValue();
+                int frequency = 0;
+                for (int i = 0; i < list.size; i++) {
+                    if (this.documents[list.slots[i]] != null) {
+                        frequency++;
+                    }
+                }
+                double idf = Math.log(1 + (this.live - frequency + 0.5) / (frequency + 0.5));
+                for (int i = 0; i < list.size; i++) {
+                    int slot = list.slots[i];
+                    if (this.documents[slot] == null) {
+                        continue;
+                    }
+                    double tf = list.frequencies[i];
+                    double norm = this.k1 * (1 - this.b + this.b * this.lengths[slot] / averageLength);
+                    scores.add(slot, matchedTerm.getKey() * idf * tf * (this.k1 + 1) / (tf + norm));
+                }
+            }
+            PriorityQueue<Hit> best = new PriorityQueue<>(
+                    (left, right) -> Double.compare(left.score(), right.score()));
+            for (int index = 0; index < scores.keys.length; index++) {
+                int slot = scores.keys[index];
+                double score = scores.scores[index];
+                if (slot == -1 || (best.size() == topK && score <= best.peek().score())) {
+                    continue;
+                }
+                if (!filter.test(slot)) {
+                    continue;
+                }
+                best.add(new Hit(slot, score));
+                if (best.size() > topK) {
+                    best.poll();
+                }
+            }
+            List<Document> results = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                Hit hit = best.poll();
+                StoredDocument document = this.documents[hit.slot()];
+                results.add(Document.builder()
+                        .id(document.id())
+                        .text(document.text())
+                        .metadata(new HashMap<>(document.metadata()))
+                        .score(hit.score())
+                        .build());
+            }
+            return results.reversed();
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the chunks to {@code path} if they changed. The chunks are collected under the read lock and
+     * serialized after it is released; concurrent calls are serialized so the newest snapshot is written last.
+     */
+    @Override
+    public void persist() {
+        if (this.path == null || !this.dirty) {
+            return;
+        }
+        this.persistLock.lock();
+        try {
+            List<StoredDocument> stored;
+            this.lock.readLock().lock();
+            try {
+                if (!this.dirty) {
+                    return;
+                }
+                // 저장된 청크는 불변이므로 참조만 복사해 두고 직렬화는 락 밖에서 한다
+                stored = new ArrayList<>(this.live);
+                for (int slot = 0; slot < this.slots; slot++) {
+                    if (this.documents[slot] != null) {
+                        stored.add(this.documents[slot]);
+                    }
+                }
+                this.dirty = false;
+            }
+            finally {
+                this.lock.readLock().unlock();
+            }
+            writeSnapshot(stored);
+        }
+        finally {
+            this.persistLock.unlock();
+        }
+    }
+
+    private void writeSnapshot(List<StoredDocument> stored) {
+        try {
+            Path directory = this.path.toAbsolutePath().getParent();
+            if (directory != null) {
+                Files.createDirectories(directory);
+            }
+            Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+            this.objectMapper.writeValue(temp.toFile(), stored);
+            Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Persisted {} chunks of the BM25 index to {}", stored.size(), this.path);
+        }
+        catch (IOException e) {
+            // 다음 checkpoint 에서 다시 쓰도록 한다
+            this.dirty = true;
+            throw new UncheckedIOException("Failed to write BM25 index " + this.path, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        persist();
+    }
+
+    private void load() {
+        long started = System.nanoTime();
+        try {
+            List<StoredDocument> stored = this.objectMapper.readValue(this.path.toFile(), DOCUMENTS_TYPE);
+            stored.forEach(this::insert);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to read BM25 index " + this.path, e);
+        }
+        logger.info("Loaded {} chunks into the BM25 index from {} in {} ms", this.live, this.path,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void insert(StoredDocument document) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        tokenize(document.text()).forEach(term -> frequencies.merge(term, 1, Integer::sum));
+        Object keywords = document.metadata().get(BatchKeywordMetadataEnricher.EXCERPT_KEYWORDS_METADATA_KEY);
+        if (keywords != null) {
+            tokenize(keywords.toString()).forEach(term -> frequencies.merge(term, this.keywordBoost, Integer::sum));
+        }
+        if (this.slots == this.documents.length) {
+            this.documents = Arrays.copyOf(this.documents, this.slots * 2);
+            this.lengths = Arrays.copyOf(this.lengths, this.slots * 2);
+        }
+        int slot = this.slots++;
+        int length = frequencies.values().stream().mapToInt(Integer::intValue).sum();
+        this.documents[slot] = document;
+        this.lengths[slot] = length;
+        this.slotById.put(document.id(), slot);
+        frequencies.forEach((term, frequency) -> this.postings.computeIfAbsent(term, key -> new Postings())
+                .add(slot, frequency));
+        this.live++;
+        this.totalLength += length;
+    }
+
+    private void remove(String id) {
+        Integer slot = this.slotById.remove(id);
+        if (slot == null) {
+            return;
+        }
+        this.documents[slot] = null;
+        this.live--;
+        this.totalLength -= this.lengths[slot];
+    }
+
+    /**
+     * Rebuilds the postings from the remaining chunks so deleted slots stop costing scan time.
+     */
+    private void compact() {
+        StoredDocument[] remaining = Arrays.copyOf(this.documents, this.slots);
+        this.postings.clear();
+        this.slotById.clear();
+        this.documents = new StoredDocument[Math.max(64, this.live * 2)];
+        this.lengths = new int[this.documents.length];
+        this.slots = 0;
+        this.live = 0;
+        this.totalLength = 0;
+        for (StoredDocument document : remaining) {
+            if (document != null) {
+                insert(document);
+            }
+        }
+    }
+
+    /**
+     * Translates the portable filter into a SpEL predicate over the metadata of a slot, the same evaluation the
+     * in-memory vector stores perform.
+     */
+    private IntPredicate compileFilter(Filter.Expression filterExpression) {
+        Expression expression = this.expressionParser
+                .parseExpression(this.filterExpressionConverter.convertExpression(filterExpression));
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        return slot -> {
+            context.setVariable("metadata", this.documents[slot].metadata());
+            return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+        };
+    }
+}
@@ -0,0 +1,45 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import org.springframework.core.task.TaskExecutor;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * {@link TaskExecutor} that bounds how many tasks submitted by one thread run at the same time, instead of
+ * throttling all submitters together like {@code SimpleAsyncTaskExecutor#setConcurrencyLimit} does.
+ * <p>
+ * Meant for the fan-out of a retrieval advisor: the request thread submits one task per expanded query and joins
+ * them before it moves on, so the permits of a thread are the permits of the request it is serving. Tasks beyond
+ * {@code maxConcurrency} wait (on their own, typically virtual, thread) for a task of the same request to finish;
+ * requests never wait for each other. A waiting task is always run eventually, so futures built on this executor
+ * always complete.
+ */
+public class BoundedFanOutTaskExecutor implements TaskExecutor {
+
+    private final TaskExecutor delegate;
+
+    private final ThreadLocal<Semaphore> permits;
+
+    public BoundedFanOutTaskExecutor(TaskExecutor delegate, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        this.delegate = delegate;
+        this.permits = ThreadLocal.withInitial(() -> new Semaphore(maxConcurrency));
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Semaphore callerPermits = this.permits.get();
+        this.delegate.execute(() -> {
+            // 인터럽트로 건너뛰면 CompletableFuture 가 끝나지 않으므로 허가를 받을 때까지 기다린다
+            callerPermits.acquireUninterruptibly();
+            try {
+                task.run();
+            }
+            finally {
+                callerPermits.release();
+            }
+        });
+    }
+}
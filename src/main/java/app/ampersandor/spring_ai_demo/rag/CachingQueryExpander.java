@@ -0,0 +1,37 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import app.ampersandor.spring_ai_demo.cache.SingleFlightCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.preretrieval.query.expansion.QueryExpander;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Remembers the query variants a {@link QueryExpander} produced for a query text, so repeated questions skip the
+ * LLM round trip. Concurrent identical queries share one call. Every variant keeps the history and context of
+ * the incoming query.
+ */
+public class CachingQueryExpander implements QueryExpander {
+
+    private final QueryExpander delegate;
+
+    private final SingleFlightCache<String, List<String>> cache;
+
+    /**
+     * @param name cache name used in the {@code cache.*} metrics
+     */
+    public CachingQueryExpander(QueryExpander delegate, String name, int maxEntries, Duration ttl,
+            MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.cache = new SingleFlightCache<>(name, maxEntries, ttl, meterRegistry);
+    }
+
+    @Override
+    public List<Query> expand(Query query) {
+        List<String> texts = this.cache.get(query.text().strip(),
+                () -> this.delegate.expand(query).stream().map(Query::text).toList());
+        return texts.stream().map(text -> query.mutate().text(text).build()).toList();
+    }
+}
@@ -0,0 +1,35 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import app.ampersandor.spring_ai_demo.cache.SingleFlightCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
+
+import java.time.Duration;
+
+/**
+ * Remembers the text a {@link QueryTransformer} (e.g. translation) produced for a query text, so repeated
+ * questions skip the LLM round trip. Concurrent identical queries share one call. History and context of the
+ * incoming query are kept; only its text is replaced.
+ */
+public class CachingQueryTransformer implements QueryTransformer {
+
+    private final QueryTransformer delegate;
+
+    private final SingleFlightCache<String, String> cache;
+
+    /**
+     * @param name cache name used in the {@code cache.*} metrics
+     */
+    public CachingQueryTransformer(QueryTransformer delegate, String name, int maxEntries, Duration ttl,
+            MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.cache = new SingleFlightCache<>(name, maxEntries, ttl, meterRegistry);
+    }
+
+    @Override
+    public Query transform(Query query) {
+        String text = this.cache.get(query.text().strip(), () -> this.delegate.transform(query).text());
+        return query.mutate().text(text).build();
+    }
+}
@@ -0,0 +1,162 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+/**
+ * {@link DocumentRetriever} that combines {@link Bm25Index} with vector search.
+ * <p>
+ * The lexical search runs on {@code executor} while the vector retriever embeds and searches on the calling thread;
+ * both candidate lists are then merged with reciprocal rank fusion, every list contributing
+ * {@code 1 / (rankConstant + rank)} to a document's score. RRF only looks at ranks, so the unrelated BM25 and
+ * cosine scales never have to be calibrated against each other.
+ * <p>
+ * Queries that are clearly keyword lookups, at most {@code keywordMaxTerms} words with at least one literal such
+ * as a flag ({@code --maxaccepts}) or an identifier ({@code fastx_uniques}) that the index contains, are answered
+ * from the BM25 index alone without embedding the query.
+ * <p>
+ * Retrievals are counted in {@code rag.retrieval.requests} tagged with the {@code path} taken
+ * ({@code lexical} or {@code hybrid}).
+ */
+public class HybridDocumentRetriever implements DocumentRetriever {
+
+    private static final Pattern LITERAL = Pattern.compile("-{1,2}\\p{L}.*|.*[_./].*|.*\\p{L}.*\\d.*|.*\\d.*\\p{L}.*");
+
+    private final DocumentRetriever vectorRetriever;
+
+    private final Bm25Index lexicalIndex;
+
+    private final int topK;
+
+    private final int candidates;
+
+    private final int rankConstant;
+
+    private final int keywordMaxTerms;
+
+    private final Executor executor;
+
+    private final FilterExpressionTextParser filterExpressionParser = new FilterExpressionTextParser();
+
+    private final Counter lexicalRetrievals;
+
+    private final Counter hybridRetrievals;
+
+    /**
+     * @param vectorRetriever vector search returning up to {@code candidates} documents
+     * @param topK documents returned per query
+     * @param candidates documents taken from each list before fusion
+     * @param rankConstant RRF constant, 60 in the original paper; larger values flatten the rank differences
+     * @param keywordMaxTerms longest query, in words, that may take the lexical-only path
+     */
+    public HybridDocumentRetriever(DocumentRetriever vectorRetriever, Bm25Index lexicalIndex, int topK,
+            int candidates, int rankConstant, int keywordMaxTerms, Executor executor, MeterRegistry meterRegistry) {
+        this.vectorRetriever = vectorRetriever;
+        this.lexicalIndex = lexicalIndex;
+        this.topK = topK;
+        this.candidates = Math.max(candidates, topK);
+        this.rankConstant = rankConstant;
+        this.keywordMaxTerms = keywordMaxTerms;
+        this.executor = executor;
+        this.lexicalRetrievals = retrievalCounter(meterRegistry, "lexical");
+        this.hybridRetrievals = retrievalCounter(meterRegistry, "hybrid");
+    }
+
+    private static Counter retrievalCounter(MeterRegistry meterRegistry, String path) {
+        return Counter.builder("rag.retrieval.requests")
+                .description("Document retrievals by search path")
+                .tag("path", path)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        Filter.Expression filterExpression = filterExpression(query);
+        if (isKeywordLookup(query.text())) {
+            List<Document> lexical = this.lexicalIndex.search(query.text(), this.topK, filterExpression);
+            if (!lexical.isEmpty()) {
+                this.lexicalRetrievals.increment();
+                return lexical;
+            }
+        }
+        this.hybridRetrievals.increment();
+        CompletableFuture<List<Document>> lexical = CompletableFuture.supplyAsync(
+                () -> this.lexicalIndex.search(query.text(), this.candidates, filterExpression), this.executor);
+        List<Document> vector = this.vectorRetriever.retrieve(query);
+        try {
+            return fuse(List.of(vector, lexical.join()));
+        }
+        catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+    }
+
+    /**
+     * A short query with a literal term the index knows: the user is looking up a flag or name, not a topic.
+     */
+    boolean isKeywordLookup(String text) {
+        String[] words = text.strip().split("\\s+");
+        if (words.length == 0 || words.length > this.keywordMaxTerms) {
+            return false;
+        }
+        for (String word : words) {
+            String literal = word.replaceAll("^[\"'`(]+|[\"'`),.?!:;]+$", "");
+            if (LITERAL.matcher(literal).matches()
+                    && Bm25Index.tokenize(literal).stream().anyMatch(this.lexicalIndex::containsTerm)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Document> fuse(List<List<Document>> rankings) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int rank = 0; rank < Math.min(ranking.size(), this.candidates); rank++) {
+                Document document = ranking.get(rank);
+                // 두 목록에 모두 있으면 먼저 온(벡터 검색) 문서의 메타데이터를 유지한다
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (this.rankConstant + rank + 1), Double::sum);
+            }
+        }
+        List<String> ids = new ArrayList<>(scores.keySet());
+        ids.sort(Comparator.comparingDouble((String id) -> scores.get(id)).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        return ids.stream().limit(this.topK)
+                .map(id -> documents.get(id).mutate().score(scores.get(id)).build())
+                .toList();
+    }
+
+    /**
+     * Same lookup as {@link VectorStoreDocumentRetriever}: the filter passed as an advisor parameter, either
+     * parsed or as text.
+     */
+    private Filter.Expression filterExpression(Query query) {
+        Object contextFilter = query.context().get(VectorStoreDocumentRetriever.FILTER_EXPRESSION);
+        if (contextFilter instanceof Filter.Expression expression) {
+            return expression;
+        }
+        if (contextFilter instanceof String text && StringUtils.hasText(text)) {
+            return this.filterExpressionParser.parse(text);
+        }
+        return null;
+    }
+}
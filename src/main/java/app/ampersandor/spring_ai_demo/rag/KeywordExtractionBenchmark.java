@@ -0,0 +1,143 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentTransformer;
+import org.springframework.ai.model.transformer.KeywordMetadataEnricher;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs every keyword extraction mode over the same sample of chunks and compares wall-clock time, LLM calls,
+ * tokens and estimated cost:
+ * per-chunk {@link KeywordMetadataEnricher}, {@link BatchKeywordMetadataEnricher} and the two
+ * {@link LocalKeywordMetadataEnricher} algorithms.
+ * Each mode works on its own copy of the chunks. Token counts come from the usage metadata of the chat responses.
+ */
+public class KeywordExtractionBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeywordExtractionBenchmark.class);
+
+    private final ChatModel chatModel;
+
+    private final int keywordCount;
+
+    private final int batchSize;
+
+    private final int maxBatchChars;
+
+    private final double costPerMillionTokens;
+
+    /**
+     * @param tokens total prompt + completion tokens reported by the model
+     * @param cost {@code tokens} priced at the configured rate
+     */
+    public record Result(String mode, int chunks, Duration elapsed, long llmCalls, long tokens, double cost) {
+    }
+
+    /**
+     * @param costPerMillionTokens price used for the cost column, {@code 0} when unknown
+     */
+    public KeywordExtractionBenchmark(ChatModel chatModel, int keywordCount, int batchSize, int maxBatchChars,
+            double costPerMillionTokens) {
+        this.chatModel = chatModel;
+        this.keywordCount = keywordCount;
+        this.batchSize = batchSize;
+        this.maxBatchChars = maxBatchChars;
+        this.costPerMillionTokens = costPerMillionTokens;
+    }
+
+    public List<Result> run(List<Document> chunks) {
+        UsageTrackingChatModel tracked = new UsageTrackingChatModel(this.chatModel);
+        Map<String, DocumentTransformer> modes = new LinkedHashMap<>();
+        modes.put("llm", new KeywordMetadataEnricher(tracked, this.keywordCount));
+        modes.put("batch", new BatchKeywordMetadataEnricher(tracked, this.keywordCount, this.batchSize,
+                this.maxBatchChars));
+        modes.put("tf-idf", new LocalKeywordMetadataEnricher(LocalKeywordMetadataEnricher.Algorithm.TF_IDF,
+                this.keywordCount));
+        modes.put("rake", new LocalKeywordMetadataEnricher(LocalKeywordMetadataEnricher.Algorithm.RAKE,
+                this.keywordCount));
+
+        List<Result> results = new ArrayList<>();
+        modes.forEach((mode, enricher) -> {
+            List<Document> copies = chunks.stream()
+                    .map(chunk -> new Document(chunk.getId(), chunk.getText(), new HashMap<>(chunk.getMetadata())))
+                    .toList();
+            tracked.reset();
+            long started = System.nanoTime();
+            try {
+                enricher.apply(copies);
+            }
+            catch (RuntimeException e) {
+                logger.warn("Keyword mode '{}' failed: {}", mode, e.getMessage());
+                return;
+            }
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+            long tokens = tracked.tokens.get();
+            results.add(new Result(mode, copies.size(), elapsed, tracked.calls.get(), tokens,
+                    tokens * this.costPerMillionTokens / 1_000_000));
+            logger.debug("Keywords by '{}': {}", mode, copies.stream()
+                    .limit(3)
+                    .map(copy -> copy.getMetadata().get(BatchKeywordMetadataEnricher.EXCERPT_KEYWORDS_METADATA_KEY))
+                    .toList());
+        });
+
+        StringBuilder table = new StringBuilder("Keyword extraction benchmark over %d chunks".formatted(chunks.size()));
+        table.append("%n  %-7s %10s %10s %12s %10s".formatted("mode", "time(ms)", "llm calls", "tokens", "cost"));
+        for (Result result : results) {
+            table.append("%n  %-7s %10d %10d %12d %10.4f".formatted(result.mode(), result.elapsed().toMillis(),
+                    result.llmCalls(), result.tokens(), result.cost()));
+        }
+        logger.info("{}", table);
+        return results;
+    }
+
+    /**
+     * Counts the calls and reported tokens that go through the wrapped model.
+     */
+    private static final class UsageTrackingChatModel implements ChatModel {
+
+        private final ChatModel delegate;
+
+        private final AtomicLong calls = new AtomicLong();
+
+        private final AtomicLong tokens = new AtomicLong();
+
+        UsageTrackingChatModel(ChatModel delegate) {
+            this.delegate = delegate;
+        }
+
+        void reset() {
+            this.calls.set(0);
+            this.tokens.set(0);
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            ChatResponse response = this.delegate.call(prompt);
+            this.calls.incrementAndGet();
+            Usage usage = response.getMetadata() != null ? response.getMetadata().getUsage() : null;
+            if (usage != null && usage.getTotalTokens() != null) {
+                this.tokens.addAndGet(usage.getTotalTokens());
+            }
+            return response;
+        }
+
+        @Override
+        public ChatOptions getDefaultOptions() {
+            return this.delegate.getDefaultOptions();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
+import org.springframework.ai.rag.preretrieval.query.transformation.TranslationQueryTransformer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a translating {@link QueryTransformer} (normally {@link TranslationQueryTransformer}) only for queries that
+ * {@link LanguageDetector} does not recognize as {@code targetLanguage}; queries already in the target language
+ * are returned unchanged without a model call.
+ * <p>
+ * Metrics: {@code rag.translation.decisions} counts skipped and translated queries, {@code rag.translation.duration}
+ * times the translations that ran, and {@code rag.translation.saved} adds the mean translation time for every
+ * skipped query, an estimate of the latency saved.
+ */
+public class LanguageAwareQueryTransformer implements QueryTransformer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LanguageAwareQueryTransformer.class);
+
+    private final QueryTransformer translator;
+
+    private final String targetLanguage;
+
+    private final LanguageDetector languageDetector;
+
+    private final Counter skipped;
+
+    private final Counter translated;
+
+    private final Timer translationTimer;
+
+    private final Counter savedSeconds;
+
+    private final AtomicLong translationNanos = new AtomicLong();
+
+    private final AtomicLong translationCount = new AtomicLong();
+
+    public LanguageAwareQueryTransformer(QueryTransformer translator, String targetLanguage,
+            LanguageDetector languageDetector, MeterRegistry meterRegistry) {
+        this.translator = translator;
+        this.targetLanguage = targetLanguage;
+        this.languageDetector = languageDetector;
+        this.skipped = decisionCounter(meterRegistry, "skipped");
+        this.translated = decisionCounter(meterRegistry, "translated");
+        this.translationTimer = Timer.builder("rag.translation.duration")
+                .description("Time spent in query translation calls")
+                .register(meterRegistry);
+        this.savedSeconds = Counter.builder("rag.translation.saved")
+                .description("Estimated translation time saved by skipped queries")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("rag.translation.skip.ratio", this, LanguageAwareQueryTransformer::skipRatio)
+                .description("Share of queries that needed no translation")
+                .register(meterRegistry);
+    }
+
+    private static Counter decisionCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("rag.translation.decisions")
+                .description("Queries by translation decision")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    public double skipRatio() {
+        double total = this.skipped.count() + this.translated.count();
+        return total == 0 ? 0 : this.skipped.count() / total;
+    }
+
+    @Override
+    public Query transform(Query query) {
+        String language = this.languageDetector.detect(query.text());
+        if (language.equalsIgnoreCase(this.targetLanguage)) {
+            this.skipped.increment();
+            long count = this.translationCount.get();
+            if (count > 0) {
+                this.savedSeconds.increment(this.translationNanos.get() / (double) count / 1e9);
+            }
+            return query;
+        }
+        logger.debug("Translating query detected as {} to {}", language, this.targetLanguage);
+        this.translated.increment();
+        long started = System.nanoTime();
+        try {
+            return this.translator.transform(query);
+        }
+        finally {
+            long elapsed = System.nanoTime() - started;
+            this.translationTimer.record(elapsed, TimeUnit.NANOSECONDS);
+            this.translationNanos.addAndGet(elapsed);
+            this.translationCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import java.lang.Character.UnicodeScript;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Local language identification for short queries, without any model call.
+ * <ol>
+ * <li>Script heuristic: every word is assigned the Unicode script of most of its letters. When at least
+ * {@code minScriptShare} of the words are written in a script used by a single language (Hangul, Kana, Han,
+ * Cyrillic, ...), that language is returned. Counting words rather than letters keeps a Korean question with a
+ * few English product names Korean.</li>
+ * <li>Character trigram model: Latin-script text is scored against small trigram profiles of English, French,
+ * German and Spanish (naive Bayes with add-one smoothing, words padded with spaces so prefixes and suffixes
+ * count).</li>
+ * </ol>
+ * Languages are named like the {@code targetLanguage} of Spring AI's translation transformer
+ * ({@code korean}, {@code english}, ...); {@link #UNKNOWN} is returned when neither step is confident.
+ */
+public class LanguageDetector {
+
+    public static final String UNKNOWN = "unknown";
+
+    private static final Map<UnicodeScript, String> SCRIPT_LANGUAGES = new EnumMap<>(Map.of(
+            UnicodeScript.HANGUL, "korean",
+            UnicodeScript.HIRAGANA, "japanese",
+            UnicodeScript.KATAKANA, "japanese",
+            UnicodeScript.HAN, "chinese",
+            UnicodeScript.CYRILLIC, "russian",
+            UnicodeScript.ARABIC, "arabic",
+            UnicodeScript.THAI, "thai",
+            UnicodeScript.GREEK, "greek",
+            UnicodeScript.HEBREW, "hebrew",
+            UnicodeScript.DEVANAGARI, "hindi"));
+
+    // 프로필 학습용 표본 문장: 질의에 자주 나오는 기능어와 어미가 들어가도록 골랐다
+    private static final Map<String, String> SAMPLES = new LinkedHashMap<>(Map.of(
+            "english", """
+                    what is the best way to align these sequences and how does the algorithm work with long \
+                    inputs. which option should i use for a large number of proteins when the memory is limited. \
+                    can you explain the difference between the fast and the accurate modes in this manual. \
+                    how do i install the program and where are the results written after the run finished. \
+                    please tell me why the alignment takes so long and what i should change to make it faster""",
+            "french", """
+                    quelle est la meilleure façon d'aligner ces séquences et comment fonctionne l'algorithme avec \
+                    des entrées longues. quelle option dois-je utiliser pour un grand nombre de protéines lorsque \
+                    la mémoire est limitée. pouvez-vous expliquer la différence entre les modes rapide et précis \
+                    dans ce manuel. comment installer le programme et où sont écrits les résultats après \
+                    l'exécution. pourquoi l'alignement prend autant de temps et que faut-il changer""",
+            "german", """
+                    was ist der beste weg, diese sequenzen auszurichten, und wie funktioniert der algorithmus mit \
+                    langen eingaben. welche option soll ich für eine große anzahl von proteinen verwenden, wenn \
+                    der speicher begrenzt ist. kannst du den unterschied zwischen dem schnellen und dem genauen \
+                    modus in diesem handbuch erklären. wie installiere ich das programm und wo werden die \
+                    ergebnisse nach dem lauf geschrieben. warum dauert die ausrichtung so lange""",
+            "spanish", """
+                    cuál es la mejor manera de alinear estas secuencias y cómo funciona el algoritmo con entradas \
+                    largas. qué opción debo usar para un gran número de proteínas cuando la memoria es limitada. \
+                    puedes explicar la diferencia entre los modos rápido y preciso en este manual. cómo instalo \
+                    el programa y dónde se escriben los resultados después de la ejecución. por qué la \
+                    alineación tarda tanto y qué debo cambiar para que sea más rápida"""));
+
+    private final double minScriptShare;
+
+    private final Map<String, Map<String, Integer>> profiles = new LinkedHashMap<>();
+
+    private final Map<String, Integer> profileTotals = new HashMap<>();
+
+    private final int vocabularySize;
+
+    /**
+     * @param minScriptShare share of words that must be written in a script for the script to decide the language
+     */
+    public LanguageDetector(double minScriptShare) {
+        this.minScriptShare = minScriptShare;
+        Set<String> vocabulary = new HashSet<>();
+        SAMPLES.forEach((language, sample) -> {
+            Map<String, Integer> profile = new HashMap<>();
+            forEachTrigram(sample, trigram -> profile.merge(trigram, 1, Integer::sum));
+            vocabulary.addAll(profile.keySet());
+            this.profiles.put(language, profile);
+            this.profileTotals.put(language, profile.values().stream().mapToInt(Integer::intValue).sum());
+        });
+        this.vocabularySize = vocabulary.size();
+    }
+
+    public boolean isLanguage(String text, String language) {
+        return detect(text).equalsIgnoreCase(language);
+    }
+
+    public String detect(String text) {
+        Map<UnicodeScript, Integer> wordsByScript = new EnumMap<>(UnicodeScript.class);
+        int words = 0;
+        int length = text.length();
+        int offset = 0;
+        while (offset < length) {
+            Map<UnicodeScript, Integer> letters = new EnumMap<>(UnicodeScript.class);
+            while (offset < length) {
+                int codePoint = text.codePointAt(offset);
+                if (!Character.isLetter(codePoint)) {
+                    break;
+                }
+                letters.merge(UnicodeScript.of(codePoint), 1, Integer::sum);
+                offset += Character.charCount(codePoint);
+            }
+            if (!letters.isEmpty()) {
+                UnicodeScript script = letters.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+                wordsByScript.merge(script, 1, Integer::sum);
+                words++;
+            }
+            else {
+                offset += Character.charCount(text.codePointAt(offset));
+            }
+        }
+        if (words == 0) {
+            return UNKNOWN;
+        }
+
+        // 가나가 섞여 있으면 한자도 일본어로 본다
+        int kana = wordsByScript.getOrDefault(UnicodeScript.HIRAGANA, 0)
+                + wordsByScript.getOrDefault(UnicodeScript.KATAKANA, 0);
+        if (kana > 0 && kana + wordsByScript.getOrDefault(UnicodeScript.HAN, 0) >= this.minScriptShare * words) {
+            return "japanese";
+        }
+        for (Map.Entry<UnicodeScript, Integer> entry : wordsByScript.entrySet()) {
+            String language = SCRIPT_LANGUAGES.get(entry.getKey());
+            if (language != null && entry.getValue() >= this.minScriptShare * words) {
+                return language;
+            }
+        }
+        if (wordsByScript.getOrDefault(UnicodeScript.LATIN, 0) >= this.minScriptShare * words) {
+            return detectLatin(text);
+        }
+        return UNKNOWN;
+    }
+
+    private String detectLatin(String text) {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        this.profiles.keySet().forEach(language -> scores.put(language, 0.0));
+        int[] trigrams = new int[1];
+        forEachTrigram(text, trigram -> {
+            trigrams[0]++;
+            scores.replaceAll((language, score) -> score + Math.log(
+                    (this.profiles.get(language).getOrDefault(trigram, 0) + 1.0)
+                            / (this.profileTotals.get(language) + this.vocabularySize)));
+        });
+        if (trigrams[0] == 0) {
+            return UNKNOWN;
+        }
+        return scores.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+    }
+
+    private static void forEachTrigram(String text, Consumer<String> consumer) {
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            String padded = " " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                consumer.accept(padded.substring(i, i + 3));
+            }
+        }
+    }
+}
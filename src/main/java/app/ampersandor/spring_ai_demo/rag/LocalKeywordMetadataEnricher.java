@@ -0,0 +1,185 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentTransformer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keyword enricher that needs no LLM: keywords are computed from the text of the chunks themselves.
+ * <ul>
+ * <li>{@link Algorithm#TF_IDF} scores every term of a chunk by its frequency in the chunk times its inverse
+ * document frequency over the corpus, so words that appear everywhere in the manual are not picked. The ETL
+ * pipeline hands over a few pages at a time, so the document frequencies are accumulated over every chunk this
+ * instance has seen rather than taken from one {@link #apply} call; the first batches of a run are scored
+ * against the smaller sample seen so far.</li>
+ * <li>{@link Algorithm#RAKE} (Rapid Automatic Keyword Extraction) splits each chunk into candidate phrases at
+ * stop words and punctuation and ranks them by the degree/frequency score of their words; it can return
+ * multi-word keywords.</li>
+ * </ul>
+ * Keywords go to the {@code excerpt_keywords} metadata key as a comma separated string, like the LLM enrichers.
+ */
+public class LocalKeywordMetadataEnricher implements DocumentTransformer {
+
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}][\\p{L}\\p{N}_\\-]*");
+
+    private static final Pattern PHRASE_DELIMITER = Pattern.compile("[\\p{Punct}\\p{IsPunctuation}\\n\\r\\t]+");
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "about", "above", "after", "again", "all", "also", "an", "and", "any", "are", "as", "at", "be",
+            "because", "been", "before", "being", "below", "between", "both", "but", "by", "can", "could", "did",
+            "do", "does", "doing", "down", "during", "each", "either", "etc", "few", "for", "from", "further", "had",
+            "has", "have", "having", "he", "her", "here", "hers", "him", "his", "how", "however", "i", "if", "in",
+            "into", "is", "it", "its", "itself", "just", "may", "me", "might", "more", "most", "must", "my", "no",
+            "nor", "not", "now", "of", "off", "on", "once", "one", "only", "or", "other", "our", "out", "over", "own",
+            "per", "same", "she", "should", "so", "some", "such", "than", "that", "the", "their", "them", "then",
+            "there", "these", "they", "this", "those", "through", "thus", "to", "too", "two", "under", "until", "up",
+            "upon", "use", "used", "using", "very", "via", "was", "we", "were", "what", "when", "where", "which",
+            "while", "who", "whom", "why", "will", "with", "within", "without", "would", "you", "your",
+            "또는", "그리고", "하는", "있는", "있다", "한다", "된다", "위한", "대한", "통해", "경우", "또한");
+
+    public enum Algorithm {
+        TF_IDF, RAKE
+    }
+
+    private final Algorithm algorithm;
+
+    private final int keywordCount;
+
+    // 배치 크기와 무관하게 코퍼스 전체의 IDF 를 쓰도록 배치를 넘어 누적한다 (enrich 단계는 동시에 실행된다)
+    private final Map<String, Integer> documentFrequency = new ConcurrentHashMap<>();
+
+    private final AtomicLong documentCount = new AtomicLong();
+
+    public LocalKeywordMetadataEnricher(Algorithm algorithm, int keywordCount) {
+        if (keywordCount <= 0) {
+            throw new IllegalArgumentException("keywordCount must be positive.");
+        }
+        this.algorithm = algorithm;
+        this.keywordCount = keywordCount;
+    }
+
+    @Override
+    public List<Document> apply(List<Document> documents) {
+        List<List<String>> keywords = switch (this.algorithm) {
+            case TF_IDF -> tfIdf(documents);
+            case RAKE -> documents.stream().map(document -> rake(text(document))).toList();
+        };
+        for (int i = 0; i < documents.size(); i++) {
+            if (!keywords.get(i).isEmpty()) {
+                documents.get(i).getMetadata().put(BatchKeywordMetadataEnricher.EXCERPT_KEYWORDS_METADATA_KEY,
+                        String.join(", ", keywords.get(i)));
+            }
+        }
+        return documents;
+    }
+
+    private List<List<String>> tfIdf(List<Document> documents) {
+        List<Map<String, Integer>> termCounts = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (String term : terms(text(document))) {
+                counts.merge(term, 1, Integer::sum);
+            }
+            counts.keySet().forEach(term -> this.documentFrequency.merge(term, 1, Integer::sum));
+            termCounts.add(counts);
+        }
+        long n = this.documentCount.addAndGet(documents.size());
+        List<List<String>> keywords = new ArrayList<>(documents.size());
+        for (Map<String, Integer> counts : termCounts) {
+            Map<String, Double> scores = new HashMap<>();
+            counts.forEach((term, count) -> scores.put(term,
+                    count * (Math.log((1.0 + n) / (1.0 + this.documentFrequency.get(term))) + 1.0)));
+            keywords.add(top(scores));
+        }
+        return keywords;
+    }
+
+    private List<String> rake(String text) {
+        List<List<String>> phrases = new ArrayList<>();
+        for (String fragment : PHRASE_DELIMITER.split(text)) {
+            List<String> phrase = new ArrayList<>();
+            Matcher matcher = TOKEN.matcher(fragment);
+            while (matcher.find()) {
+                String word = matcher.group().toLowerCase(Locale.ROOT);
+                if (isStopWord(word)) {
+                    if (!phrase.isEmpty()) {
+                        phrases.add(phrase);
+                        phrase = new ArrayList<>();
+                    }
+                }
+                else {
+                    phrase.add(word);
+                }
+            }
+            if (!phrase.isEmpty()) {
+                phrases.add(phrase);
+            }
+        }
+
+        Map<String, Integer> frequency = new HashMap<>();
+        Map<String, Integer> degree = new HashMap<>();
+        for (List<String> phrase : phrases) {
+            for (String word : phrase) {
+                frequency.merge(word, 1, Integer::sum);
+                degree.merge(word, phrase.size(), Integer::sum);
+            }
+        }
+        Map<String, Double> scores = new HashMap<>();
+        for (List<String> phrase : phrases) {
+            // 너무 긴 후보는 문장 조각에 가까우므로 (불용어가 적은 한국어 문장 등) 단어 단위로 후보를 낸다
+            if (phrase.size() > 3) {
+                for (String word : phrase) {
+                    scores.merge(word, (double) degree.get(word) / frequency.get(word), Math::max);
+                }
+                continue;
+            }
+            double score = 0;
+            for (String word : phrase) {
+                score += (double) degree.get(word) / frequency.get(word);
+            }
+            scores.merge(String.join(" ", phrase), score, Math::max);
+        }
+        return top(scores);
+    }
+
+    private List<String> top(Map<String, Double> scores) {
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder())
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(this.keywordCount)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text);
+        while (matcher.find()) {
+            String term = matcher.group().toLowerCase(Locale.ROOT);
+            if (!isStopWord(term)) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    private static boolean isStopWord(String word) {
+        return word.length() < 2 || STOP_WORDS.contains(word) || word.chars().allMatch(Character::isDigit);
+    }
+
+    private static String text(Document document) {
+        return document.getText() == null ? "" : document.getText();
+    }
+}
@@ -0,0 +1,103 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import org.springframework.ai.transformer.splitter.TextSplitter;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed-length splitter that can end chunks at word or sentence boundaries.
+ * <p>
+ * With {@link Boundary#NONE} the chunks are exactly the ones {@link LengthTextSplitter} produces for the same
+ * {@code chunkSize}/{@code chunkOverlap}. {@link Boundary#WHITESPACE} and {@link Boundary#SENTENCE} move the end of
+ * a chunk back to the last whitespace / sentence end in the second half of the chunk, so words and sentences are
+ * not cut in the middle. {@link #boundaries(CharSequence)} exposes the {@code [start, end)} offsets of the chunks.
+ */
+public class OffsetTextSplitter extends TextSplitter {
+
+    public enum Boundary {
+        NONE, WHITESPACE, SENTENCE
+    }
+
+    private final int chunkSize;
+
+    private final int chunkOverlap;
+
+    private final Boundary boundary;
+
+    public OffsetTextSplitter(int chunkSize, int chunkOverlap, Boundary boundary) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive.");
+        if (chunkOverlap < 0 || chunkOverlap >= chunkSize)
+            throw new IllegalArgumentException("chunkOverlap must be >= 0 and < chunkSize.");
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+        this.boundary = boundary;
+    }
+
+    @Override
+    protected List<String> splitText(String text) {
+        int[] boundaries = boundaries(text);
+        List<String> chunks = new ArrayList<>(boundaries.length / 2);
+        for (int i = 0; i < boundaries.length; i += 2) {
+            chunks.add(text.substring(boundaries[i], boundaries[i + 1]));
+        }
+        return chunks;
+    }
+
+    /**
+     * Chunk offsets as {@code [start0, end0, start1, end1, ...]}.
+     */
+    public int[] boundaries(CharSequence text) {
+        if (!StringUtils.hasText(text)) {
+            return new int[0];
+        }
+        int length = text.length();
+        int[] boundaries = new int[16];
+        int count = 0;
+        int position = 0;
+        // LengthTextSplitter 와 같은 규칙: overlap 만큼 되돌아가 다음 청크를 시작하고, 더 나아가지 못하면 멈춘다
+        while (position < length) {
+            int end = Math.min(position + this.chunkSize, length);
+            if (end < length) {
+                end = snap(text, position, end);
+            }
+            if (count + 2 > boundaries.length) {
+                boundaries = Arrays.copyOf(boundaries, boundaries.length * 2);
+            }
+            boundaries[count++] = position;
+            boundaries[count++] = end;
+            int nextPosition = end - this.chunkOverlap;
+            if (nextPosition <= position) {
+                break;
+            }
+            position = nextPosition;
+        }
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    /**
+     * Moves {@code end} back to a boundary in {@code (max(start + chunkOverlap, start + chunkSize / 2), end]}, or
+     * leaves it unchanged when there is none. Keeping the end past the overlap guarantees progress.
+     */
+    private int snap(CharSequence text, int start, int end) {
+        if (this.boundary == Boundary.NONE) {
+            return end;
+        }
+        int min = start + Math.max(this.chunkOverlap, this.chunkSize / 2);
+        for (int i = end; i > min; i--) {
+            char previous = text.charAt(i - 1);
+            boolean isBoundary = switch (this.boundary) {
+                case WHITESPACE -> Character.isWhitespace(previous);
+                case SENTENCE -> (previous == '.' || previous == '!' || previous == '?' || previous == '。'
+                        || previous == '\n') && Character.isWhitespace(text.charAt(i));
+                case NONE -> false;
+            };
+            if (isBoundary) {
+                return i;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,36 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.join.ConcatenationDocumentJoiner;
+import org.springframework.ai.rag.retrieval.join.DocumentJoiner;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the documents retrieved for every expanded query into one list in a stable order: duplicates (same id)
+ * keep their best score, and documents are sorted by score, then id. Unlike {@link ConcatenationDocumentJoiner}
+ * the result does not depend on the order in which the parallel searches finished or the queries are iterated.
+ */
+public class ScoreOrderedDocumentJoiner implements DocumentJoiner {
+
+    private static final Comparator<Document> ORDER = Comparator
+            .comparingDouble((Document document) -> document.getScore() != null ? document.getScore() : 0.0)
+            .reversed()
+            .thenComparing(Document::getId);
+
+    @Override
+    public List<Document> join(Map<Query, List<List<Document>>> documentsForQuery) {
+        Map<String, Document> best = new LinkedHashMap<>();
+        documentsForQuery.values().stream().flatMap(List::stream).flatMap(List::stream)
+                .forEach(document -> best.merge(document.getId(), document,
+                        (existing, candidate) -> ORDER.compare(candidate, existing) < 0 ? candidate : existing));
+        List<Document> joined = new ArrayList<>(best.values());
+        joined.sort(ORDER);
+        return joined;
+    }
+}
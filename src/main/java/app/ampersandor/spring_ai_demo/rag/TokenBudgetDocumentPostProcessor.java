@@ -0,0 +1,80 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import app.ampersandor.spring_ai_demo.advisor.TokenBudgetAdvisor;
+import app.ampersandor.spring_ai_demo.token.TokenEstimator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.postretrieval.document.DocumentPostProcessor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Drops the lowest-scoring retrieved documents until the rest, together with the augmentation template, fit in the
+ * {@link TokenBudgetAdvisor#DOCUMENT_BUDGET} tokens the advisor left for them. The kept documents stay in their
+ * original order; without a budget in the query context the documents pass through unchanged.
+ * Dropped documents are counted in {@code chat.tokens.trimmed} with {@code part=documents}.
+ */
+public class TokenBudgetDocumentPostProcessor implements DocumentPostProcessor {
+
+    private final int templateTokens;
+
+    private final Counter trimmedDocuments;
+
+    /**
+     * @param templateTokens estimated tokens the query augmenter adds around the documents
+     */
+    public TokenBudgetDocumentPostProcessor(int templateTokens, MeterRegistry meterRegistry) {
+        this.templateTokens = templateTokens;
+        this.trimmedDocuments = Counter.builder("chat.tokens.trimmed")
+                .description("Prompt parts dropped to stay within the token budget")
+                .tag("part", "documents")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public List<Document> process(Query query, List<Document> documents) {
+        if (documents.isEmpty()
+                || !(query.context().get(TokenBudgetAdvisor.DOCUMENT_BUDGET) instanceof Integer budget)) {
+            return documents;
+        }
+        int[] tokens = new int[documents.size()];
+        int total = this.templateTokens;
+        for (int i = 0; i < documents.size(); i++) {
+            // 문서 사이 구분자 1 토큰 포함
+            tokens[i] = TokenEstimator.estimate(documents.get(i).getText()) + 1;
+            total += tokens[i];
+        }
+        if (total <= budget) {
+            return documents;
+        }
+        List<Integer> byScore = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            byScore.add(i);
+        }
+        byScore.sort(Comparator.comparingDouble((Integer i) -> score(documents.get(i))));
+        boolean[] dropped = new boolean[documents.size()];
+        int droppedCount = 0;
+        for (int i = 0; i < byScore.size() && total > budget; i++) {
+            int index = byScore.get(i);
+            dropped[index] = true;
+            total -= tokens[index];
+            droppedCount++;
+        }
+        this.trimmedDocuments.increment(droppedCount);
+        List<Document> kept = new ArrayList<>(documents.size() - droppedCount);
+        for (int i = 0; i < documents.size(); i++) {
+            if (!dropped[i]) {
+                kept.add(documents.get(i));
+            }
+        }
+        return kept;
+    }
+
+    private static double score(Document document) {
+        return document.getScore() != null ? document.getScore() : Double.NEGATIVE_INFINITY;
+    }
+}
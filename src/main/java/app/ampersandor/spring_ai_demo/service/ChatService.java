@@ -1,24 +1,61 @@
 package app.ampersandor.spring_ai_demo.service;
 
+import app.ampersandor.spring_ai_demo.cache.SingleFlightCache;
 import app.ampersandor.spring_ai_demo.dto.EmotionEvaluation;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.ResponseEntity;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 @Service
 @ConditionalOnProperty(name = "app.mode", havingValue = "chat")
 public class ChatService {
     private final ChatClient chatClient;
 
-    public ChatService(ChatClient.Builder chatClientBuilder, Advisor[] advisors) {
+    private final ChatMemory chatMemory;
+
+    private final boolean promptCacheEnabled;
+
+    private final double maxCachedTemperature;
+
+    private final SingleFlightCache<PromptKey, ChatResponse> responseCache;
+
+    private final SingleFlightCache<PromptKey, ResponseEntity<ChatResponse, EmotionEvaluation>> emotionCache;
+
+    /**
+     * Request fingerprint: every message of the prompt and the options that influence the answer.
+     */
+    private record PromptKey(String operation, List<String> messages, List<Object> options) {
+    }
+
+    public ChatService(ChatClient.Builder chatClientBuilder, Advisor[] advisors, ChatMemory chatMemory,
+            MeterRegistry meterRegistry,
+            @Value("${app.chat.prompt-cache.enabled:false}") boolean promptCacheEnabled,
+            @Value("${app.chat.prompt-cache.max-entries:1000}") int maxEntries,
+            @Value("${app.chat.prompt-cache.ttl:10m}") Duration ttl,
+            @Value("${app.chat.prompt-cache.max-temperature:0.0}") double maxCachedTemperature) {
         // Attach advisors once at construction time so every request shares the same
         // behaviour.
         this.chatClient = chatClientBuilder.defaultAdvisors(advisors).build();
+        this.chatMemory = chatMemory;
+        this.promptCacheEnabled = promptCacheEnabled;
+        this.maxCachedTemperature = maxCachedTemperature;
+        this.responseCache = new SingleFlightCache<>("chat.call", maxEntries, ttl, meterRegistry);
+        this.emotionCache = new SingleFlightCache<>("chat.emotion", maxEntries, ttl, meterRegistry);
     }
 
     /**
@@ -39,20 +76,91 @@ public class ChatService {
         return buildChatClientRequestSpec(conversationId, prompt).stream().content();
     }
 
+    /**
+     * Streams the answer as partial {@link ChatResponse}s, which also carry the model metadata and usage.
+     */
+    public Flux<ChatResponse> streamResponses(String conversationId, Prompt prompt) {
+        return buildChatClientRequestSpec(conversationId, prompt).stream().chatResponse();
+    }
+
     /**
      * Performs a blocking call and returns the full {@link ChatResponse}.
+     * Identical cacheable prompts (see {@link #cacheKey}) are answered from the prompt cache, and concurrent
+     * identical prompts share one model call.
      */
     public ChatResponse call(String conversationId, Prompt prompt) {
-        return buildChatClientRequestSpec(conversationId, prompt).call().chatResponse();
+        PromptKey key = cacheKey("call", conversationId, prompt);
+        if (key == null) {
+            return buildChatClientRequestSpec(conversationId, prompt).call().chatResponse();
+        }
+        AtomicBoolean called = new AtomicBoolean();
+        ChatResponse response = this.responseCache.get(key, () -> {
+            called.set(true);
+            return buildChatClientRequestSpec(conversationId, prompt).call().chatResponse();
+        });
+        if (!called.get()) {
+            remember(conversationId, prompt, response);
+        }
+        return response;
     }
 
     /**
      * Projects the response payload into a domain-specific record.
      * Spring AI maps JSON fields generated by the model into
      * {@link EmotionEvaluation}.
+     * Cached and coalesced like {@link #call}.
      */
     public EmotionEvaluation callEmotionEvaluation(String conversationId, Prompt prompt) {
-        return buildChatClientRequestSpec(conversationId, prompt).call().entity(EmotionEvaluation.class);
+        PromptKey key = cacheKey("emotion", conversationId, prompt);
+        if (key == null) {
+            return buildChatClientRequestSpec(conversationId, prompt).call().entity(EmotionEvaluation.class);
+        }
+        AtomicBoolean called = new AtomicBoolean();
+        ResponseEntity<ChatResponse, EmotionEvaluation> response = this.emotionCache.get(key, () -> {
+            called.set(true);
+            return buildChatClientRequestSpec(conversationId, prompt).call().responseEntity(EmotionEvaluation.class);
+        });
+        if (!called.get()) {
+            remember(conversationId, prompt, response.response());
+        }
+        return response.entity();
+    }
+
+    /**
+     * Fingerprint of a request that may be served from the prompt cache, or {@code null} when it must go to the
+     * model: the cache is disabled, the conversation already has history in {@link ChatMemory} (the memory
+     * advisor would add it to the prompt), or the temperature is unset or above {@code max-temperature}. An unset
+     * temperature falls back to the model default, which is usually well above zero, so only requests that
+     * explicitly ask for a repeatable answer are cached.
+     */
+    private PromptKey cacheKey(String operation, String conversationId, Prompt prompt) {
+        if (!this.promptCacheEnabled || !this.chatMemory.get(conversationId).isEmpty()) {
+            return null;
+        }
+        ChatOptions options = prompt.getOptions();
+        if (options == null || options.getTemperature() == null
+                || options.getTemperature() > this.maxCachedTemperature) {
+            return null;
+        }
+        List<String> messages = prompt.getInstructions().stream()
+                .map(message -> message.getMessageType() + ":" + message.getText())
+                .toList();
+        List<Object> optionValues = Arrays.asList(options.getModel(), options.getTemperature(), options.getTopP(),
+                options.getTopK(), options.getMaxTokens(), options.getFrequencyPenalty(), options.getPresencePenalty(),
+                options.getStopSequences());
+        return new PromptKey(operation, messages, optionValues);
+    }
+
+    /**
+     * Records an exchange answered without going through the advisor chain, so the conversation history looks
+     * the same as after a model call.
+     */
+    private void remember(String conversationId, Prompt prompt, ChatResponse response) {
+        if (response == null || response.getResult() == null) {
+            return;
+        }
+        List<Message> exchange = List.of(prompt.getUserMessage(), response.getResult().getOutput());
+        this.chatMemory.add(conversationId, exchange);
     }
 
 }
@@ -47,6 +47,14 @@ public class RagChatService {
         return buildChatClientRequestSpec(conversationId, prompt, filterExpressionAsOpt).stream().content();
     }
 
+    /**
+     * Streams RAG answers as partial {@link ChatResponse}s, which also carry the model metadata and usage.
+     */
+    public Flux<ChatResponse> streamResponses(String conversationId, Prompt prompt,
+            Optional<String> filterExpressionAsOpt) {
+        return buildChatClientRequestSpec(conversationId, prompt, filterExpressionAsOpt).stream().chatResponse();
+    }
+
     /**
      * Blocking RAG call that returns the full {@link ChatResponse}.
      * call() 함수 내부에 들어가보면 advisor 호출을 찾을 수 있다.
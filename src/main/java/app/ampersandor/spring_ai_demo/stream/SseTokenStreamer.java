@@ -0,0 +1,342 @@
+package app.ampersandor.spring_ai_demo.stream;
+
+import app.ampersandor.spring_ai_demo.dto.StreamOptions;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.util.StringUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns a streamed chat answer into Server-Sent Events for the {@code /stream} endpoints.
+ * <p>
+ * By default every token the model emits becomes its own {@code data:} frame, exactly as when the endpoints
+ * returned {@code Flux<String>}. In coalescing mode the first token is still sent at once, to keep the time to first
+ * token low, and later tokens are collected into one frame until {@code maxBytes} UTF-8 bytes have been buffered or
+ * {@code maxDelay} has passed since the first buffered token, whichever comes first. A coalesced stream ends with
+ * a {@value #USAGE_EVENT} event whose JSON data carries the model, finish reason and token usage reported by the
+ * model together with the frame statistics of the stream.
+ * <p>
+ * Coalescing is enabled for the endpoint by configuration and can be switched on or off, and tuned, per request
+ * through {@link StreamOptions}. Tokens and frames sent are counted in {@code chat.stream.tokens} and
+ * {@code chat.stream.frames} by {@code endpoint} and {@code mode}.
+ */
+public class SseTokenStreamer {
+
+    /**
+     * Name of the final event of a coalesced stream.
+     */
+    public static final String USAGE_EVENT = "usage";
+
+    private final Coalescing defaults;
+
+    private final ObjectMapper objectMapper;
+
+    private final Scheduler scheduler;
+
+    private final Counter tokens;
+
+    private final Counter frames;
+
+    private final Counter coalescedTokens;
+
+    private final Counter coalescedFrames;
+
+    /**
+     * Coalescing settings of an endpoint or a request.
+     */
+    public record Coalescing(boolean enabled, int maxBytes, Duration maxDelay) {
+
+        public Coalescing {
+            if (maxBytes <= 0 || maxDelay.isNegative()) {
+                throw new IllegalArgumentException("maxBytes must be positive and maxDelay must not be negative.");
+            }
+        }
+
+        Coalescing with(StreamOptions options) {
+            if (options == null) {
+                return this;
+            }
+            return new Coalescing(options.coalesce() != null ? options.coalesce() : this.enabled,
+                    options.maxBytes() != null ? options.maxBytes() : this.maxBytes,
+                    options.maxDelayMs() != null ? Duration.ofMillis(options.maxDelayMs()) : this.maxDelay);
+        }
+    }
+
+    /**
+     * Data of the final {@value #USAGE_EVENT} event. Token usage is {@code null} when the model did not report it.
+     */
+    public record StreamUsage(String model, String finishReason, Integer promptTokens, Integer completionTokens,
+            Integer totalTokens, long tokens, long frames, long bytes, long firstTokenMillis, long durationMillis) {
+    }
+
+    /**
+     * @param endpoint tag of the metrics, e.g. the {@code app.mode} serving the endpoint
+     * @param defaults coalescing settings used when the request does not override them
+     */
+    public SseTokenStreamer(String endpoint, Coalescing defaults, ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this(endpoint, defaults, objectMapper, meterRegistry, Schedulers.parallel());
+    }
+
+    SseTokenStreamer(String endpoint, Coalescing defaults, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+            Scheduler scheduler) {
+        this.defaults = defaults;
+        this.objectMapper = objectMapper;
+        this.scheduler = scheduler;
+        this.tokens = streamCounter(meterRegistry, "chat.stream.tokens", "Streamed tokens", endpoint, "token");
+        this.frames = streamCounter(meterRegistry, "chat.stream.frames", "SSE frames sent", endpoint, "token");
+        this.coalescedTokens = streamCounter(meterRegistry, "chat.stream.tokens", "Streamed tokens", endpoint,
+                "coalesced");
+        this.coalescedFrames = streamCounter(meterRegistry, "chat.stream.frames", "SSE frames sent", endpoint,
+                "coalesced");
+    }
+
+    private static Counter streamCounter(MeterRegistry meterRegistry, String name, String description,
+            String endpoint, String mode) {
+        return Counter.builder(name)
+                .description(description)
+                .tag("endpoint", endpoint)
+                .tag("mode", mode)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Streams {@code responses} as events, coalesced when enabled for the endpoint or by {@code options}.
+     */
+    public Flux<ServerSentEvent<String>> stream(Flux<ChatResponse> responses, StreamOptions options) {
+        Coalescing coalescing = this.defaults.with(options);
+        if (!coalescing.enabled()) {
+            return responses.mapNotNull(SseTokenStreamer::text)
+                    .doOnNext(token -> {
+                        this.tokens.increment();
+                        this.frames.increment();
+                    })
+                    .map(token -> ServerSentEvent.builder(token).build());
+        }
+        return Flux.defer(() -> {
+            StreamState state = new StreamState(System.nanoTime());
+            Flux<String> tokens = responses.doOnNext(state::observe).mapNotNull(SseTokenStreamer::text);
+            return coalesce(tokens, coalescing.maxBytes(), coalescing.maxDelay(), this.scheduler)
+                    .doOnNext(state::frame)
+                    .map(frame -> ServerSentEvent.builder(frame).build())
+                    .concatWith(Mono.fromCallable(() -> usageEvent(state)));
+        });
+    }
+
+    private ServerSentEvent<String> usageEvent(StreamState state) throws JsonProcessingException {
+        this.coalescedTokens.increment(state.tokens);
+        this.coalescedFrames.increment(state.frames);
+        Usage usage = state.usage;
+        boolean reported = usage != null && usage.getTotalTokens() != null && usage.getTotalTokens() > 0;
+        long now = System.nanoTime();
+        StreamUsage data = new StreamUsage(state.model, state.finishReason,
+                reported ? usage.getPromptTokens() : null, reported ? usage.getCompletionTokens() : null,
+                reported ? usage.getTotalTokens() : null, state.tokens, state.frames, state.bytes,
+                state.firstToken > 0 ? TimeUnit.NANOSECONDS.toMillis(state.firstToken - state.start) : -1,
+                TimeUnit.NANOSECONDS.toMillis(now - state.start));
+        return ServerSentEvent.builder(this.objectMapper.writeValueAsString(data)).event(USAGE_EVENT).build();
+    }
+
+    private static String text(ChatResponse response) {
+        Generation result = response.getResult();
+        if (result == null || result.getOutput() == null) {
+            return null;
+        }
+        String text = result.getOutput().getText();
+        return StringUtils.hasLength(text) ? text : null;
+    }
+
+    /**
+     * Emits the first token at once and every later run of tokens as one string, once it reaches {@code maxBytes}
+     * UTF-8 bytes or has waited {@code maxDelay}, and whatever is left when {@code tokens} completes or fails.
+     */
+    static Flux<String> coalesce(Flux<String> tokens, int maxBytes, Duration maxDelay, Scheduler scheduler) {
+        return Flux.create(sink -> {
+            Coalescer coalescer = new Coalescer(sink, maxBytes, maxDelay.toNanos(), scheduler);
+            Disposable upstream = tokens.subscribe(coalescer::next, coalescer::error, coalescer::complete);
+            sink.onDispose(() -> {
+                upstream.dispose();
+                coalescer.cancelTimer();
+            });
+        });
+    }
+
+    /**
+     * Buffer of one coalesced stream. Tokens and the flush timer arrive on different threads, so all state is
+     * guarded by the instance lock.
+     */
+    private static final class Coalescer {
+
+        private final FluxSink<String> sink;
+
+        private final int maxBytes;
+
+        private final long maxDelayNanos;
+
+        private final Scheduler scheduler;
+
+        private final StringBuilder buffer = new StringBuilder();
+
+        private int bufferedBytes;
+
+        private boolean first = true;
+
+        private boolean done;
+
+        private Disposable timer;
+
+        Coalescer(FluxSink<String> sink, int maxBytes, long maxDelayNanos, Scheduler scheduler) {
+            this.sink = sink;
+            this.maxBytes = maxBytes;
+            this.maxDelayNanos = maxDelayNanos;
+            this.scheduler = scheduler;
+        }
+
+        synchronized void next(String token) {
+            if (this.done) {
+                return;
+            }
+            if (this.first) {
+                this.first = false;
+                this.sink.next(token);
+                return;
+            }
+            this.buffer.append(token);
+            this.bufferedBytes += utf8Length(token);
+            if (this.bufferedBytes >= this.maxBytes || this.maxDelayNanos == 0) {
+                flush();
+            }
+            else if (this.timer == null) {
+                this.timer = this.scheduler.schedule(this::flushOnTimer, this.maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        synchronized void complete() {
+            flush();
+            this.done = true;
+            this.sink.complete();
+        }
+
+        synchronized void error(Throwable error) {
+            flush();
+            this.done = true;
+            this.sink.error(error);
+        }
+
+        synchronized void cancelTimer() {
+            this.done = true;
+            if (this.timer != null) {
+                this.timer.dispose();
+                this.timer = null;
+            }
+        }
+
+        private synchronized void flushOnTimer() {
+            this.timer = null;
+            if (!this.done) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (this.timer != null) {
+                this.timer.dispose();
+                this.timer = null;
+            }
+            if (this.buffer.isEmpty()) {
+                return;
+            }
+            this.sink.next(this.buffer.toString());
+            this.buffer.setLength(0);
+            this.bufferedBytes = 0;
+        }
+    }
+
+    /**
+     * Metadata of the last response and frame statistics of one coalesced stream.
+     */
+    private static final class StreamState {
+
+        private final long start;
+
+        private long firstToken;
+
+        private long tokens;
+
+        private long frames;
+
+        private long bytes;
+
+        private String model;
+
+        private String finishReason;
+
+        private Usage usage;
+
+        StreamState(long start) {
+            this.start = start;
+        }
+
+        void observe(ChatResponse response) {
+            if (response.getMetadata() != null) {
+                if (StringUtils.hasText(response.getMetadata().getModel())) {
+                    this.model = response.getMetadata().getModel();
+                }
+                if (response.getMetadata().getUsage() != null) {
+                    this.usage = response.getMetadata().getUsage();
+                }
+            }
+            Generation result = response.getResult();
+            if (result != null && result.getMetadata() != null
+                    && StringUtils.hasText(result.getMetadata().getFinishReason())) {
+                this.finishReason = result.getMetadata().getFinishReason();
+            }
+            if (text(response) != null) {
+                this.tokens++;
+            }
+        }
+
+        void frame(String frame) {
+            if (this.frames++ == 0) {
+                this.firstToken = System.nanoTime();
+            }
+            this.bytes += utf8Length(frame);
+        }
+    }
+
+    private static int utf8Length(String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            }
+            else if (c < 0x800) {
+                bytes += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            }
+            else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,47 @@
+package app.ampersandor.spring_ai_demo.token;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.List;
+
+/**
+ * Local token count estimate for prompts and embedding requests, used where a request has to be sized before it is
+ * sent.
+ * <p>
+ * Every count in the application goes through here, so the prompt budget and the embedding batches agree on what a
+ * token is. Texts are encoded with {@link JTokkitTokenCountEstimator} ({@code cl100k_base}, the vocabulary of
+ * current OpenAI models); for other providers the count is an approximation meant for budgeting.
+ */
+public final class TokenEstimator {
+
+    /**
+     * Tokens a chat message adds around its text (role and separators).
+     */
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    private static final TokenCountEstimator ESTIMATOR = new JTokkitTokenCountEstimator();
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return ESTIMATOR.estimate(text);
+    }
+
+    public static int estimate(Message message) {
+        return MESSAGE_OVERHEAD + estimate(message.getText());
+    }
+
+    public static int estimate(List<? extends Message> messages) {
+        int tokens = 0;
+        for (Message message : messages) {
+            tokens += estimate(message);
+        }
+        return tokens;
+    }
+}
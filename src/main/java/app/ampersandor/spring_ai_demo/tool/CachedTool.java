@@ -0,0 +1,42 @@
+package app.ampersandor.spring_ai_demo.tool;
+
+import org.springframework.ai.tool.annotation.Tool;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link Tool} method whose results may be shared between conversations for {@link #ttl()}. Tool objects
+ * registered through {@link CachingToolCallback#decorate} run such methods on virtual threads, with a per-tool cache
+ * keyed by the normalized arguments, one execution for concurrent identical calls and a {@link #timeout()}.
+ * Only use it for tools whose result depends on nothing but their arguments.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CachedTool {
+
+    /**
+     * How long a result is reused, e.g. {@code 10m}.
+     */
+    String ttl();
+
+    /**
+     * How long a caller waits for the result before the call fails, e.g. {@code 10s}. A call that timed out keeps
+     * running and its result is still cached.
+     */
+    String timeout() default "10s";
+
+    /**
+     * Results kept for the tool, least recently used are dropped first.
+     */
+    int maxEntries() default 1000;
+
+    /**
+     * Whether arguments differing only in case share a result.
+     */
+    boolean ignoreCase() default true;
+}
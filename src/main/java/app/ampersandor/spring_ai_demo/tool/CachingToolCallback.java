@@ -0,0 +1,195 @@
+package app.ampersandor.spring_ai_demo.tool;
+
+import app.ampersandor.spring_ai_demo.cache.SingleFlightCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.support.ToolCallbacks;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.execution.ToolExecutionException;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.ai.tool.support.ToolUtils;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link ToolCallback} decorator for {@link CachedTool} methods.
+ * <p>
+ * The tool input is normalized (JSON object keys sorted; text Unicode-NFC normalized, trimmed, with runs of
+ * whitespace collapsed and, unless disabled, lower-cased) and used as the key of a {@link SingleFlightCache}
+ * shared by every conversation, so a result is fetched at most once per TTL and concurrent identical calls wait
+ * for the same execution. The delegate runs on {@code executor}, meant to start virtual threads, so a slow tool
+ * only parks a virtual thread; the caller gives up after the tool's timeout with a {@link ToolExecutionException},
+ * which is reported back to the model.
+ * <p>
+ * Lookups are counted in {@code cache.lookups} with {@code cache=tool.<name>}, timeouts in
+ * {@code tool.timeouts} by {@code tool}.
+ */
+public class CachingToolCallback implements ToolCallback {
+
+    private final ToolCallback delegate;
+
+    private final SingleFlightCache<String, String> cache;
+
+    private final Duration timeout;
+
+    private final boolean ignoreCase;
+
+    private final Executor executor;
+
+    private final ObjectMapper objectMapper;
+
+    private final Counter timeouts;
+
+    public CachingToolCallback(ToolCallback delegate, CachedTool settings, Executor executor,
+            ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        String name = delegate.getToolDefinition().name();
+        this.delegate = delegate;
+        this.cache = new SingleFlightCache<>("tool." + name, settings.maxEntries(),
+                DurationStyle.detectAndParse(settings.ttl()), meterRegistry);
+        this.timeout = DurationStyle.detectAndParse(settings.timeout());
+        this.ignoreCase = settings.ignoreCase();
+        this.executor = executor;
+        this.objectMapper = objectMapper;
+        this.timeouts = Counter.builder("tool.timeouts")
+                .description("Tool calls that did not finish within their timeout")
+                .tag("tool", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the tool callbacks of {@code toolObject}, those of {@link CachedTool} methods wrapped in a
+     * {@link CachingToolCallback}.
+     */
+    public static ToolCallback[] decorate(Object toolObject, Executor executor, ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        Map<String, CachedTool> settings = new HashMap<>();
+        for (Method method : ReflectionUtils.getUniqueDeclaredMethods(AopUtils.getTargetClass(toolObject))) {
+            CachedTool cachedTool = AnnotationUtils.findAnnotation(method, CachedTool.class);
+            if (cachedTool != null && AnnotationUtils.findAnnotation(method, Tool.class) != null) {
+                settings.put(ToolUtils.getToolName(method), cachedTool);
+            }
+        }
+        ToolCallback[] callbacks = ToolCallbacks.from(toolObject);
+        for (int i = 0; i < callbacks.length; i++) {
+            CachedTool cachedTool = settings.get(callbacks[i].getToolDefinition().name());
+            if (cachedTool != null) {
+                callbacks[i] = new CachingToolCallback(callbacks[i], cachedTool, executor, objectMapper,
+                        meterRegistry);
+            }
+        }
+        return callbacks;
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return this.delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return this.delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return call(toolInput, null);
+    }
+
+    @Override
+    public String call(String toolInput, ToolContext toolContext) {
+        String key = normalize(toolInput);
+        CompletableFuture<String> result = CompletableFuture.supplyAsync(
+                () -> this.cache.get(key, () -> this.delegate.call(toolInput, toolContext)), this.executor);
+        try {
+            return result.get(this.timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e) {
+            this.timeouts.increment();
+            throw new ToolExecutionException(getToolDefinition(), new TimeoutException(
+                    "Tool " + getToolDefinition().name() + " did not respond within " + this.timeout.toMillis()
+                            + " ms"));
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof ToolExecutionException toolExecutionException) {
+                throw toolExecutionException;
+            }
+            throw new ToolExecutionException(getToolDefinition(), e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ToolExecutionException(getToolDefinition(), e);
+        }
+    }
+
+    /**
+     * Cache key of a tool input: its JSON with sorted keys and normalized text, or the normalized text when the
+     * input is not JSON.
+     */
+    String normalize(String toolInput) {
+        if (toolInput == null) {
+            return "";
+        }
+        try {
+            return this.objectMapper.writeValueAsString(normalize(this.objectMapper.readTree(toolInput)));
+        }
+        catch (JsonProcessingException e) {
+            return normalizeText(toolInput);
+        }
+    }
+
+    private JsonNode normalize(JsonNode node) {
+        if (node.isObject()) {
+            List<String> names = new ArrayList<>();
+            for (Iterator<String> fieldNames = node.fieldNames(); fieldNames.hasNext(); ) {
+                names.add(fieldNames.next());
+            }
+            names.sort(null);
+            ObjectNode normalized = this.objectMapper.createObjectNode();
+            for (String name : names) {
+                normalized.set(name, normalize(node.get(name)));
+            }
+            return normalized;
+        }
+        if (node.isArray()) {
+            ArrayNode normalized = this.objectMapper.createArrayNode();
+            for (JsonNode element : node) {
+                normalized.add(normalize(element));
+            }
+            return normalized;
+        }
+        if (node.isTextual()) {
+            return this.objectMapper.getNodeFactory().textNode(normalizeText(node.textValue()));
+        }
+        return node;
+    }
+
+    private String normalizeText(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFC).strip().replaceAll("\\s+", " ");
+        return this.ignoreCase ? normalized.toLowerCase(Locale.ROOT) : normalized;
+    }
+}
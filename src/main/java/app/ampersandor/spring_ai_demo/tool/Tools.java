@@ -3,40 +3,57 @@ package app.ampersandor.spring_ai_demo.tool;
 import io.swagger.v3.oas.annotations.media.Schema;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.client.RestClient;
 
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.List;
 
+/**
+ * Tools offered to the model in tool mode. Weather is shared by every conversation for the TTL of its
+ * {@link CachedTool} annotation; the calls run on virtual threads (see {@link CachingToolCallback}), so the HTTP
+ * client simply blocks with {@code app.tool.weather.timeout} as its connect and read timeout.
+ */
 @Service
 @ConditionalOnProperty(name = "app.mode", havingValue = "tool")
 public class Tools {
 
-    private final WebClient webClient;
+    private final RestClient restClient;
 
-    public Tools(WebClient.Builder webClientBuilder) {
-        this.webClient = webClientBuilder.build();
+    public Tools(RestClient.Builder restClientBuilder,
+            @Value("${app.tool.weather.base-url:https://wttr.in}") String weatherBaseUrl,
+            @Value("${app.tool.weather.timeout:8s}") Duration timeout) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(
+                HttpClient.newBuilder().connectTimeout(timeout).build());
+        requestFactory.setReadTimeout(timeout);
+        this.restClient = restClientBuilder.baseUrl(weatherBaseUrl).requestFactory(requestFactory).build();
     }
 
+    @CachedTool(ttl = "10m", timeout = "10s")
     @Tool(description = "지역 이름을 받아 현재 날씨를 조회합니다.", returnDirect = true)
     public String getWeather(@ToolParam(description = "지역 이름") String location) {
-        return webClient.get().uri(uriBuilder -> uriBuilder.scheme("https")
-                        .host("wttr.in").path(location.replace(" ", "+"))
+        byte[] body = restClient.get().uri(uriBuilder -> uriBuilder.path(location.replace(" ", "+"))
                         .queryParam("lang", "ko")
                         .queryParam("format", "현재+%l의+날씨는+%C+상태이며,+기온은+%t,+체감+기온은+%f,+풍속은+%W,+습도는+%h,+강수량은+%p입니다")
                         .build())
-                .retrieve().bodyToMono(String.class).log().block();
+                .retrieve().body(byte[].class);
+        // charset 이 빠진 응답을 ISO-8859-1 로 읽지 않도록 직접 UTF-8 로 디코딩한다
+        return body != null ? new String(body, StandardCharsets.UTF_8) : null;
     }
 
+    @CachedTool(ttl = "30m", timeout = "10s")
     @Tool(description = "지역 이름을 받아 현재 3일간의 날씨와 천문 정보(달의 밝기, 달의 위상, 해/달의 뜨고 지는 시각) 를 조회합니다.")
     public WeatherResponse getWeatherDetails(@ToolParam(description = "지역 이름") String location) {
-        return webClient.get().uri(uriBuilder -> uriBuilder.scheme("https")
-                        .host("wttr.in").path(location.replace(" ", "+"))
+        return restClient.get().uri(uriBuilder -> uriBuilder.path(location.replace(" ", "+"))
                         .queryParam("lang", "ko")
                         .queryParam("format", "j1") //json 출력으로 제공
                         .build())
-                .retrieve().bodyToMono(WeatherResponse.class).log().block();
+                .retrieve().body(WeatherResponse.class);
     }
 
     public record WeatherResponse(
@@ -0,0 +1,349 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-negative ints split into chunks of 65536 values, Roaring style: a chunk holding at most
+ * {@value #ARRAY_MAX} values is a sorted {@code char[]} of the low 16 bits, a denser chunk is a 8 KiB bitset.
+ * A metadata value shared by a handful of slots therefore costs a few bytes instead of a bit per slot, while
+ * the values shared by most slots stay as fast word-wise bitsets. Not thread-safe.
+ */
+final class CompressedBitmap {
+
+    private static final int ARRAY_MAX = 4096;
+
+    private static final int WORDS = 1024;
+
+    private char[] keys = new char[0];
+
+    private Container[] containers = new Container[0];
+
+    private int size;
+
+    /**
+     * Values of one chunk: {@code values[0..cardinality)} while sparse, {@code bits} once dense.
+     */
+    private static final class Container {
+
+        private char[] values;
+
+        private long[] bits;
+
+        private int cardinality;
+
+        static Container ofBits(long[] bits) {
+            Container container = new Container();
+            int cardinality = 0;
+            for (long word : bits) {
+                cardinality += Long.bitCount(word);
+            }
+            container.cardinality = cardinality;
+            if (cardinality > ARRAY_MAX) {
+                container.bits = bits;
+                return container;
+            }
+            container.values = new char[cardinality];
+            int index = 0;
+            for (int word = 0; word < WORDS; word++) {
+                for (long remaining = bits[word]; remaining != 0; remaining &= remaining - 1) {
+                    container.values[index++] = (char) (word * 64 + Long.numberOfTrailingZeros(remaining));
+                }
+            }
+            return container;
+        }
+
+        boolean contains(char low) {
+            if (this.bits != null) {
+                return (this.bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(this.values, 0, this.cardinality, low) >= 0;
+        }
+
+        boolean add(char low) {
+            if (this.bits != null) {
+                long before = this.bits[low >>> 6];
+                this.bits[low >>> 6] = before | (1L << low);
+                if (before == this.bits[low >>> 6]) {
+                    return false;
+                }
+                this.cardinality++;
+                return true;
+            }
+            int index = Arrays.binarySearch(this.values, 0, this.cardinality, low);
+            if (index >= 0) {
+                return false;
+            }
+            if (this.cardinality == ARRAY_MAX) {
+                this.bits = toBits();
+                this.values = null;
+                return add(low);
+            }
+            index = -index - 1;
+            if (this.cardinality == this.values.length) {
+                this.values = Arrays.copyOf(this.values, Math.min(ARRAY_MAX, Math.max(4, this.cardinality * 2)));
+            }
+            System.arraycopy(this.values, index, this.values, index + 1, this.cardinality - index);
+            this.values[index] = low;
+            this.cardinality++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (this.bits != null) {
+                long before = this.bits[low >>> 6];
+                this.bits[low >>> 6] = before & ~(1L << low);
+                if (before == this.bits[low >>> 6]) {
+                    return false;
+                }
+                if (--this.cardinality <= ARRAY_MAX) {
+                    Container sparse = ofBits(this.bits);
+                    this.values = sparse.values;
+                    this.bits = null;
+                }
+                return true;
+            }
+            int index = Arrays.binarySearch(this.values, 0, this.cardinality, low);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(this.values, index + 1, this.values, index, this.cardinality - index - 1);
+            this.cardinality--;
+            return true;
+        }
+
+        long[] toBits() {
+            if (this.bits != null) {
+                return this.bits.clone();
+            }
+            long[] words = new long[WORDS];
+            for (int i = 0; i < this.cardinality; i++) {
+                words[this.values[i] >>> 6] |= 1L << this.values[i];
+            }
+            return words;
+        }
+
+        Container copy() {
+            Container copy = new Container();
+            copy.cardinality = this.cardinality;
+            copy.bits = this.bits != null ? this.bits.clone() : null;
+            copy.values = this.values != null ? Arrays.copyOf(this.values, this.cardinality) : null;
+            return copy;
+        }
+    }
+
+    int cardinality() {
+        return this.size;
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    boolean contains(int value) {
+        int index = Arrays.binarySearch(this.keys, (char) (value >>> 16));
+        return index >= 0 && this.containers[index].contains((char) value);
+    }
+
+    void add(int value) {
+        char key = (char) (value >>> 16);
+        int index = Arrays.binarySearch(this.keys, key);
+        if (index < 0) {
+            index = -index - 1;
+            Container container = new Container();
+            container.values = new char[4];
+            insertContainer(index, key, container);
+        }
+        if (this.containers[index].add((char) value)) {
+            this.size++;
+        }
+    }
+
+    void remove(int value) {
+        int index = Arrays.binarySearch(this.keys, (char) (value >>> 16));
+        if (index < 0 || !this.containers[index].remove((char) value)) {
+            return;
+        }
+        this.size--;
+        if (this.containers[index].cardinality == 0) {
+            this.keys = remove(this.keys, index);
+            Container[] containers = new Container[this.containers.length - 1];
+            System.arraycopy(this.containers, 0, containers, 0, index);
+            System.arraycopy(this.containers, index + 1, containers, index, containers.length - index);
+            this.containers = containers;
+        }
+    }
+
+    CompressedBitmap and(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < this.keys.length && j < other.keys.length) {
+            if (this.keys[i] < other.keys[j]) {
+                i++;
+            }
+            else if (this.keys[i] > other.keys[j]) {
+                j++;
+            }
+            else {
+                Container left = this.containers[i];
+                Container right = other.containers[j];
+                Container container;
+                if (left.bits == null || right.bits == null) {
+                    // 희소한 쪽의 값만 상대에서 찾는다
+                    Container sparse = left.bits == null ? left : right;
+                    Container probe = sparse == left ? right : left;
+                    container = new Container();
+                    container.values = new char[sparse.cardinality];
+                    for (int k = 0; k < sparse.cardinality; k++) {
+                        if (probe.contains(sparse.values[k])) {
+                            container.values[container.cardinality++] = sparse.values[k];
+                        }
+                    }
+                }
+                else {
+                    long[] words = new long[WORDS];
+                    for (int w = 0; w < WORDS; w++) {
+                        words[w] = left.bits[w] & right.bits[w];
+                    }
+                    container = Container.ofBits(words);
+                }
+                result.append(this.keys[i], container);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    CompressedBitmap or(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < this.keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < this.keys.length && this.keys[i] < other.keys[j])) {
+                result.append(this.keys[i], this.containers[i++].copy());
+            }
+            else if (i == this.keys.length || this.keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j++].copy());
+            }
+            else {
+                long[] words = this.containers[i].toBits();
+                Container right = other.containers[j];
+                if (right.bits != null) {
+                    for (int w = 0; w < WORDS; w++) {
+                        words[w] |= right.bits[w];
+                    }
+                }
+                else {
+                    for (int k = 0; k < right.cardinality; k++) {
+                        words[right.values[k] >>> 6] |= 1L << right.values[k];
+                    }
+                }
+                result.append(this.keys[i], Container.ofBits(words));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    CompressedBitmap andNot(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int j = 0;
+        for (int i = 0; i < this.keys.length; i++) {
+            while (j < other.keys.length && other.keys[j] < this.keys[i]) {
+                j++;
+            }
+            if (j == other.keys.length || other.keys[j] != this.keys[i]) {
+                result.append(this.keys[i], this.containers[i].copy());
+                continue;
+            }
+            Container left = this.containers[i];
+            Container right = other.containers[j];
+            Container container;
+            if (left.bits == null) {
+                container = new Container();
+                container.values = new char[left.cardinality];
+                for (int k = 0; k < left.cardinality; k++) {
+                    if (!right.contains(left.values[k])) {
+                        container.values[container.cardinality++] = left.values[k];
+                    }
+                }
+            }
+            else {
+                long[] words = left.bits.clone();
+                long[] removed = right.toBits();
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] &= ~removed[w];
+                }
+                container = Container.ofBits(words);
+            }
+            result.append(this.keys[i], container);
+        }
+        return result;
+    }
+
+    /**
+     * The values in ascending order.
+     */
+    int[] toArray() {
+        int[] values = new int[this.size];
+        int index = 0;
+        for (int i = 0; i < this.keys.length; i++) {
+            int high = this.keys[i] << 16;
+            Container container = this.containers[i];
+            if (container.bits == null) {
+                for (int k = 0; k < container.cardinality; k++) {
+                    values[index++] = high | container.values[k];
+                }
+            }
+            else {
+                for (int word = 0; word < WORDS; word++) {
+                    for (long remaining = container.bits[word]; remaining != 0; remaining &= remaining - 1) {
+                        values[index++] = high | (word * 64 + Long.numberOfTrailingZeros(remaining));
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    CompressedBitmap copy() {
+        CompressedBitmap copy = new CompressedBitmap();
+        for (int i = 0; i < this.keys.length; i++) {
+            copy.append(this.keys[i], this.containers[i].copy());
+        }
+        return copy;
+    }
+
+    /**
+     * Adds a container whose key is greater than every existing key; empty containers are skipped.
+     */
+    private void append(char key, Container container) {
+        if (container.cardinality == 0) {
+            return;
+        }
+        insertContainer(this.keys.length, key, container);
+        this.size += container.cardinality;
+    }
+
+    private void insertContainer(int index, char key, Container container) {
+        char[] keys = new char[this.keys.length + 1];
+        System.arraycopy(this.keys, 0, keys, 0, index);
+        keys[index] = key;
+        System.arraycopy(this.keys, index, keys, index + 1, this.keys.length - index);
+        Container[] containers = new Container[this.containers.length + 1];
+        System.arraycopy(this.containers, 0, containers, 0, index);
+        containers[index] = container;
+        System.arraycopy(this.containers, index, containers, index + 1, this.containers.length - index);
+        this.keys = keys;
+        this.containers = containers;
+    }
+
+    private static char[] remove(char[] array, int index) {
+        char[] result = new char[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, result.length - index);
+        return result;
+    }
+}
@@ -0,0 +1,958 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.observation.conventions.VectorStoreProvider;
+import org.springframework.ai.observation.conventions.VectorStoreSimilarityMetric;
+import org.springframework.ai.vectorstore.AbstractVectorStoreBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.observation.AbstractObservationVectorStore;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * In-memory {@link org.springframework.ai.vectorstore.VectorStore} that keeps every embedding in one
+ * contiguous {@code float[]} (row-major, {@code dimensions} floats per slot) instead of one object per document.
+ * Vectors are normalized at insert time so cosine similarity becomes a plain dot product, which
+ * {@link VectorMath} evaluates with SIMD lanes; the top-K candidates are collected in a bounded primitive heap.
+ * Deleting a document moves the last slot into the freed one so the storage stays dense.
+ * <p>
+ * With a {@link Quantization} other than {@code NONE} the store switches to compact codes once
+ * {@code trainingSize} vectors have been added: the quantizer is trained on a sample, every vector is encoded and
+ * the float matrix is dropped. Queries are scored against the codes directly; with a re-rank factor the best
+ * {@code topK * rerankFactor} candidates are re-scored exactly from a {@link RawVectorFile}. Training runs on a
+ * copy of the sample without any lock and encoding only holds the read lock, so searches are never stalled by it;
+ * the codes are swapped in under a short write lock.
+ * <p>
+ * Adds, deletes, the encoding pass of quantization and {@link #persist()} are serialized by a writer lock;
+ * searches only need the read lock.
+ * <p>
+ * When a {@code path} is configured, {@link #persist()} writes a binary snapshot there and the next start
+ * memory-maps it back: a header with the embedding model id and dimension, the embeddings as one columnar
+ * region (floats, or quantizer parameters plus codes), then separate text and metadata regions. Metadata uses
+ * {@link MetadataCodec}, so a warm start bulk-copies arrays and decodes values without any JSON parsing.
+ * <p>
+ * Filter expressions are answered from a {@link MetadataBitmapIndex} when possible, so a filtered search only
+ * scores the matching slots; expressions the index cannot answer fall back to a SpEL predicate per slot.
+ */
+public class DenseVectorStore extends AbstractObservationVectorStore implements PersistentVectorStore,
+        AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DenseVectorStore.class);
+
+    private static final int MAX_TRAINING_SAMPLE = 10_000;
+
+    private static final int RECALL_QUERIES = 100;
+
+    private static final int RECALL_K = 10;
+
+    private static final int PQ_ITERATIONS = 12;
+
+    private static final int MAGIC = 0x44454E53; // "DENS"
+
+    private static final int VERSION = 1;
+
+    private final ReentrantLock writerLock = new ReentrantLock();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final SpelExpressionParser expressionParser = new SpelExpressionParser();
+
+    private final SimpleVectorStoreFilterExpressionConverter filterExpressionConverter =
+            new SimpleVectorStoreFilterExpressionConverter();
+
+    private final Map<String, Integer> slotById = new HashMap<>();
+
+    private final Quantization quantization;
+
+    private final int pqSubspaces;
+
+    private final int trainingSize;
+
+    private final int rerankFactor;
+
+    private final Path path;
+
+    private final String modelId;
+
+    private final MetadataBitmapIndex metadataIndex;
+
+    private int dimensions;
+
+    /**
+     * Full-precision vectors; {@code null} once the store has been quantized.
+     */
+    private float[] vectors;
+
+    private VectorQuantizer quantizer;
+
+    private byte[] codes;
+
+    private RawVectorFile rawVectors;
+
+    private double estimatedRecall = 1.0;
+
+    /**
+     * Set while a thread trains the quantizer, so only one does.
+     */
+    private boolean training;
+
+    private String[] ids;
+
+    private String[] texts;
+
+    private Map<String, Object>[] metadata;
+
+    private int size;
+
+    protected DenseVectorStore(Builder builder) {
+        super(builder);
+        this.dimensions = builder.dimensions;
+        this.quantization = builder.quantization;
+        this.pqSubspaces = builder.pqSubspaces;
+        this.trainingSize = builder.trainingSize;
+        this.rerankFactor = builder.rerankFactor;
+        this.path = builder.path;
+        this.modelId = builder.modelId;
+        this.metadataIndex = new MetadataBitmapIndex(builder.indexedMetadataKeys);
+        allocate(builder.initialCapacity);
+        if (this.path != null && Files.exists(this.path)) {
+            load();
+        }
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.size;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsAll(Collection<String> documentIds) {
+        this.lock.readLock().lock();
+        try {
+            return this.slotById.keySet().containsAll(documentIds);
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public int getDimensions() {
+        return this.dimensions;
+    }
+
+    /**
+     * recall@10 of the quantized search measured against exact search when the quantizer was trained,
+     * or 1.0 while the store still holds full-precision vectors.
+     */
+    public double getEstimatedRecall() {
+        return this.estimatedRecall;
+    }
+
+    @Override
+    public void doAdd(List<Document> documents) {
+        Objects.requireNonNull(documents, "Documents list cannot be null");
+        if (documents.isEmpty()) {
+            throw new IllegalArgumentException("Documents list cannot be empty");
+        }
+        // 임베딩은 락 밖에서 한 번에 요청해 검색이 ETL 에 막히지 않도록 한다
+        List<float[]> embeddings = this.embeddingModel.embed(documents.stream()
+                .map(document -> document.getFormattedContent(MetadataMode.EMBED))
+                .toList());
+
+        boolean train;
+        this.writerLock.lock();
+        this.lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                put(document.getId(), document.getText(), document.getMetadata(), embeddings.get(i));
+            }
+            train = startTrainingIfDue();
+        }
+        finally {
+            this.lock.writeLock().unlock();
+            this.writerLock.unlock();
+        }
+        if (train) {
+            quantize();
+        }
+        logger.debug("Stored {} documents, {} in total", documents.size(), size());
+    }
+
+    @Override
+    public void doDelete(List<String> idList) {
+        this.writerLock.lock();
+        this.lock.writeLock().lock();
+        try {
+            idList.forEach(this::remove);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+            this.writerLock.unlock();
+        }
+    }
+
+    @Override
+    protected void doDelete(Filter.Expression filterExpression) {
+        this.writerLock.lock();
+        this.lock.writeLock().lock();
+        try {
+            List<String> matched = new ArrayList<>();
+            CompressedBitmap matching = this.metadataIndex.evaluate(filterExpression);
+            if (matching != null) {
+                for (int slot : matching.toArray()) {
+                    matched.add(this.ids[slot]);
+                }
+            }
+            else {
+                IntPredicate filter = compileFilter(filterExpression);
+                for (int slot = 0; slot < this.size; slot++) {
+                    if (filter.test(slot)) {
+                        matched.add(this.ids[slot]);
+                    }
+                }
+            }
+            matched.forEach(this::remove);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+            this.writerLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Document> doSimilaritySearch(SearchRequest request) {
+        float[] query = VectorMath.normalize(this.embeddingModel.embed(request.getQuery()));
+        float threshold = (float) request.getSimilarityThreshold();
+
+        this.lock.readLock().lock();
+        try {
+            if (this.size == 0) {
+                return List.of();
+            }
+            checkDimensions(query);
+            // 비트맵으로 답할 수 있는 필터면 일치하는 슬롯만 점수를 매긴다
+            int[] candidates = null;
+            IntPredicate filter = null;
+            if (request.hasFilterExpression()) {
+                CompressedBitmap matching = this.metadataIndex.evaluate(request.getFilterExpression());
+                if (matching != null) {
+                    candidates = matching.toArray();
+                }
+                else {
+                    filter = compileFilter(request.getFilterExpression());
+                }
+            }
+            TopK topK = this.quantizer == null ? exactSearch(query, request.getTopK(), threshold, candidates, filter)
+                    : quantizedSearch(query, request.getTopK(), threshold, candidates, filter);
+            int[] slots = new int[topK.size()];
+            float[] scores = new float[topK.size()];
+            int count = topK.drainDescending(slots, scores);
+            List<Document> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                results.add(toDocument(slots[i], scores[i]));
+            }
+            return results;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public VectorStoreObservationContext.Builder createObservationContextBuilder(String operationName) {
+        return VectorStoreObservationContext.builder(VectorStoreProvider.SIMPLE.value(), operationName)
+                .dimensions(this.dimensions)
+                .collectionName("in-memory-dense")
+                .similarityMetric(VectorStoreSimilarityMetric.COSINE.value());
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and atomically moves it over {@code path}. Holds the writer lock for
+     * the duration so the file reflects a single point in time, and the read lock, so searches keep running while
+     * the file is written: adds and deletes wait on the writer lock instead of queueing on the write lock, where
+     * they would block every new search.
+     */
+    @Override
+    public void persist() {
+        if (this.path == null) {
+            return;
+        }
+        long started = System.nanoTime();
+        this.writerLock.lock();
+        this.lock.readLock().lock();
+        try {
+            if (this.dimensions == 0) {
+                return;
+            }
+            Path directory = this.path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, this.path.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING); SnapshotOutput out = new SnapshotOutput(channel)) {
+                    writeSnapshot(out);
+                    out.flush();
+                    channel.force(true);
+                }
+                Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(temp);
+            }
+            logger.info("Persisted {} documents to {} in {} ms", this.size, this.path,
+                    (System.nanoTime() - started) / 1_000_000);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist dense vector store to " + this.path, e);
+        }
+        finally {
+            this.lock.readLock().unlock();
+            this.writerLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            persist();
+        }
+        finally {
+            if (this.rawVectors != null) {
+                this.rawVectors.close();
+            }
+        }
+    }
+
+    /**
+     * Encoding the embeddings are currently held in, which after a load may differ from the configured one.
+     */
+    private Quantization storedQuantization() {
+        if (this.quantizer == null) {
+            return Quantization.NONE;
+        }
+        return this.quantizer instanceof ScalarQuantizer ? Quantization.INT8 : Quantization.PQ;
+    }
+
+    private void writeSnapshot(SnapshotOutput out) throws IOException {
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putString(this.modelId);
+        out.putInt(this.dimensions);
+        out.putInt(this.size);
+        out.putInt(storedQuantization().ordinal());
+        out.putDouble(this.estimatedRecall);
+
+        // 임베딩 영역: 슬롯 순서대로 연속 저장해 로드 시 배열로 그대로 복사한다
+        if (this.quantizer == null) {
+            out.putFloats(this.vectors, 0, this.size * this.dimensions);
+        }
+        else {
+            this.quantizer.writeTo(out);
+            out.putBytes(this.codes, 0, this.size * this.quantizer.codeSize());
+            out.putInt(this.rawVectors != null ? 1 : 0);
+            if (this.rawVectors != null) {
+                float[] vector = new float[this.dimensions];
+                for (int slot = 0; slot < this.size; slot++) {
+                    this.rawVectors.read(slot, vector);
+                    out.putFloats(vector, 0, this.dimensions);
+                }
+            }
+        }
+
+        for (int slot = 0; slot < this.size; slot++) {
+            out.putString(this.ids[slot]);
+            out.putString(this.texts[slot]);
+        }
+        for (int slot = 0; slot < this.size; slot++) {
+            MetadataCodec.write(out, this.metadata[slot]);
+        }
+    }
+
+    /**
+     * Loads the snapshot at {@code path}. The stored encoding wins over the configured one, except that a
+     * full-precision snapshot large enough for training is quantized right away when quantization is enabled.
+     */
+    private void load() {
+        long started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            SnapshotInput in = new SnapshotInput(channel);
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a dense vector store snapshot");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported dense vector store snapshot version " + version);
+            }
+            String storedModelId = in.getString();
+            int storedDimensions = in.getInt();
+            if (StringUtils.hasText(this.modelId) && StringUtils.hasText(storedModelId)
+                    && !this.modelId.equals(storedModelId)) {
+                throw new IllegalStateException(("Snapshot %s was built with embedding model '%s' but '%s' is "
+                        + "configured; delete the file to rebuild the index").formatted(this.path, storedModelId,
+                        this.modelId));
+            }
+            if (this.dimensions != 0 && this.dimensions != storedDimensions) {
+                throw new IllegalStateException(("Snapshot %s has dimension %d but %d is configured; delete the "
+                        + "file to rebuild the index").formatted(this.path, storedDimensions, this.dimensions));
+            }
+            int count = in.getInt();
+            Quantization stored = Quantization.values()[in.getInt()];
+            this.estimatedRecall = in.getDouble();
+            this.dimensions = storedDimensions;
+            allocate(Math.max(this.ids.length, count));
+
+            if (stored == Quantization.NONE) {
+                in.getFloats(this.vectors, 0, count * this.dimensions);
+            }
+            else {
+                this.quantizer = stored == Quantization.INT8 ? ScalarQuantizer.readFrom(in)
+                        : ProductQuantizer.readFrom(in);
+                this.vectors = null;
+                this.codes = new byte[Math.multiplyExact(this.ids.length, this.quantizer.codeSize())];
+                in.getBytes(this.codes, 0, count * this.quantizer.codeSize());
+                if (in.getInt() != 0) {
+                    float[] vector = new float[this.dimensions];
+                    if (this.rerankFactor > 0) {
+                        this.rawVectors = new RawVectorFile(this.dimensions);
+                    }
+                    for (int slot = 0; slot < count; slot++) {
+                        in.getFloats(vector, 0, this.dimensions);
+                        if (this.rawVectors != null) {
+                            this.rawVectors.write(slot, vector, 0);
+                        }
+                    }
+                }
+            }
+
+            for (int slot = 0; slot < count; slot++) {
+                this.ids[slot] = in.getString();
+                this.texts[slot] = in.getString();
+                this.slotById.put(this.ids[slot], slot);
+            }
+            for (int slot = 0; slot < count; slot++) {
+                this.metadata[slot] = MetadataCodec.read(in);
+                this.metadataIndex.add(slot, this.metadata[slot]);
+            }
+            this.size = count;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to load dense vector store from " + this.path, e);
+        }
+        if (startTrainingIfDue()) {
+            quantize();
+        }
+        logger.info("Loaded {} documents ({}) from {} in {} ms", this.size, storedQuantization(), this.path,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * @param candidates slots to score, or {@code null} for every slot
+     * @param filter per-slot predicate, or {@code null} to accept every candidate
+     */
+    private TopK exactSearch(float[] query, int k, float threshold, int[] candidates, IntPredicate filter) {
+        TopK topK = new TopK(k);
+        int dim = this.dimensions;
+        int count = candidates != null ? candidates.length : this.size;
+        for (int i = 0; i < count; i++) {
+            int slot = candidates != null ? candidates[i] : i;
+            if (filter != null && !filter.test(slot)) {
+                continue;
+            }
+            float score = VectorMath.dot(query, 0, this.vectors, slot * dim, dim);
+            if (score >= threshold && score > topK.threshold()) {
+                topK.offer(slot, score);
+            }
+        }
+        return topK;
+    }
+
+    /**
+     * Scores codes with the asymmetric scorer; when raw vectors are kept, over-fetches candidates and re-scores
+     * them exactly. Without re-ranking the returned scores are the approximations.
+     */
+    private TopK quantizedSearch(float[] query, int k, float threshold, int[] candidates, IntPredicate filter) {
+        VectorQuantizer.Scorer scorer = this.quantizer.scorer(query);
+        boolean rerank = this.rawVectors != null;
+        TopK best = new TopK(rerank ? k * this.rerankFactor : k);
+        int codeSize = this.quantizer.codeSize();
+        int scanned = candidates != null ? candidates.length : this.size;
+        for (int i = 0; i < scanned; i++) {
+            int slot = candidates != null ? candidates[i] : i;
+            if (filter != null && !filter.test(slot)) {
+                continue;
+            }
+            float score = scorer.score(this.codes, slot * codeSize);
+            if ((rerank || score >= threshold) && score > best.threshold()) {
+                best.offer(slot, score);
+            }
+        }
+        if (!rerank) {
+            return best;
+        }
+        int[] slots = new int[best.size()];
+        int count = best.drainDescending(slots, new float[slots.length]);
+        TopK topK = new TopK(k);
+        float[] vector = new float[this.dimensions];
+        for (int i = 0; i < count; i++) {
+            this.rawVectors.read(slots[i], vector);
+            float score = VectorMath.dot(query, vector);
+            if (score >= threshold) {
+                topK.offer(slots[i], score);
+            }
+        }
+        return topK;
+    }
+
+    /**
+     * Claims the quantizer training once enough vectors are stored. Caller must hold the write lock.
+     */
+    private boolean startTrainingIfDue() {
+        if (this.quantization == Quantization.NONE || this.quantizer != null || this.training
+                || this.size < this.trainingSize) {
+            return false;
+        }
+        this.training = true;
+        return true;
+    }
+
+    /**
+     * Trains the quantizer on a strided sample, encodes every stored vector and releases the float matrix.
+     * The sample is copied under the read lock and the quantizer trained (k-means for PQ) without any lock;
+     * encoding holds the writer and read locks, so adds and deletes wait but searches keep running on the
+     * floats, and only the swap takes the write lock. Caller must have claimed it with
+     * {@link #startTrainingIfDue()} and must not hold any lock.
+     */
+    private void quantize() {
+        long started = System.nanoTime();
+        RawVectorFile raw = null;
+        try {
+            float[] sample;
+            int sampleCount;
+            this.lock.readLock().lock();
+            try {
+                int stride = Math.max(1, this.size / MAX_TRAINING_SAMPLE);
+                sampleCount = Math.min(this.size, MAX_TRAINING_SAMPLE);
+                sample = new float[sampleCount * this.dimensions];
+                for (int i = 0; i < sampleCount; i++) {
+                    System.arraycopy(this.vectors, i * stride * this.dimensions, sample, i * this.dimensions,
+                            this.dimensions);
+                }
+            }
+            finally {
+                this.lock.readLock().unlock();
+            }
+            VectorQuantizer trained = switch (this.quantization) {
+                case INT8 -> ScalarQuantizer.train(sample, sampleCount, this.dimensions);
+                case PQ -> ProductQuantizer.train(sample, sampleCount, this.dimensions,
+                        this.pqSubspaces > 0 ? this.pqSubspaces : this.dimensions / 4, PQ_ITERATIONS, 42L);
+                case NONE -> throw new IllegalStateException("Quantization is disabled");
+            };
+            double recall = measureRecall(trained, sample, sampleCount);
+            int codeSize = trained.codeSize();
+
+            this.writerLock.lock();
+            try {
+                byte[] encoded;
+                int count;
+                this.lock.readLock().lock();
+                try {
+                    count = this.size;
+                    encoded = new byte[Math.multiplyExact(this.ids.length, codeSize)];
+                    float[] vector = new float[this.dimensions];
+                    for (int slot = 0; slot < count; slot++) {
+                        System.arraycopy(this.vectors, slot * this.dimensions, vector, 0, this.dimensions);
+                        trained.encode(vector, encoded, slot * codeSize);
+                    }
+                    if (this.rerankFactor > 0) {
+                        raw = new RawVectorFile(this.dimensions);
+                        for (int slot = 0; slot < count; slot++) {
+                            raw.write(slot, this.vectors, slot * this.dimensions);
+                        }
+                    }
+                }
+                finally {
+                    this.lock.readLock().unlock();
+                }
+                this.lock.writeLock().lock();
+                try {
+                    this.quantizer = trained;
+                    this.codes = encoded;
+                    this.rawVectors = raw;
+                    this.vectors = null;
+                    this.estimatedRecall = recall;
+                    this.training = false;
+                }
+                finally {
+                    this.lock.writeLock().unlock();
+                }
+                raw = null;
+                logger.info("Quantized {} vectors with {} in {} ms: {} -> {} bytes/vector ({}x), recall@{} {} ({})",
+                        count, this.quantization, (System.nanoTime() - started) / 1_000_000,
+                        this.dimensions * Float.BYTES, codeSize,
+                        "%.1f".formatted((double) this.dimensions * Float.BYTES / codeSize), RECALL_K,
+                        "%.3f".formatted(recall), this.rerankFactor > 0 ? "before exact re-rank" : "no re-rank");
+            }
+            finally {
+                this.writerLock.unlock();
+            }
+        }
+        finally {
+            if (raw != null) {
+                raw.close();
+            }
+            if (this.quantizer == null) {
+                // 학습이 실패하면 다음 add 에서 다시 시도할 수 있게 한다
+                this.lock.writeLock().lock();
+                try {
+                    this.training = false;
+                }
+                finally {
+                    this.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * recall@10 of the quantized scores against exact scores, measured within the training sample so the check
+     * stays cheap on large stores.
+     */
+    private double measureRecall(VectorQuantizer trained, float[] sample, int sampleCount) {
+        int queries = Math.min(RECALL_QUERIES, sampleCount);
+        int k = Math.min(RECALL_K, sampleCount);
+        int codeSize = trained.codeSize();
+        byte[] encoded = new byte[Math.multiplyExact(sampleCount, codeSize)];
+        for (int row = 0; row < sampleCount; row++) {
+            trained.encode(Arrays.copyOfRange(sample, row * this.dimensions, (row + 1) * this.dimensions), encoded,
+                    row * codeSize);
+        }
+        int hits = 0;
+        int[] exactRows = new int[k];
+        int[] approxRows = new int[k];
+        for (int q = 0; q < queries; q++) {
+            float[] query = Arrays.copyOfRange(sample, q * this.dimensions, (q + 1) * this.dimensions);
+            TopK exact = new TopK(k);
+            TopK approx = new TopK(k);
+            VectorQuantizer.Scorer scorer = trained.scorer(query);
+            for (int row = 0; row < sampleCount; row++) {
+                exact.offer(row, VectorMath.dot(query, 0, sample, row * this.dimensions, this.dimensions));
+                approx.offer(row, scorer.score(encoded, row * codeSize));
+            }
+            exact.drainDescending(exactRows, new float[k]);
+            approx.drainDescending(approxRows, new float[k]);
+            Set<Integer> expected = new HashSet<>();
+            for (int row : exactRows) {
+                expected.add(row);
+            }
+            for (int row : approxRows) {
+                if (expected.contains(row)) {
+                    hits++;
+                }
+            }
+        }
+        return queries == 0 ? 1.0 : (double) hits / (queries * k);
+    }
+
+    /**
+     * Inserts or replaces a document. Caller must hold the write lock.
+     */
+    private void put(String id, String text, Map<String, Object> documentMetadata, float[] embedding) {
+        if (this.dimensions == 0) {
+            this.dimensions = embedding.length;
+            this.vectors = new float[Math.multiplyExact(this.ids.length, this.dimensions)];
+        }
+        checkDimensions(embedding);
+        Integer existing = this.slotById.get(id);
+        int slot;
+        if (existing != null) {
+            slot = existing;
+            this.metadataIndex.remove(slot, this.metadata[slot]);
+        }
+        else {
+            slot = this.size++;
+            ensureCapacity(this.size);
+            this.slotById.put(id, slot);
+        }
+        float[] normalized = VectorMath.normalize(embedding.clone());
+        if (this.quantizer == null) {
+            System.arraycopy(normalized, 0, this.vectors, slot * this.dimensions, this.dimensions);
+        }
+        else {
+            this.quantizer.encode(normalized, this.codes, slot * this.quantizer.codeSize());
+            if (this.rawVectors != null) {
+                this.rawVectors.write(slot, normalized, 0);
+            }
+        }
+        this.ids[slot] = id;
+        this.texts[slot] = text;
+        this.metadata[slot] = new HashMap<>(documentMetadata);
+        this.metadataIndex.add(slot, this.metadata[slot]);
+    }
+
+    /**
+     * Removes a document by moving the last slot into its place. Caller must hold the write lock.
+     */
+    private void remove(String id) {
+        Integer removed = this.slotById.remove(id);
+        if (removed == null) {
+            return;
+        }
+        int slot = removed;
+        int last = --this.size;
+        this.metadataIndex.remove(slot, this.metadata[slot]);
+        if (slot != last) {
+            this.metadataIndex.remove(last, this.metadata[last]);
+            this.metadataIndex.add(slot, this.metadata[last]);
+            if (this.quantizer == null) {
+                System.arraycopy(this.vectors, last * this.dimensions, this.vectors, slot * this.dimensions,
+                        this.dimensions);
+            }
+            else {
+                int codeSize = this.quantizer.codeSize();
+                System.arraycopy(this.codes, last * codeSize, this.codes, slot * codeSize, codeSize);
+                if (this.rawVectors != null) {
+                    this.rawVectors.move(last, slot);
+                }
+            }
+            this.ids[slot] = this.ids[last];
+            this.texts[slot] = this.texts[last];
+            this.metadata[slot] = this.metadata[last];
+            this.slotById.put(this.ids[slot], slot);
+        }
+        this.ids[last] = null;
+        this.texts[last] = null;
+        this.metadata[last] = null;
+    }
+
+    private Document toDocument(int slot, float score) {
+        Map<String, Object> documentMetadata = new HashMap<>(this.metadata[slot]);
+        documentMetadata.put(DocumentMetadata.DISTANCE.value(), 1.0f - score);
+        return Document.builder()
+                .id(this.ids[slot])
+                .text(this.texts[slot])
+                .metadata(documentMetadata)
+                .score((double) score)
+                .build();
+    }
+
+    /**
+     * Translates the portable filter into a SpEL predicate over the metadata of a slot,
+     * the same evaluation {@link org.springframework.ai.vectorstore.SimpleVectorStore} performs.
+     */
+    private IntPredicate compileFilter(Filter.Expression filterExpression) {
+        Expression expression = this.expressionParser
+                .parseExpression(this.filterExpressionConverter.convertExpression(filterExpression));
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        return slot -> {
+            context.setVariable("metadata", this.metadata[slot]);
+            return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+        };
+    }
+
+    private void checkDimensions(float[] vector) {
+        if (vector.length != this.dimensions) {
+            throw new IllegalArgumentException(
+                    "Embedding dimension %d does not match store dimension %d".formatted(vector.length,
+                            this.dimensions));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        this.ids = new String[capacity];
+        this.texts = new String[capacity];
+        this.metadata = new Map[capacity];
+        this.vectors = new float[Math.multiplyExact(capacity, this.dimensions)];
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= this.ids.length) {
+            return;
+        }
+        int capacity = Math.max(required, this.ids.length + (this.ids.length >> 1) + 1);
+        this.ids = Arrays.copyOf(this.ids, capacity);
+        this.texts = Arrays.copyOf(this.texts, capacity);
+        this.metadata = Arrays.copyOf(this.metadata, capacity);
+        if (this.quantizer == null) {
+            this.vectors = Arrays.copyOf(this.vectors, Math.multiplyExact(capacity, this.dimensions));
+        }
+        else {
+            this.codes = Arrays.copyOf(this.codes, Math.multiplyExact(capacity, this.quantizer.codeSize()));
+        }
+    }
+
+    /**
+     * Storage format of the embeddings.
+     */
+    public enum Quantization {
+
+        /**
+         * 32-bit floats, exact scores.
+         */
+        NONE,
+
+        /**
+         * One byte per dimension with per-dimension ranges (4x smaller).
+         */
+        INT8,
+
+        /**
+         * Product quantization with 256-entry codebooks per subspace (16x smaller with the default subspaces).
+         */
+        PQ
+    }
+
+    public static final class Builder extends AbstractVectorStoreBuilder<Builder> {
+
+        private int dimensions;
+
+        private int initialCapacity = 1024;
+
+        private Quantization quantization = Quantization.NONE;
+
+        private int pqSubspaces;
+
+        private int trainingSize = 10_000;
+
+        private int rerankFactor;
+
+        private Path path;
+
+        private String modelId;
+
+        private Set<String> indexedMetadataKeys = Set.of();
+
+        private Builder(EmbeddingModel embeddingModel) {
+            super(embeddingModel);
+        }
+
+        /**
+         * Embedding dimension; when left at 0 it is taken from the first stored embedding.
+         */
+        public Builder dimensions(int dimensions) {
+            if (dimensions < 0) {
+                throw new IllegalArgumentException("dimensions must not be negative.");
+            }
+            this.dimensions = dimensions;
+            return this;
+        }
+
+        public Builder initialCapacity(int initialCapacity) {
+            if (initialCapacity <= 0) {
+                throw new IllegalArgumentException("initialCapacity must be positive.");
+            }
+            this.initialCapacity = initialCapacity;
+            return this;
+        }
+
+        public Builder quantization(Quantization quantization) {
+            this.quantization = Objects.requireNonNull(quantization, "quantization must not be null");
+            return this;
+        }
+
+        /**
+         * Number of PQ subspaces (bytes per vector); must divide the dimension. 0 uses {@code dimensions / 4}.
+         */
+        public Builder pqSubspaces(int pqSubspaces) {
+            if (pqSubspaces < 0) {
+                throw new IllegalArgumentException("pqSubspaces must not be negative.");
+            }
+            this.pqSubspaces = pqSubspaces;
+            return this;
+        }
+
+        /**
+         * Number of stored vectors after which the quantizer is trained and the store switches to codes.
+         */
+        public Builder trainingSize(int trainingSize) {
+            if (trainingSize <= 0) {
+                throw new IllegalArgumentException("trainingSize must be positive.");
+            }
+            this.trainingSize = trainingSize;
+            return this;
+        }
+
+        /**
+         * Candidates re-scored with exact floats per requested result; 0 disables re-ranking and keeps no
+         * full-precision copy.
+         */
+        public Builder rerankFactor(int rerankFactor) {
+            if (rerankFactor < 0) {
+                throw new IllegalArgumentException("rerankFactor must not be negative.");
+            }
+            this.rerankFactor = rerankFactor;
+            return this;
+        }
+
+        /**
+         * File the store is loaded from at start-up and written to by {@link #persist()}; {@code null} keeps
+         * the store purely in memory.
+         */
+        public Builder path(Path path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * Embedding model id recorded in the snapshot header; a snapshot made with another model is rejected.
+         */
+        public Builder modelId(String modelId) {
+            this.modelId = modelId;
+            return this;
+        }
+
+        /**
+         * Metadata keys kept in the bitmap index used for filter expressions; empty (the default) indexes every
+         * key.
+         */
+        public Builder indexedMetadataKeys(Set<String> indexedMetadataKeys) {
+            this.indexedMetadataKeys = Set.copyOf(indexedMetadataKeys);
+            return this;
+        }
+
+        @Override
+        public DenseVectorStore build() {
+            return new DenseVectorStore(this);
+        }
+    }
+}
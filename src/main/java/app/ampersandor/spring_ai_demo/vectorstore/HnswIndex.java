@@ -0,0 +1,402 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * Hierarchical Navigable Small World graph over unit-length vectors (Malkov &amp; Yashunin).
+ * Similarity is the dot product, so higher is closer.
+ * <p>
+ * Node ids are dense integers handed out by the owning store. {@link #insert} and {@link #search} may run
+ * concurrently: every adjacency list is read and written while holding the monitor of its node's link array,
+ * which also publishes the node's vector to readers. {@link #ensureCapacity} must not overlap with either.
+ */
+final class HnswIndex {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+
+    // 2: document metadata in the MetadataCodec encoding instead of JSON
+    private static final int VERSION = 2;
+
+    private static final ThreadLocal<Visited> VISITED = ThreadLocal.withInitial(Visited::new);
+
+    private final int dimensions;
+
+    private final int m;
+
+    private final int maxM0;
+
+    private final int efConstruction;
+
+    private final double levelMultiplier;
+
+    private final Object entryLock = new Object();
+
+    private float[] vectors;
+
+    private int[] levels;
+
+    /**
+     * {@code links[node][level]} holds the neighbour count at index 0 followed by the neighbour ids.
+     */
+    private int[][][] links;
+
+    private volatile int entryPoint = -1;
+
+    private volatile int maxLevel = -1;
+
+    HnswIndex(int dimensions, int m, int efConstruction, int initialCapacity) {
+        if (m < 2) {
+            throw new IllegalArgumentException("M must be at least 2.");
+        }
+        if (efConstruction < m) {
+            throw new IllegalArgumentException("efConstruction must be >= M.");
+        }
+        this.dimensions = dimensions;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.vectors = new float[Math.multiplyExact(initialCapacity, dimensions)];
+        this.levels = new int[initialCapacity];
+        this.links = new int[initialCapacity][][];
+    }
+
+    int dimensions() {
+        return this.dimensions;
+    }
+
+    int capacity() {
+        return this.levels.length;
+    }
+
+    int m() {
+        return this.m;
+    }
+
+    int efConstruction() {
+        return this.efConstruction;
+    }
+
+    /**
+     * Copies the (normalized) vector of {@code node} into {@code target}.
+     */
+    void copyVector(int node, float[] target) {
+        System.arraycopy(this.vectors, node * this.dimensions, target, 0, this.dimensions);
+    }
+
+    /**
+     * Grows the node arrays. The caller must exclude concurrent inserts and searches.
+     */
+    void ensureCapacity(int required) {
+        if (required <= this.levels.length) {
+            return;
+        }
+        int capacity = Math.max(required, this.levels.length + (this.levels.length >> 1) + 1);
+        this.vectors = Arrays.copyOf(this.vectors, Math.multiplyExact(capacity, this.dimensions));
+        this.levels = Arrays.copyOf(this.levels, capacity);
+        this.links = Arrays.copyOf(this.links, capacity);
+    }
+
+    /**
+     * Links a new node into the graph. {@code vector} must already be normalized.
+     */
+    void insert(int node, float[] vector) {
+        int level = randomLevel();
+        System.arraycopy(vector, 0, this.vectors, node * this.dimensions, this.dimensions);
+        this.levels[node] = level;
+        int[][] nodeLinks = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            nodeLinks[l] = new int[(l == 0 ? this.maxM0 : this.m) + 1];
+        }
+        this.links[node] = nodeLinks;
+
+        int entry;
+        int topLevel;
+        synchronized (this.entryLock) {
+            entry = this.entryPoint;
+            topLevel = this.maxLevel;
+            if (entry < 0) {
+                this.entryPoint = node;
+                this.maxLevel = level;
+                return;
+            }
+        }
+
+        int current = entry;
+        for (int l = topLevel; l > level; l--) {
+            current = greedyClosest(vector, current, l);
+        }
+        for (int l = Math.min(level, topLevel); l >= 0; l--) {
+            NodeQueue candidates = searchLayer(vector, current, this.efConstruction, l, null);
+            int[] selected = selectNeighbours(candidates, this.m);
+            synchronized (nodeLinks) {
+                int[] own = nodeLinks[l];
+                own[0] = selected.length;
+                System.arraycopy(selected, 0, own, 1, selected.length);
+            }
+            for (int neighbour : selected) {
+                connect(neighbour, node, l);
+            }
+            current = selected.length > 0 ? selected[0] : current;
+        }
+
+        if (level > topLevel) {
+            synchronized (this.entryLock) {
+                if (level > this.maxLevel) {
+                    this.entryPoint = node;
+                    this.maxLevel = level;
+                }
+            }
+        }
+    }
+
+    /**
+     * Approximate top-k search. Nodes rejected by {@code accept} are still traversed (they keep the graph
+     * connected) but never returned. The beam width is {@code max(ef, k)}.
+     */
+    TopK search(float[] query, int k, int ef, IntPredicate accept) {
+        TopK topK = new TopK(k);
+        int entry;
+        int topLevel;
+        synchronized (this.entryLock) {
+            entry = this.entryPoint;
+            topLevel = this.maxLevel;
+        }
+        if (entry < 0) {
+            return topK;
+        }
+        int current = entry;
+        for (int l = topLevel; l > 0; l--) {
+            current = greedyClosest(query, current, l);
+        }
+        NodeQueue results = searchLayer(query, current, Math.max(ef, k), 0, accept);
+        while (!results.isEmpty()) {
+            float score = results.peekScore();
+            topK.offer(results.pop(), score);
+        }
+        return topK;
+    }
+
+    float similarity(float[] query, int node) {
+        return VectorMath.dot(query, 0, this.vectors, node * this.dimensions, this.dimensions);
+    }
+
+    private float similarity(int a, int b) {
+        return VectorMath.dot(this.vectors, a * this.dimensions, this.vectors, b * this.dimensions, this.dimensions);
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float best = similarity(query, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int neighbour : neighbours(current, level)) {
+                float score = similarity(query, neighbour);
+                if (score > best) {
+                    best = score;
+                    current = neighbour;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first beam search on one layer; returns a min-queue holding at most {@code ef} accepted nodes.
+     */
+    private NodeQueue searchLayer(float[] query, int entry, int ef, int level, IntPredicate accept) {
+        Visited visited = VISITED.get().reset(this.levels.length);
+        NodeQueue candidates = NodeQueue.max(ef);
+        NodeQueue results = NodeQueue.min(ef + 1);
+
+        float entryScore = similarity(query, entry);
+        visited.mark(entry);
+        candidates.push(entry, entryScore);
+        if (accept == null || accept.test(entry)) {
+            results.push(entry, entryScore);
+        }
+
+        while (!candidates.isEmpty()) {
+            float candidateScore = candidates.peekScore();
+            if (results.size() >= ef && candidateScore < results.peekScore()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            for (int neighbour : neighbours(candidate, level)) {
+                if (!visited.mark(neighbour)) {
+                    continue;
+                }
+                float score = similarity(query, neighbour);
+                if (results.size() < ef || score > results.peekScore()) {
+                    candidates.push(neighbour, score);
+                    if (accept == null || accept.test(neighbour)) {
+                        results.push(neighbour, score);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Neighbour selection heuristic (algorithm 4 of the HNSW paper): a candidate is kept only if it is closer to
+     * the base vector than to any neighbour already chosen, which keeps long-range links and graph diversity.
+     */
+    private int[] selectNeighbours(NodeQueue candidates, int limit) {
+        int count = candidates.size();
+        int[] ordered = new int[count];
+        float[] scores = new float[count];
+        // min-queue pops worst first, fill from the back to get best-first order
+        for (int i = count - 1; i >= 0; i--) {
+            scores[i] = candidates.peekScore();
+            ordered[i] = candidates.pop();
+        }
+        int[] selected = new int[Math.min(limit, count)];
+        int selectedCount = 0;
+        for (int i = 0; i < count && selectedCount < selected.length; i++) {
+            int candidate = ordered[i];
+            boolean keep = true;
+            for (int j = 0; j < selectedCount; j++) {
+                if (similarity(candidate, selected[j]) > scores[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[selectedCount++] = candidate;
+            }
+        }
+        return selectedCount == selected.length ? selected : Arrays.copyOf(selected, selectedCount);
+    }
+
+    private void connect(int node, int newNeighbour, int level) {
+        int[][] nodeLinks = this.links[node];
+        synchronized (nodeLinks) {
+            int[] list = nodeLinks[level];
+            int count = list[0];
+            if (count < list.length - 1) {
+                list[count + 1] = newNeighbour;
+                list[0] = count + 1;
+                return;
+            }
+            // 이웃 수가 한도를 넘으면 휴리스틱으로 다시 추려낸다
+            NodeQueue candidates = NodeQueue.min(count + 1);
+            for (int i = 1; i <= count; i++) {
+                candidates.push(list[i], similarity(node, list[i]));
+            }
+            candidates.push(newNeighbour, similarity(node, newNeighbour));
+            int[] selected = selectNeighbours(candidates, list.length - 1);
+            list[0] = selected.length;
+            System.arraycopy(selected, 0, list, 1, selected.length);
+        }
+    }
+
+    private int[] neighbours(int node, int level) {
+        int[][] nodeLinks = this.links[node];
+        synchronized (nodeLinks) {
+            int[] list = nodeLinks[level];
+            return Arrays.copyOfRange(list, 1, list[0] + 1);
+        }
+    }
+
+    private int randomLevel() {
+        double u = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return (int) Math.floor(-Math.log(u) * this.levelMultiplier);
+    }
+
+    void writeTo(SnapshotOutput out, int nodeCount) throws IOException {
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(this.dimensions);
+        out.putInt(this.m);
+        out.putInt(this.efConstruction);
+        out.putInt(nodeCount);
+        out.putInt(this.entryPoint);
+        out.putInt(this.maxLevel);
+        out.putFloats(this.vectors, 0, nodeCount * this.dimensions);
+        out.putInts(this.levels, 0, nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            int[][] nodeLinks = this.links[node];
+            synchronized (nodeLinks) {
+                for (int[] list : nodeLinks) {
+                    out.putInts(list, 0, list[0] + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores an index written by {@link #writeTo}; returns the node count through {@code nodeCountOut[0]}.
+     */
+    static HnswIndex readFrom(SnapshotInput in, int extraCapacity, int[] nodeCountOut) throws IOException {
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not an HNSW index file");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported HNSW index version " + version);
+        }
+        int dimensions = in.getInt();
+        int m = in.getInt();
+        int efConstruction = in.getInt();
+        int nodeCount = in.getInt();
+        HnswIndex index = new HnswIndex(dimensions, m, efConstruction, Math.max(1, nodeCount + extraCapacity));
+        index.entryPoint = in.getInt();
+        index.maxLevel = in.getInt();
+        in.getFloats(index.vectors, 0, nodeCount * dimensions);
+        in.getInts(index.levels, 0, nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            int[][] nodeLinks = new int[index.levels[node] + 1][];
+            for (int l = 0; l < nodeLinks.length; l++) {
+                int[] list = new int[(l == 0 ? index.maxM0 : index.m) + 1];
+                list[0] = in.getInt();
+                in.getInts(list, 1, list[0]);
+                nodeLinks[l] = list;
+            }
+            index.links[node] = nodeLinks;
+        }
+        nodeCountOut[0] = nodeCount;
+        return index;
+    }
+
+    /**
+     * Per-thread visited marks; bumping the generation clears the set without touching the array.
+     */
+    private static final class Visited {
+
+        private int[] marks = new int[0];
+
+        private int generation;
+
+        Visited reset(int capacity) {
+            if (this.marks.length < capacity) {
+                this.marks = new int[capacity];
+                this.generation = 0;
+            }
+            if (++this.generation == Integer.MAX_VALUE) {
+                Arrays.fill(this.marks, 0);
+                this.generation = 1;
+            }
+            return this;
+        }
+
+        /**
+         * Returns {@code true} if the node was not visited yet.
+         */
+        boolean mark(int node) {
+            if (this.marks[node] == this.generation) {
+                return false;
+            }
+            this.marks[node] = this.generation;
+            return true;
+        }
+    }
+}
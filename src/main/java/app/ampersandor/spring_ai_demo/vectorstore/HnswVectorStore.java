@@ -0,0 +1,648 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.observation.conventions.VectorStoreProvider;
+import org.springframework.ai.observation.conventions.VectorStoreSimilarityMetric;
+import org.springframework.ai.vectorstore.AbstractVectorStoreBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.observation.AbstractObservationVectorStore;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory {@link org.springframework.ai.vectorstore.VectorStore} backed by an {@link HnswIndex}, giving
+ * sub-linear approximate search instead of the full scan done by {@link DenseVectorStore}.
+ * <p>
+ * Documents of one {@link #add} call are linked into the graph in parallel while searches keep running; they
+ * become visible by id and metadata, and the documents they replace are removed, only once they are linked.
+ * Deletes only mark the node as removed (HNSW cannot unlink a node cheaply); removed nodes still route
+ * searches but are never returned. Once removed nodes make up more than {@code compactionRatio} of the graph,
+ * it is rebuilt from the live nodes with the configured {@code m}/{@code efConstruction}, again while searches
+ * keep running on the old graph. When a {@code path} is configured the graph, vectors and documents are
+ * written there by {@link #persist()} and memory-mapped back on start-up, so no graph rebuild is needed; the
+ * metadata is stored with {@link MetadataCodec}, like {@link DenseVectorStore} does.
+ * <p>
+ * Adds, deletes, compaction and {@link #persist()} are serialized by a writer lock; searches only need the read
+ * lock, which the writers hold while they do the slow part of their work.
+ * <p>
+ * Filter expressions are answered from a {@link MetadataBitmapIndex} when possible. A filter matching few nodes
+ * (at most {@value #EXACT_SCAN_FACTOR} times the beam width) is answered by scoring exactly those nodes, which
+ * also avoids the recall loss of a graph walk that rejects most of what it visits; otherwise the bitmap serves as
+ * the accept test of the graph search.
+ */
+public class HnswVectorStore extends AbstractObservationVectorStore implements PersistentVectorStore, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HnswVectorStore.class);
+
+    private static final int EXACT_SCAN_FACTOR = 16;
+
+    private static final int MIN_COMPACTION_NODES = 256;
+
+    private final ReentrantLock writerLock = new ReentrantLock();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final SpelExpressionParser expressionParser = new SpelExpressionParser();
+
+    private final SimpleVectorStoreFilterExpressionConverter filterExpressionConverter =
+            new SimpleVectorStoreFilterExpressionConverter();
+
+    private final Map<String, Integer> nodeById = new HashMap<>();
+
+    private final int m;
+
+    private final int efConstruction;
+
+    private final int efSearch;
+
+    private final double compactionRatio;
+
+    private final int initialCapacity;
+
+    private final Path path;
+
+    private final Set<String> indexedMetadataKeys;
+
+    private MetadataBitmapIndex metadataIndex;
+
+    private HnswIndex index;
+
+    private String[] ids;
+
+    private String[] texts;
+
+    private Map<String, Object>[] metadata;
+
+    private boolean[] deleted;
+
+    private int nodeCount;
+
+    protected HnswVectorStore(Builder builder) {
+        super(builder);
+        this.m = builder.m;
+        this.efConstruction = builder.efConstruction;
+        this.efSearch = builder.efSearch;
+        this.compactionRatio = builder.compactionRatio;
+        this.initialCapacity = builder.initialCapacity;
+        this.path = builder.path;
+        this.indexedMetadataKeys = builder.indexedMetadataKeys;
+        this.metadataIndex = new MetadataBitmapIndex(this.indexedMetadataKeys);
+        allocate(this.initialCapacity);
+        if (this.path != null && Files.exists(this.path)) {
+            load();
+            compactIfNeeded();
+        }
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    /**
+     * Number of live (not deleted) documents.
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.nodeById.size();
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsAll(Collection<String> documentIds) {
+        this.lock.readLock().lock();
+        try {
+            return this.nodeById.keySet().containsAll(documentIds);
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void doAdd(List<Document> documents) {
+        Objects.requireNonNull(documents, "Documents list cannot be null");
+        if (documents.isEmpty()) {
+            throw new IllegalArgumentException("Documents list cannot be empty");
+        }
+        List<float[]> embeddings = this.embeddingModel.embed(documents.stream()
+                .map(document -> document.getFormattedContent(MetadataMode.EMBED))
+                .toList());
+        float[][] vectors = new float[embeddings.size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = VectorMath.normalize(embeddings.get(i).clone());
+        }
+
+        this.writerLock.lock();
+        try {
+            insert(documents, vectors);
+            compactIfNeeded();
+        }
+        finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    private void insert(List<Document> documents, float[][] vectors) {
+        int firstNode;
+        this.lock.writeLock().lock();
+        try {
+            if (this.index == null) {
+                this.index = new HnswIndex(vectors[0].length, this.m, this.efConstruction, this.ids.length);
+            }
+            for (float[] vector : vectors) {
+                checkDimensions(vector);
+            }
+            // 노드 번호와 문서 슬롯은 쓰기 락 안에서 예약하고, 그래프 연결은 읽기 락으로 내려가 병렬 수행.
+            // 연결이 끝날 때까지 새 노드는 삭제된 것으로 두어 검색 결과에 나오지 않게 한다
+            firstNode = this.nodeCount;
+            ensureCapacity(firstNode + documents.size());
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                int node = firstNode + i;
+                this.ids[node] = document.getId();
+                this.texts[node] = document.getText();
+                this.metadata[node] = new HashMap<>(document.getMetadata());
+                this.deleted[node] = true;
+            }
+            this.nodeCount += documents.size();
+            this.lock.readLock().lock();
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+        try {
+            HnswIndex graph = this.index;
+            IntStream.range(0, vectors.length).parallel().forEach(i -> graph.insert(firstNode + i, vectors[i]));
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+        // 그래프에 연결된 뒤에야 id 와 메타데이터로 찾을 수 있게 하고, 그때 대체된 이전 노드를 지운다
+        this.lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                int node = firstNode + i;
+                Integer replaced = this.nodeById.put(this.ids[node], node);
+                if (replaced != null) {
+                    this.deleted[replaced] = true;
+                    this.metadataIndex.remove(replaced, this.metadata[replaced]);
+                }
+                this.deleted[node] = false;
+                this.metadataIndex.add(node, this.metadata[node]);
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+        logger.debug("Indexed {} documents, {} nodes in graph", documents.size(), firstNode + documents.size());
+    }
+
+    @Override
+    public void doDelete(List<String> idList) {
+        this.writerLock.lock();
+        try {
+            this.lock.writeLock().lock();
+            try {
+                for (String id : idList) {
+                    Integer node = this.nodeById.remove(id);
+                    if (node != null) {
+                        this.deleted[node] = true;
+                        this.metadataIndex.remove(node, this.metadata[node]);
+                    }
+                }
+            }
+            finally {
+                this.lock.writeLock().unlock();
+            }
+            compactIfNeeded();
+        }
+        finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    @Override
+    protected void doDelete(Filter.Expression filterExpression) {
+        this.writerLock.lock();
+        try {
+            this.lock.writeLock().lock();
+            try {
+                CompressedBitmap matching = this.metadataIndex.evaluate(filterExpression);
+                IntPredicate filter = matching != null ? matching::contains : compileFilter(filterExpression);
+                for (int node = 0; node < this.nodeCount; node++) {
+                    if (!this.deleted[node] && filter.test(node)) {
+                        this.deleted[node] = true;
+                        this.nodeById.remove(this.ids[node]);
+                        this.metadataIndex.remove(node, this.metadata[node]);
+                    }
+                }
+            }
+            finally {
+                this.lock.writeLock().unlock();
+            }
+            compactIfNeeded();
+        }
+        finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the graph from the live nodes, dropping every removed node from memory and from the next
+     * {@link #persist()}. Searches keep using the old graph until the new one is swapped in.
+     */
+    public void compact() {
+        this.writerLock.lock();
+        try {
+            rebuild();
+        }
+        finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    private void compactIfNeeded() {
+        int removed = this.nodeCount - this.nodeById.size();
+        if (this.nodeCount >= MIN_COMPACTION_NODES && removed > this.nodeCount * this.compactionRatio) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Called with the writer lock held, so the old graph and document arrays are stable while it reads them.
+     */
+    private void rebuild() {
+        long started = System.nanoTime();
+        HnswIndex graph;
+        String[] newIds;
+        String[] newTexts;
+        Map<String, Object>[] newMetadata;
+        Map<String, Integer> newNodeById = new HashMap<>();
+        MetadataBitmapIndex newMetadataIndex = new MetadataBitmapIndex(this.indexedMetadataKeys);
+        int removed;
+        int live;
+        this.lock.readLock().lock();
+        try {
+            if (this.index == null) {
+                return;
+            }
+            removed = this.nodeCount - this.nodeById.size();
+            int[] liveNodes = IntStream.range(0, this.nodeCount).filter(node -> !this.deleted[node]).toArray();
+            live = liveNodes.length;
+            int capacity = Math.max(this.initialCapacity, live + (live >> 1));
+            graph = live == 0 ? null
+                    : new HnswIndex(this.index.dimensions(), this.m, this.efConstruction, capacity);
+            newIds = new String[capacity];
+            newTexts = new String[capacity];
+            newMetadata = newMetadataArray(capacity);
+            for (int node = 0; node < live; node++) {
+                int old = liveNodes[node];
+                newIds[node] = this.ids[old];
+                newTexts[node] = this.texts[old];
+                newMetadata[node] = this.metadata[old];
+                newNodeById.put(newIds[node], node);
+                newMetadataIndex.add(node, newMetadata[node]);
+            }
+            HnswIndex oldGraph = this.index;
+            IntStream.range(0, live).parallel().forEach(node -> {
+                float[] vector = new float[oldGraph.dimensions()];
+                oldGraph.copyVector(liveNodes[node], vector);
+                graph.insert(node, vector);
+            });
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+        this.lock.writeLock().lock();
+        try {
+            this.index = graph;
+            this.ids = newIds;
+            this.texts = newTexts;
+            this.metadata = newMetadata;
+            this.deleted = new boolean[newIds.length];
+            this.nodeById.clear();
+            this.nodeById.putAll(newNodeById);
+            this.metadataIndex = newMetadataIndex;
+            this.nodeCount = live;
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+        logger.info("Compacted HNSW index: dropped {} removed nodes, rebuilt {} nodes in {} ms", removed, live,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @Override
+    public List<Document> doSimilaritySearch(SearchRequest request) {
+        float[] query = VectorMath.normalize(this.embeddingModel.embed(request.getQuery()));
+        float threshold = (float) request.getSimilarityThreshold();
+
+        this.lock.readLock().lock();
+        try {
+            if (this.index == null) {
+                return List.of();
+            }
+            checkDimensions(query);
+            TopK topK;
+            CompressedBitmap matching = request.hasFilterExpression()
+                    ? this.metadataIndex.evaluate(request.getFilterExpression()) : null;
+            if (matching != null
+                    && matching.cardinality() <= Math.max(this.efSearch, request.getTopK()) * EXACT_SCAN_FACTOR) {
+                // 후보가 적으면 그래프를 타지 않고 일치하는 노드만 정확히 점수 매긴다
+                topK = new TopK(request.getTopK());
+                for (int node : matching.toArray()) {
+                    topK.offer(node, this.index.similarity(query, node));
+                }
+            }
+            else {
+                IntPredicate filter = matching != null ? matching::contains
+                        : request.hasFilterExpression() ? compileFilter(request.getFilterExpression()) : null;
+                IntPredicate accept = filter == null ? node -> !this.deleted[node]
+                        : node -> !this.deleted[node] && filter.test(node);
+                topK = this.index.search(query, request.getTopK(), this.efSearch, accept);
+            }
+            int[] nodes = new int[topK.size()];
+            float[] scores = new float[topK.size()];
+            int count = topK.drainDescending(nodes, scores);
+            List<Document> results = new ArrayList<>(count);
+            for (int i = 0; i < count && scores[i] >= threshold; i++) {
+                results.add(toDocument(nodes[i], scores[i]));
+            }
+            return results;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public VectorStoreObservationContext.Builder createObservationContextBuilder(String operationName) {
+        return VectorStoreObservationContext.builder(VectorStoreProvider.SIMPLE.value(), operationName)
+                .dimensions(this.index != null ? this.index.dimensions() : 0)
+                .collectionName("in-memory-hnsw")
+                .similarityMetric(VectorStoreSimilarityMetric.COSINE.value());
+    }
+
+    /**
+     * Writes header, vectors, graph and documents to a temporary file and atomically moves it over
+     * {@code path}. Holds the writer lock for the duration so the file reflects a single point in time, and the
+     * read lock, so searches keep running while the file is written.
+     */
+    @Override
+    public void persist() {
+        if (this.path == null) {
+            return;
+        }
+        this.writerLock.lock();
+        this.lock.readLock().lock();
+        try {
+            if (this.index == null) {
+                // 모두 삭제되어 그래프가 비었으면 이전 파일이 되살아나지 않게 지운다
+                Files.deleteIfExists(this.path);
+                return;
+            }
+            Path directory = this.path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, this.path.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING); SnapshotOutput out = new SnapshotOutput(channel)) {
+                    this.index.writeTo(out, this.nodeCount);
+                    for (int node = 0; node < this.nodeCount; node++) {
+                        out.putInt(this.deleted[node] ? 1 : 0);
+                        out.putString(this.ids[node]);
+                        out.putString(this.texts[node]);
+                        MetadataCodec.write(out, this.metadata[node]);
+                    }
+                    out.flush();
+                    channel.force(true);
+                }
+                Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(temp);
+            }
+            logger.info("Persisted HNSW index with {} nodes to {}", this.nodeCount, this.path);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist HNSW index to " + this.path, e);
+        }
+        finally {
+            this.lock.readLock().unlock();
+            this.writerLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        persist();
+    }
+
+    private void load() {
+        long started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            SnapshotInput in = new SnapshotInput(channel);
+            int[] nodeCountOut = new int[1];
+            this.index = HnswIndex.readFrom(in, 0, nodeCountOut);
+            if (this.index.m() != this.m || this.index.efConstruction() != this.efConstruction) {
+                logger.warn("HNSW index {} was built with m={}, efConstruction={}; the configured m={}, "
+                        + "efConstruction={} apply once the graph is rebuilt (see compact())", this.path,
+                        this.index.m(), this.index.efConstruction(), this.m, this.efConstruction);
+            }
+            int count = nodeCountOut[0];
+            allocate(this.index.capacity());
+            for (int node = 0; node < count; node++) {
+                this.deleted[node] = in.getInt() != 0;
+                this.ids[node] = in.getString();
+                this.texts[node] = in.getString();
+                this.metadata[node] = MetadataCodec.read(in);
+                if (!this.deleted[node]) {
+                    this.nodeById.put(this.ids[node], node);
+                    this.metadataIndex.add(node, this.metadata[node]);
+                }
+            }
+            this.nodeCount = count;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to load HNSW index from " + this.path, e);
+        }
+        logger.info("Loaded HNSW index with {} documents from {} in {} ms", this.nodeById.size(), this.path,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private Document toDocument(int node, float score) {
+        Map<String, Object> documentMetadata = new HashMap<>(this.metadata[node]);
+        documentMetadata.put(DocumentMetadata.DISTANCE.value(), 1.0f - score);
+        return Document.builder()
+                .id(this.ids[node])
+                .text(this.texts[node])
+                .metadata(documentMetadata)
+                .score((double) score)
+                .build();
+    }
+
+    private IntPredicate compileFilter(Filter.Expression filterExpression) {
+        Expression expression = this.expressionParser
+                .parseExpression(this.filterExpressionConverter.convertExpression(filterExpression));
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        return node -> {
+            context.setVariable("metadata", this.metadata[node]);
+            return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+        };
+    }
+
+    private void checkDimensions(float[] vector) {
+        if (vector.length != this.index.dimensions()) {
+            throw new IllegalArgumentException(
+                    "Embedding dimension %d does not match index dimension %d".formatted(vector.length,
+                            this.index.dimensions()));
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.ids = new String[capacity];
+        this.texts = new String[capacity];
+        this.metadata = newMetadataArray(capacity);
+        this.deleted = new boolean[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object>[] newMetadataArray(int capacity) {
+        return new Map[capacity];
+    }
+
+    private void ensureCapacity(int required) {
+        this.index.ensureCapacity(required);
+        if (required <= this.ids.length) {
+            return;
+        }
+        int capacity = this.index.capacity();
+        this.ids = Arrays.copyOf(this.ids, capacity);
+        this.texts = Arrays.copyOf(this.texts, capacity);
+        this.metadata = Arrays.copyOf(this.metadata, capacity);
+        this.deleted = Arrays.copyOf(this.deleted, capacity);
+    }
+
+    public static final class Builder extends AbstractVectorStoreBuilder<Builder> {
+
+        private int m = 16;
+
+        private int efConstruction = 200;
+
+        private int efSearch = 64;
+
+        private int initialCapacity = 1024;
+
+        private double compactionRatio = 0.3;
+
+        private Path path;
+
+        private Set<String> indexedMetadataKeys = Set.of();
+
+        private Builder(EmbeddingModel embeddingModel) {
+            super(embeddingModel);
+        }
+
+        /**
+         * Maximum links per node on the upper layers (twice as many on layer 0).
+         */
+        public Builder m(int m) {
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * Beam width while linking new nodes; higher builds a better graph, more slowly.
+         */
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        /**
+         * Beam width at query time (at least {@code topK}); trades latency for recall.
+         */
+        public Builder efSearch(int efSearch) {
+            if (efSearch <= 0) {
+                throw new IllegalArgumentException("efSearch must be positive.");
+            }
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        public Builder initialCapacity(int initialCapacity) {
+            if (initialCapacity <= 0) {
+                throw new IllegalArgumentException("initialCapacity must be positive.");
+            }
+            this.initialCapacity = initialCapacity;
+            return this;
+        }
+
+        /**
+         * Share of removed nodes at which the graph is rebuilt from the live ones; {@code 1} never rebuilds.
+         */
+        public Builder compactionRatio(double compactionRatio) {
+            if (compactionRatio <= 0 || compactionRatio > 1) {
+                throw new IllegalArgumentException("compactionRatio must be in (0, 1].");
+            }
+            this.compactionRatio = compactionRatio;
+            return this;
+        }
+
+        /**
+         * File the index is loaded from at start-up and written to by {@link #persist()}; {@code null} keeps
+         * the index purely in memory.
+         */
+        public Builder path(Path path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * Metadata keys kept in the bitmap index used for filter expressions; empty (the default) indexes every
+         * key.
+         */
+        public Builder indexedMetadataKeys(Set<String> indexedMetadataKeys) {
+            this.indexedMetadataKeys = Set.copyOf(indexedMetadataKeys);
+            return this;
+        }
+
+        @Override
+        public HnswVectorStore build() {
+            return new HnswVectorStore(this);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary index from metadata values to the slots holding them, so a filter expression can be answered with
+ * bitmap operations before any vector is scored.
+ * <p>
+ * For every indexed key it keeps one {@link CompressedBitmap} per distinct scalar value (strings, numbers,
+ * booleans) plus a bitmap of the slots that have a non-null value for the key. {@link #evaluate} follows the semantics of the
+ * SpEL predicate the stores used before: numbers compare by value ({@code 3 == 3.0}), a missing key never equals
+ * anything but is smaller than every value, and {@code !=}/{@code NIN}/{@code NOT} include slots without the key.
+ * Expressions it cannot answer (unindexed keys, other value types) yield {@code null}, and the caller falls back to
+ * evaluating the predicate per slot. Callers synchronize access.
+ */
+final class MetadataBitmapIndex {
+
+    private final Set<String> indexedKeys;
+
+    private final CompressedBitmap all = new CompressedBitmap();
+
+    private final Map<String, CompressedBitmap> present = new HashMap<>();
+
+    private final Map<String, Map<Object, CompressedBitmap>> values = new HashMap<>();
+
+    /**
+     * @param indexedKeys metadata keys to index, or an empty set to index every key
+     */
+    MetadataBitmapIndex(Collection<String> indexedKeys) {
+        this.indexedKeys = Set.copyOf(indexedKeys);
+    }
+
+    void add(int slot, Map<String, Object> metadata) {
+        this.all.add(slot);
+        metadata.forEach((key, value) -> {
+            if (!indexed(key) || value == null) {
+                return;
+            }
+            this.present.computeIfAbsent(key, k -> new CompressedBitmap()).add(slot);
+            Object normalized = normalize(value);
+            if (normalized != null) {
+                this.values.computeIfAbsent(key, k -> new HashMap<>())
+                        .computeIfAbsent(normalized, v -> new CompressedBitmap()).add(slot);
+            }
+        });
+    }
+
+    void remove(int slot, Map<String, Object> metadata) {
+        this.all.remove(slot);
+        metadata.forEach((key, value) -> {
+            CompressedBitmap keySlots = this.present.get(key);
+            if (keySlots == null) {
+                return;
+            }
+            keySlots.remove(slot);
+            Map<Object, CompressedBitmap> byValue = this.values.get(key);
+            Object normalized = normalize(value);
+            if (byValue != null && normalized != null) {
+                CompressedBitmap valueSlots = byValue.get(normalized);
+                if (valueSlots != null) {
+                    valueSlots.remove(slot);
+                    if (valueSlots.isEmpty()) {
+                        byValue.remove(normalized);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Slots matching {@code expression}, or {@code null} when the expression needs per-slot evaluation.
+     */
+    CompressedBitmap evaluate(Filter.Expression expression) {
+        try {
+            return compile(expression);
+        }
+        catch (NotCompilable e) {
+            return null;
+        }
+    }
+
+    private CompressedBitmap compile(Filter.Expression expression) {
+        return switch (expression.type()) {
+            case AND -> operand(expression.left()).and(operand(expression.right()));
+            case OR -> operand(expression.left()).or(operand(expression.right()));
+            case NOT -> this.all.andNot(operand(expression.left()));
+            case EQ -> equalTo(key(expression), value(expression));
+            case NE -> this.all.andNot(equalTo(key(expression), value(expression)));
+            case IN -> in(key(expression), value(expression));
+            case NIN -> this.all.andNot(in(key(expression), value(expression)));
+            case GT, GTE, LT, LTE -> range(expression.type(), key(expression), value(expression));
+            default -> throw NotCompilable.INSTANCE;
+        };
+    }
+
+    private CompressedBitmap operand(Filter.Operand operand) {
+        if (operand instanceof Filter.Expression expression) {
+            return compile(expression);
+        }
+        if (operand instanceof Filter.Group group) {
+            return compile(group.content());
+        }
+        throw NotCompilable.INSTANCE;
+    }
+
+    private CompressedBitmap equalTo(String key, Object value) {
+        Object normalized = normalize(value);
+        if (normalized == null) {
+            throw NotCompilable.INSTANCE;
+        }
+        CompressedBitmap slots = this.values.getOrDefault(key, Map.of()).get(normalized);
+        return slots != null ? slots.copy() : new CompressedBitmap();
+    }
+
+    private CompressedBitmap in(String key, Object value) {
+        if (!(value instanceof List<?> list)) {
+            throw NotCompilable.INSTANCE;
+        }
+        CompressedBitmap result = new CompressedBitmap();
+        for (Object element : list) {
+            result = result.or(equalTo(key, element));
+        }
+        return result;
+    }
+
+    private CompressedBitmap range(Filter.ExpressionType type, String key, Object value) {
+        Object bound = normalize(value);
+        if (bound == null || bound instanceof Boolean) {
+            throw NotCompilable.INSTANCE;
+        }
+        CompressedBitmap result = new CompressedBitmap();
+        for (Map.Entry<Object, CompressedBitmap> entry : this.values.getOrDefault(key, Map.of()).entrySet()) {
+            Integer comparison = compare(entry.getKey(), bound);
+            if (comparison == null) {
+                continue;
+            }
+            boolean matches = switch (type) {
+                case GT -> comparison > 0;
+                case GTE -> comparison >= 0;
+                case LT -> comparison < 0;
+                default -> comparison <= 0;
+            };
+            if (matches) {
+                result = result.or(entry.getValue());
+            }
+        }
+        if (type == Filter.ExpressionType.LT || type == Filter.ExpressionType.LTE) {
+            // SpEL 은 null 을 모든 값보다 작게 비교한다
+            result = result.or(this.all.andNot(this.present.getOrDefault(key, new CompressedBitmap())));
+        }
+        return result;
+    }
+
+    private String key(Filter.Expression expression) {
+        if (!(expression.left() instanceof Filter.Key key)) {
+            throw NotCompilable.INSTANCE;
+        }
+        String name = key.key();
+        if (name.length() >= 2 && (name.startsWith("'") || name.startsWith("\"") || name.startsWith("`"))
+                && name.charAt(name.length() - 1) == name.charAt(0)) {
+            name = name.substring(1, name.length() - 1);
+        }
+        if (!indexed(name)) {
+            throw NotCompilable.INSTANCE;
+        }
+        return name;
+    }
+
+    private static Object value(Filter.Expression expression) {
+        if (!(expression.right() instanceof Filter.Value value)) {
+            throw NotCompilable.INSTANCE;
+        }
+        return value.value();
+    }
+
+    private boolean indexed(String key) {
+        return this.indexedKeys.isEmpty() || this.indexedKeys.contains(key);
+    }
+
+    /**
+     * Map key for a metadata or filter value: integral numbers become {@code Long}, other numbers {@code Double},
+     * so values that SpEL considers equal share one bitmap. Non-scalar values are not indexed.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof String || value instanceof Boolean) {
+            return value;
+        }
+        if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Float || value instanceof Double) {
+            double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && Math.abs(number) < 0x1p53) {
+                return (long) number;
+            }
+            return number;
+        }
+        return null;
+    }
+
+    private static Integer compare(Object left, Object right) {
+        if (left instanceof Number a && right instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue());
+        }
+        if (left instanceof String a && right instanceof String b) {
+            return a.compareTo(b);
+        }
+        return null;
+    }
+
+    /**
+     * Thrown out of {@code compile} for a part of the expression the bitmaps cannot answer. Private and without a
+     * stack trace, so {@link #evaluate} cannot mistake a real failure for it and the fallback stays cheap.
+     */
+    private static final class NotCompilable extends RuntimeException {
+
+        static final NotCompilable INSTANCE = new NotCompilable();
+
+        private NotCompilable() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tagged binary encoding of document metadata for the snapshot files, so loading a store decodes values
+ * directly instead of parsing JSON. Strings, numbers, booleans, lists and nested maps keep their type;
+ * any other value is stored as its {@code toString()}.
+ */
+final class MetadataCodec {
+
+    private static final int NULL = 0;
+
+    private static final int STRING = 1;
+
+    private static final int INT = 2;
+
+    private static final int LONG = 3;
+
+    private static final int DOUBLE = 4;
+
+    private static final int FLOAT = 5;
+
+    private static final int BOOLEAN = 6;
+
+    private static final int LIST = 7;
+
+    private static final int MAP = 8;
+
+    private MetadataCodec() {
+    }
+
+    static void write(SnapshotOutput out, Map<String, Object> metadata) throws IOException {
+        out.putInt(metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            out.putString(entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    static Map<String, Object> read(SnapshotInput in) throws IOException {
+        int size = in.getInt();
+        Map<String, Object> metadata = new HashMap<>(Math.max(4, size * 4 / 3 + 1));
+        for (int i = 0; i < size; i++) {
+            String key = in.getString();
+            metadata.put(key, readValue(in));
+        }
+        return metadata;
+    }
+
+    private static void writeValue(SnapshotOutput out, Object value) throws IOException {
+        switch (value) {
+            case null -> out.putInt(NULL);
+            case String string -> {
+                out.putInt(STRING);
+                out.putString(string);
+            }
+            case Integer number -> {
+                out.putInt(INT);
+                out.putInt(number);
+            }
+            case Long number -> {
+                out.putInt(LONG);
+                out.putLong(number);
+            }
+            case Double number -> {
+                out.putInt(DOUBLE);
+                out.putDouble(number);
+            }
+            case Float number -> {
+                out.putInt(FLOAT);
+                out.putInt(Float.floatToIntBits(number));
+            }
+            case Boolean bool -> {
+                out.putInt(BOOLEAN);
+                out.putInt(bool ? 1 : 0);
+            }
+            case Collection<?> collection -> {
+                out.putInt(LIST);
+                out.putInt(collection.size());
+                for (Object element : collection) {
+                    writeValue(out, element);
+                }
+            }
+            case Map<?, ?> map -> {
+                out.putInt(MAP);
+                out.putInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    out.putString(String.valueOf(entry.getKey()));
+                    writeValue(out, entry.getValue());
+                }
+            }
+            default -> {
+                out.putInt(STRING);
+                out.putString(value.toString());
+            }
+        }
+    }
+
+    private static Object readValue(SnapshotInput in) throws IOException {
+        int tag = in.getInt();
+        return switch (tag) {
+            case NULL -> null;
+            case STRING -> in.getString();
+            case INT -> in.getInt();
+            case LONG -> in.getLong();
+            case DOUBLE -> in.getDouble();
+            case FLOAT -> Float.intBitsToFloat(in.getInt());
+            case BOOLEAN -> in.getInt() != 0;
+            case LIST -> {
+                int size = in.getInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                yield list;
+            }
+            case MAP -> read(in);
+            default -> throw new IOException("Unknown metadata tag " + tag);
+        };
+    }
+}
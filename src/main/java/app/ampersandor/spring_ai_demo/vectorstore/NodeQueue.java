@@ -0,0 +1,108 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import java.util.Arrays;
+
+/**
+ * Growable binary heap of (node, score) pairs in primitive arrays, used by the HNSW layer search.
+ * A max-queue pops the most similar node first (candidate frontier); a min-queue keeps the least similar
+ * on top so it can be evicted when the result set exceeds {@code ef}.
+ */
+final class NodeQueue {
+
+    private final boolean max;
+
+    private int[] nodes;
+
+    private float[] scores;
+
+    private int size;
+
+    NodeQueue(boolean max, int initialCapacity) {
+        this.max = max;
+        this.nodes = new int[Math.max(initialCapacity, 4)];
+        this.scores = new float[this.nodes.length];
+    }
+
+    static NodeQueue max(int initialCapacity) {
+        return new NodeQueue(true, initialCapacity);
+    }
+
+    static NodeQueue min(int initialCapacity) {
+        return new NodeQueue(false, initialCapacity);
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    int peekNode() {
+        return this.nodes[0];
+    }
+
+    float peekScore() {
+        return this.scores[0];
+    }
+
+    void push(int node, float score) {
+        if (this.size == this.nodes.length) {
+            this.nodes = Arrays.copyOf(this.nodes, this.size * 2);
+            this.scores = Arrays.copyOf(this.scores, this.size * 2);
+        }
+        int i = this.size++;
+        this.nodes[i] = node;
+        this.scores[i] = score;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    int pop() {
+        int top = this.nodes[0];
+        int last = --this.size;
+        this.nodes[0] = this.nodes[last];
+        this.scores[0] = this.scores[last];
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= this.size) {
+                break;
+            }
+            int child = left;
+            if (left + 1 < this.size && before(left + 1, left)) {
+                child = left + 1;
+            }
+            if (!before(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+        return top;
+    }
+
+    void clear() {
+        this.size = 0;
+    }
+
+    private boolean before(int i, int j) {
+        return this.max ? this.scores[i] > this.scores[j] : this.scores[i] < this.scores[j];
+    }
+
+    private void swap(int i, int j) {
+        int node = this.nodes[i];
+        this.nodes[i] = this.nodes[j];
+        this.nodes[j] = node;
+        float score = this.scores[i];
+        this.scores[i] = this.scores[j];
+        this.scores[j] = score;
+    }
+}
@@ -0,0 +1,23 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.Collection;
+
+/**
+ * A {@link VectorStore} that can write its contents to local storage and reload them on the next start,
+ * so a restarted node does not have to run the ETL pipeline again.
+ */
+public interface PersistentVectorStore extends VectorStore {
+
+    /**
+     * Writes the current contents to the configured location, replacing the previous file atomically.
+     */
+    void persist();
+
+    /**
+     * Whether every given document is currently held, so a caller can tell chunks that were lost (e.g. by a
+     * store without a location after a restart) from chunks that are still there.
+     */
+    boolean containsAll(Collection<String> documentIds);
+}
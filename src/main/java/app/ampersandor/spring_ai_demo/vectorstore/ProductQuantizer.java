@@ -0,0 +1,177 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Product quantization: the vector is cut into {@code subspaces} equal slices and every slice is replaced by the
+ * id of its nearest centroid in a per-slice codebook of up to 256 entries learnt with k-means.
+ * A 1024-dimensional vector with 256 subspaces takes 256 bytes instead of 4 KB.
+ * <p>
+ * For a query, the dot product of each query slice with every centroid is tabulated once; scoring a code is then
+ * {@code subspaces} table look-ups.
+ */
+final class ProductQuantizer implements VectorQuantizer {
+
+    private static final int MAX_CENTROIDS = 256;
+
+    private final int subspaces;
+
+    private final int subDimensions;
+
+    private final int centroidCount;
+
+    /**
+     * {@code codebooks[s]} holds {@code centroidCount} centroids of {@code subDimensions} floats, row-major.
+     */
+    private final float[][] codebooks;
+
+    private ProductQuantizer(int subspaces, int subDimensions, int centroidCount, float[][] codebooks) {
+        this.subspaces = subspaces;
+        this.subDimensions = subDimensions;
+        this.centroidCount = centroidCount;
+        this.codebooks = codebooks;
+    }
+
+    /**
+     * Trains one codebook per subspace on the first {@code count} rows of a row-major matrix.
+     * Subspaces are independent, so they are clustered in parallel.
+     */
+    static ProductQuantizer train(float[] vectors, int count, int dimensions, int subspaces, int iterations,
+            long seed) {
+        if (subspaces <= 0 || dimensions % subspaces != 0) {
+            throw new IllegalArgumentException(
+                    "PQ subspaces (%d) must divide the embedding dimension (%d)".formatted(subspaces, dimensions));
+        }
+        int subDimensions = dimensions / subspaces;
+        int centroidCount = Math.min(MAX_CENTROIDS, count);
+        float[][] codebooks = new float[subspaces][];
+        IntStream.range(0, subspaces).parallel().forEach(s -> codebooks[s] =
+                kMeans(vectors, count, dimensions, s * subDimensions, subDimensions, centroidCount, iterations,
+                        new Random(seed + s)));
+        return new ProductQuantizer(subspaces, subDimensions, centroidCount, codebooks);
+    }
+
+    static ProductQuantizer readFrom(SnapshotInput in) throws IOException {
+        int subspaces = in.getInt();
+        int subDimensions = in.getInt();
+        int centroidCount = in.getInt();
+        float[][] codebooks = new float[subspaces][centroidCount * subDimensions];
+        for (float[] codebook : codebooks) {
+            in.getFloats(codebook, 0, codebook.length);
+        }
+        return new ProductQuantizer(subspaces, subDimensions, centroidCount, codebooks);
+    }
+
+    @Override
+    public void writeTo(SnapshotOutput out) throws IOException {
+        out.putInt(this.subspaces);
+        out.putInt(this.subDimensions);
+        out.putInt(this.centroidCount);
+        for (float[] codebook : this.codebooks) {
+            out.putFloats(codebook, 0, this.centroidCount * this.subDimensions);
+        }
+    }
+
+    @Override
+    public int codeSize() {
+        return this.subspaces;
+    }
+
+    @Override
+    public void encode(float[] vector, byte[] codes, int offset) {
+        for (int s = 0; s < this.subspaces; s++) {
+            codes[offset + s] = (byte) nearest(this.codebooks[s], this.centroidCount, vector,
+                    s * this.subDimensions, this.subDimensions);
+        }
+    }
+
+    @Override
+    public Scorer scorer(float[] query) {
+        int k = this.centroidCount;
+        float[] table = new float[this.subspaces * k];
+        for (int s = 0; s < this.subspaces; s++) {
+            float[] codebook = this.codebooks[s];
+            for (int c = 0; c < k; c++) {
+                table[s * k + c] = VectorMath.dot(query, s * this.subDimensions, codebook, c * this.subDimensions,
+                        this.subDimensions);
+            }
+        }
+        int subspaces = this.subspaces;
+        return (codes, offset) -> {
+            float sum = 0f;
+            for (int s = 0, base = 0; s < subspaces; s++, base += k) {
+                sum += table[base + (codes[offset + s] & 0xFF)];
+            }
+            return sum;
+        };
+    }
+
+    /**
+     * Lloyd's k-means on one slice of every row, seeded with distinct random rows.
+     */
+    private static float[] kMeans(float[] vectors, int count, int dimensions, int sliceOffset, int sliceLength,
+            int k, int iterations, Random random) {
+        float[] centroids = new float[k * sliceLength];
+        int[] seeds = random.ints(0, count).distinct().limit(k).toArray();
+        for (int c = 0; c < k; c++) {
+            System.arraycopy(vectors, seeds[c] * dimensions + sliceOffset, centroids, c * sliceLength, sliceLength);
+        }
+        int[] assignment = new int[count];
+        float[] sums = new float[k * sliceLength];
+        int[] sizes = new int[k];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            boolean changed = false;
+            for (int row = 0; row < count; row++) {
+                int nearest = nearest(centroids, k, vectors, row * dimensions + sliceOffset, sliceLength);
+                if (iteration == 0 || nearest != assignment[row]) {
+                    assignment[row] = nearest;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+            Arrays.fill(sums, 0f);
+            Arrays.fill(sizes, 0);
+            for (int row = 0; row < count; row++) {
+                int c = assignment[row];
+                sizes[c]++;
+                int source = row * dimensions + sliceOffset;
+                for (int i = 0; i < sliceLength; i++) {
+                    sums[c * sliceLength + i] += vectors[source + i];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                // 빈 클러스터는 이전 중심을 유지
+                if (sizes[c] == 0) {
+                    continue;
+                }
+                for (int i = 0; i < sliceLength; i++) {
+                    centroids[c * sliceLength + i] = sums[c * sliceLength + i] / sizes[c];
+                }
+            }
+        }
+        return centroids;
+    }
+
+    private static int nearest(float[] centroids, int k, float[] vector, int offset, int length) {
+        int best = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            int base = c * length;
+            float distance = 0f;
+            for (int i = 0; i < length; i++) {
+                float diff = vector[offset + i] - centroids[base + i];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,91 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Full-precision vectors kept in a scratch file next to a quantized {@link DenseVectorStore}, one fixed-size
+ * record per slot. Only the few re-rank candidates of each query are read back, so the floats live in the
+ * OS page cache instead of on the Java heap. The file is deleted when closed.
+ */
+final class RawVectorFile implements AutoCloseable {
+
+    private final int dimensions;
+
+    private final int recordSize;
+
+    private final FileChannel channel;
+
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    RawVectorFile(int dimensions) {
+        this.dimensions = dimensions;
+        this.recordSize = dimensions * Float.BYTES;
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(this.recordSize));
+        try {
+            Path file = Files.createTempFile("dense-vectors", ".f32");
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to create raw vector file", e);
+        }
+    }
+
+    void write(int slot, float[] vector, int offset) {
+        ByteBuffer buffer = this.buffers.get().clear();
+        buffer.asFloatBuffer().put(vector, offset, this.dimensions);
+        try {
+            long position = (long) slot * this.recordSize;
+            while (buffer.hasRemaining()) {
+                position += this.channel.write(buffer, position);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to write raw vector " + slot, e);
+        }
+    }
+
+    void read(int slot, float[] target) {
+        ByteBuffer buffer = this.buffers.get().clear();
+        try {
+            long position = (long) slot * this.recordSize;
+            while (buffer.hasRemaining()) {
+                int read = this.channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of raw vector file");
+                }
+                position += read;
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to read raw vector " + slot, e);
+        }
+        buffer.flip();
+        buffer.asFloatBuffer().get(target, 0, this.dimensions);
+    }
+
+    /**
+     * Copies the record of slot {@code from} over slot {@code to}.
+     */
+    void move(int from, int to) {
+        float[] vector = new float[this.dimensions];
+        read(from, vector);
+        write(to, vector, 0);
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to close raw vector file", e);
+        }
+    }
+}
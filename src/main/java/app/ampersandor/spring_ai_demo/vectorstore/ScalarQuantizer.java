@@ -0,0 +1,98 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * int8 scalar quantization: every dimension is mapped linearly from its trained {@code [min, max]} range onto
+ * 256 levels, which cuts storage to a quarter of {@code float}.
+ * <p>
+ * With {@code x[i] ≈ min[i] + scale[i] * (c[i] + 128)} the dot product with a query {@code q} becomes
+ * {@code bias + Σ q[i]·scale[i]·c[i]}, so scoring needs one multiply-add per byte and no decoding.
+ */
+final class ScalarQuantizer implements VectorQuantizer {
+
+    private final int dimensions;
+
+    private final float[] min;
+
+    private final float[] scale;
+
+    private ScalarQuantizer(float[] min, float[] scale) {
+        this.dimensions = min.length;
+        this.min = min;
+        this.scale = scale;
+    }
+
+    /**
+     * Learns per-dimension ranges from the first {@code count} rows of a row-major matrix.
+     */
+    static ScalarQuantizer train(float[] vectors, int count, int dimensions) {
+        float[] min = new float[dimensions];
+        float[] max = new float[dimensions];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for (int row = 0, offset = 0; row < count; row++, offset += dimensions) {
+            for (int i = 0; i < dimensions; i++) {
+                float value = vectors[offset + i];
+                min[i] = Math.min(min[i], value);
+                max[i] = Math.max(max[i], value);
+            }
+        }
+        float[] scale = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            float range = max[i] - min[i];
+            scale[i] = range > 0f ? range / 255f : 1f;
+        }
+        return new ScalarQuantizer(min, scale);
+    }
+
+    static ScalarQuantizer readFrom(SnapshotInput in) throws IOException {
+        int dimensions = in.getInt();
+        float[] min = new float[dimensions];
+        float[] scale = new float[dimensions];
+        in.getFloats(min, 0, dimensions);
+        in.getFloats(scale, 0, dimensions);
+        return new ScalarQuantizer(min, scale);
+    }
+
+    @Override
+    public void writeTo(SnapshotOutput out) throws IOException {
+        out.putInt(this.dimensions);
+        out.putFloats(this.min, 0, this.dimensions);
+        out.putFloats(this.scale, 0, this.dimensions);
+    }
+
+    @Override
+    public int codeSize() {
+        return this.dimensions;
+    }
+
+    @Override
+    public void encode(float[] vector, byte[] codes, int offset) {
+        for (int i = 0; i < this.dimensions; i++) {
+            // 학습 범위를 벗어난 값은 양 끝으로 잘라낸다
+            int level = Math.round((vector[i] - this.min[i]) / this.scale[i]);
+            codes[offset + i] = (byte) (Math.max(0, Math.min(255, level)) - 128);
+        }
+    }
+
+    @Override
+    public Scorer scorer(float[] query) {
+        float[] weights = new float[this.dimensions];
+        float bias = 0f;
+        for (int i = 0; i < this.dimensions; i++) {
+            weights[i] = query[i] * this.scale[i];
+            bias += query[i] * this.min[i] + 128f * weights[i];
+        }
+        float constant = bias;
+        int dimensions = this.dimensions;
+        return (codes, offset) -> {
+            float sum = constant;
+            for (int i = 0; i < dimensions; i++) {
+                sum += weights[i] * codes[offset + i];
+            }
+            return sum;
+        };
+    }
+}
@@ -0,0 +1,119 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader for files produced by {@link SnapshotOutput}.
+ * The file is memory-mapped in windows of at most {@value #WINDOW_SIZE} bytes (a single mapping is capped at 2 GB),
+ * and primitive arrays are bulk-copied out of the mapping, so loading involves no parsing step.
+ */
+final class SnapshotInput {
+
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+
+    private final long fileSize;
+
+    private MappedByteBuffer window;
+
+    private long windowStart;
+
+    SnapshotInput(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        map(0);
+    }
+
+    long position() {
+        return this.windowStart + this.window.position();
+    }
+
+    int getInt() throws IOException {
+        ensureAvailable(Integer.BYTES);
+        return this.window.getInt();
+    }
+
+    long getLong() throws IOException {
+        ensureAvailable(Long.BYTES);
+        return this.window.getLong();
+    }
+
+    void getFloats(float[] target, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            ensureAvailable(Float.BYTES);
+            int chunk = Math.min(length - read, this.window.remaining() / Float.BYTES);
+            this.window.asFloatBuffer().get(target, offset + read, chunk);
+            this.window.position(this.window.position() + chunk * Float.BYTES);
+            read += chunk;
+        }
+    }
+
+    void getInts(int[] target, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            ensureAvailable(Integer.BYTES);
+            int chunk = Math.min(length - read, this.window.remaining() / Integer.BYTES);
+            this.window.asIntBuffer().get(target, offset + read, chunk);
+            this.window.position(this.window.position() + chunk * Integer.BYTES);
+            read += chunk;
+        }
+    }
+
+    double getDouble() throws IOException {
+        return Double.longBitsToDouble(getLong());
+    }
+
+    /**
+     * Reads a length-prefixed byte array.
+     */
+    byte[] getBytes() throws IOException {
+        byte[] bytes = new byte[getInt()];
+        getBytes(bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Reads raw bytes written without a length prefix.
+     */
+    void getBytes(byte[] target, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            ensureAvailable(1);
+            int chunk = Math.min(length - read, this.window.remaining());
+            this.window.get(target, offset + read, chunk);
+            read += chunk;
+        }
+    }
+
+    String getString() throws IOException {
+        ensureAvailable(Integer.BYTES);
+        int length = this.window.getInt(this.window.position());
+        if (length < 0) {
+            this.window.position(this.window.position() + Integer.BYTES);
+            return null;
+        }
+        return new String(getBytes(), StandardCharsets.UTF_8);
+    }
+
+    private void ensureAvailable(int bytes) throws IOException {
+        if (this.window.remaining() >= bytes) {
+            return;
+        }
+        long position = position();
+        if (position + bytes > this.fileSize) {
+            throw new IOException("Unexpected end of snapshot at offset " + position);
+        }
+        map(position);
+    }
+
+    private void map(long position) throws IOException {
+        long length = Math.min(WINDOW_SIZE, this.fileSize - position);
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        this.windowStart = position;
+    }
+}
@@ -0,0 +1,111 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered big-endian writer for the binary vector store files.
+ * Primitive arrays are copied through one direct buffer, so writing a large index never materializes
+ * a second heap copy of the embeddings.
+ */
+final class SnapshotOutput implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    SnapshotOutput(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    void putInt(int value) throws IOException {
+        ensureRemaining(Integer.BYTES);
+        this.buffer.putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+        ensureRemaining(Long.BYTES);
+        this.buffer.putLong(value);
+    }
+
+    void putFloats(float[] values, int offset, int length) throws IOException {
+        int written = 0;
+        while (written < length) {
+            ensureRemaining(Float.BYTES);
+            int chunk = Math.min(length - written, this.buffer.remaining() / Float.BYTES);
+            this.buffer.asFloatBuffer().put(values, offset + written, chunk);
+            this.buffer.position(this.buffer.position() + chunk * Float.BYTES);
+            written += chunk;
+        }
+    }
+
+    void putInts(int[] values, int offset, int length) throws IOException {
+        int written = 0;
+        while (written < length) {
+            ensureRemaining(Integer.BYTES);
+            int chunk = Math.min(length - written, this.buffer.remaining() / Integer.BYTES);
+            this.buffer.asIntBuffer().put(values, offset + written, chunk);
+            this.buffer.position(this.buffer.position() + chunk * Integer.BYTES);
+            written += chunk;
+        }
+    }
+
+    void putDouble(double value) throws IOException {
+        putLong(Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Length-prefixed byte array.
+     */
+    void putBytes(byte[] bytes) throws IOException {
+        putInt(bytes.length);
+        putBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Raw bytes without a length prefix, for regions whose size is known from the header.
+     */
+    void putBytes(byte[] bytes, int offset, int length) throws IOException {
+        int written = 0;
+        while (written < length) {
+            ensureRemaining(1);
+            int chunk = Math.min(length - written, this.buffer.remaining());
+            this.buffer.put(bytes, offset + written, chunk);
+            written += chunk;
+        }
+    }
+
+    /**
+     * Length-prefixed UTF-8 string; {@code null} is written as length -1.
+     */
+    void putString(String value) throws IOException {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        putBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (this.buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
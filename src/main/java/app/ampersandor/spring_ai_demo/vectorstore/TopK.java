@@ -0,0 +1,104 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+/**
+ * Bounded min-heap of (slot, score) pairs kept in primitive arrays.
+ * The root is the weakest of the current top-K, so a candidate is admitted with a single comparison
+ * and the heap never holds more than {@code k} entries.
+ */
+final class TopK {
+
+    private final int[] slots;
+    private final float[] scores;
+    private int size;
+
+    TopK(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive.");
+        }
+        this.slots = new int[k];
+        this.scores = new float[k];
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Lowest score a new candidate has to beat, or negative infinity while the heap is not full.
+     */
+    float threshold() {
+        return this.size < this.slots.length ? Float.NEGATIVE_INFINITY : this.scores[0];
+    }
+
+    void offer(int slot, float score) {
+        if (this.size < this.slots.length) {
+            int i = this.size++;
+            this.slots[i] = slot;
+            this.scores[i] = score;
+            siftUp(i);
+        }
+        else if (score > this.scores[0]) {
+            this.slots[0] = slot;
+            this.scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Drains the heap into the given arrays ordered by descending score.
+     * Returns the number of entries written.
+     */
+    int drainDescending(int[] outSlots, float[] outScores) {
+        int n = this.size;
+        for (int i = n - 1; i >= 0; i--) {
+            outSlots[i] = this.slots[0];
+            outScores[i] = this.scores[0];
+            this.size--;
+            if (this.size > 0) {
+                this.slots[0] = this.slots[this.size];
+                this.scores[0] = this.scores[this.size];
+                siftDown(0);
+            }
+        }
+        return n;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (this.scores[parent] <= this.scores[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= this.size) {
+                return;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < this.size && this.scores[right] < this.scores[left]) {
+                smallest = right;
+            }
+            if (this.scores[i] <= this.scores[smallest]) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int slot = this.slots[i];
+        this.slots[i] = this.slots[j];
+        this.slots[j] = slot;
+        float score = this.scores[i];
+        this.scores[i] = this.scores[j];
+        this.scores[j] = score;
+    }
+}
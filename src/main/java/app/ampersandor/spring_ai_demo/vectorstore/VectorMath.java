@@ -0,0 +1,54 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+/**
+ * Vector arithmetic shared by the in-memory vector stores.
+ * Dot products use the Vector API when the JVM was started with {@code --add-modules jdk.incubator.vector}
+ * and fall back to a plain loop otherwise, so the stores keep working on a vanilla JVM.
+ */
+public final class VectorMath {
+
+    private static final boolean SIMD_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private VectorMath() {
+    }
+
+    public static boolean isSimdAvailable() {
+        return SIMD_AVAILABLE;
+    }
+
+    /**
+     * Dot product of {@code length} floats starting at the given offsets.
+     * For unit-length vectors this is the cosine similarity.
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        if (SIMD_AVAILABLE) {
+            return SimdVectorOps.dot(a, aOffset, b, bOffset, length);
+        }
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    public static float dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Vectors lengths must be equal");
+        }
+        return dot(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Scales the vector to unit length in place and returns it.
+     * A zero vector is left untouched (its similarity to anything is 0).
+     */
+    public static float[] normalize(float[] vector) {
+        float norm = (float) Math.sqrt(dot(vector, 0, vector, 0, vector.length));
+        if (norm > 0f) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= norm;
+            }
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,34 @@
+package app.ampersandor.spring_ai_demo.vectorstore;
+
+import java.io.IOException;
+
+/**
+ * Lossy fixed-size encoding of unit-length vectors for {@link DenseVectorStore}.
+ * Queries stay in full precision: {@link #scorer(float[])} prepares per-query tables once so each stored
+ * code is scored without being decoded (asymmetric distance computation).
+ */
+interface VectorQuantizer {
+
+    /**
+     * Bytes needed to encode one vector.
+     */
+    int codeSize();
+
+    void encode(float[] vector, byte[] codes, int offset);
+
+    Scorer scorer(float[] query);
+
+    /**
+     * Writes the trained parameters; each implementation reads them back with a static {@code readFrom}.
+     */
+    void writeTo(SnapshotOutput out) throws IOException;
+
+    /**
+     * Approximate dot product between a prepared query and an encoded vector.
+     */
+    @FunctionalInterface
+    interface Scorer {
+
+        float score(byte[] codes, int offset);
+    }
+}
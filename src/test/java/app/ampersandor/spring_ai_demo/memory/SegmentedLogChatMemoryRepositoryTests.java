@@ -0,0 +1,151 @@
+package app.ampersandor.spring_ai_demo.memory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentedLogChatMemoryRepositoryTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void recoversTheLatestWindowOfEachConversation() {
+		try (SegmentedLogChatMemoryRepository repository = open(1024 * 1024)) {
+			repository.saveAll("a", exchange("a", 1));
+			repository.saveAll("a", exchange("a", 2));
+			repository.saveAll("b", exchange("b", 1));
+			repository.saveAll("c", exchange("c", 1));
+			repository.deleteByConversationId("c");
+		}
+
+		try (SegmentedLogChatMemoryRepository repository = open(1024 * 1024)) {
+			assertThat(repository.findConversationIds()).containsExactlyInAnyOrder("a", "b");
+			assertThat(texts(repository.findByConversationId("a"))).isEqualTo(texts(exchange("a", 2)));
+			assertThat(texts(repository.findByConversationId("b"))).isEqualTo(texts(exchange("b", 1)));
+		}
+	}
+
+	@Test
+	void dropsARecordCutShortByACrash() throws IOException {
+		try (SegmentedLogChatMemoryRepository repository = open(1024 * 1024)) {
+			repository.saveAll("a", exchange("a", 1));
+		}
+		try (SegmentedLogChatMemoryRepository repository = open(1024 * 1024)) {
+			repository.saveAll("a", exchange("a", 2));
+		}
+		Path last = segments().getLast();
+		truncate(last, Files.size(last) - 5);
+
+		try (SegmentedLogChatMemoryRepository repository = open(1024 * 1024)) {
+			assertThat(texts(repository.findByConversationId("a"))).isEqualTo(texts(exchange("a", 1)));
+			// 잘린 꼬리를 지운 뒤에 이어 쓴 레코드는 다시 읽혀야 한다
+			repository.saveAll("a", exchange("a", 3));
+		}
+		try (SegmentedLogChatMemoryRepository repository = open(1024 * 1024)) {
+			assertThat(texts(repository.findByConversationId("a"))).isEqualTo(texts(exchange("a", 3)));
+		}
+	}
+
+	@Test
+	void stopsAtARecordWithABadChecksum() throws IOException {
+		try (SegmentedLogChatMemoryRepository repository = open(1024 * 1024)) {
+			repository.saveAll("a", exchange("a", 1));
+		}
+		Path segment = segments().getLast();
+		long validEnd = Files.size(segment);
+		try (SegmentedLogChatMemoryRepository repository = open(1024 * 1024)) {
+			repository.saveAll("a", exchange("a", 2));
+			repository.saveAll("b", exchange("b", 1));
+		}
+		flipByte(segment, Files.size(segment) - 3);
+
+		try (SegmentedLogChatMemoryRepository repository = open(1024 * 1024)) {
+			// b 의 레코드만 손상됐고 그 앞의 a 는 그대로 남는다
+			assertThat(repository.findConversationIds()).containsExactly("a");
+			assertThat(texts(repository.findByConversationId("a"))).isEqualTo(texts(exchange("a", 2)));
+		}
+		assertThat(Files.size(segment)).isGreaterThan(validEnd);
+	}
+
+	@Test
+	void recoversAcrossACompaction() throws IOException {
+		long segmentBytes = 512;
+		try (SegmentedLogChatMemoryRepository repository = open(segmentBytes)) {
+			for (int turn = 1; turn <= 100; turn++) {
+				repository.saveAll("a", exchange("a", turn));
+				repository.saveAll("b", exchange("b", turn));
+			}
+			repository.deleteByConversationId("b");
+			repository.saveAll("c", exchange("c", 1));
+		}
+		// 200 개 레코드가 수십 개 세그먼트를 채웠겠지만 compaction 뒤에는 스냅숏과 그 뒤 몇 개만 남는다
+		assertThat(segments().size()).isLessThanOrEqualTo(5);
+		Files.writeString(this.directory.resolve("%020d.log.tmp".formatted(999)), "unfinished snapshot");
+
+		try (SegmentedLogChatMemoryRepository repository = open(segmentBytes)) {
+			assertThat(repository.findConversationIds()).containsExactlyInAnyOrder("a", "c");
+			assertThat(texts(repository.findByConversationId("a"))).isEqualTo(texts(exchange("a", 100)));
+			assertThat(texts(repository.findByConversationId("c"))).isEqualTo(texts(exchange("c", 1)));
+			repository.saveAll("c", exchange("c", 2));
+		}
+		assertThat(Files.exists(this.directory.resolve("%020d.log.tmp".formatted(999)))).isFalse();
+		// 헤더만 쓰이고 끊긴 레코드
+		Path last = segments().getLast();
+		long validEnd = Files.size(last);
+		Files.write(last, new byte[] { 0, 0, 4, 0, 1, 2 }, StandardOpenOption.APPEND);
+
+		try (SegmentedLogChatMemoryRepository repository = open(segmentBytes)) {
+			assertThat(texts(repository.findByConversationId("a"))).isEqualTo(texts(exchange("a", 100)));
+			assertThat(texts(repository.findByConversationId("c"))).isEqualTo(texts(exchange("c", 2)));
+		}
+		assertThat(Files.size(last)).isEqualTo(validEnd);
+	}
+
+	private SegmentedLogChatMemoryRepository open(long segmentBytes) {
+		return new SegmentedLogChatMemoryRepository(this.directory, segmentBytes, new ObjectMapper(),
+				new SimpleMeterRegistry());
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(this.directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().toList();
+		}
+	}
+
+	private static List<Message> exchange(String conversationId, int turn) {
+		return List.of(new UserMessage("question " + turn + " in " + conversationId),
+				new AssistantMessage("answer " + turn + " in " + conversationId));
+	}
+
+	private static List<String> texts(List<Message> messages) {
+		return messages.stream().map(message -> message.getMessageType() + ":" + message.getText()).toList();
+	}
+
+	private static void truncate(Path file, long size) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(size);
+		}
+	}
+
+	private static void flipByte(Path file, long position) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[(int) position] ^= 0x5A;
+		Files.write(file, bytes);
+	}
+
+}
@@ -0,0 +1,63 @@
+package app.ampersandor.spring_ai_demo.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffsetTextSplitterTests {
+
+	@Test
+	void producesTheSameChunksAsLengthTextSplitter() {
+		Random random = new Random(42);
+		int[][] settings = { { 400, 200 }, { 10, 0 }, { 10, 9 }, { 7, 3 }, { 1, 0 } };
+		for (int[] setting : settings) {
+			LengthTextSplitter expected = new LengthTextSplitter(setting[0], setting[1]);
+			OffsetTextSplitter actual = new OffsetTextSplitter(setting[0], setting[1],
+					OffsetTextSplitter.Boundary.NONE);
+			for (int length : new int[] { 1, setting[1], setting[0], setting[0] + 1, 3 * setting[0] + 5, 2000 }) {
+				String text = randomText(random, Math.max(length, 1));
+				assertThat(actual.splitText(text)).as("size=%d overlap=%d length=%d", setting[0], setting[1], length)
+					.isEqualTo(expected.splitText(text));
+			}
+		}
+	}
+
+	@Test
+	void returnsNoChunksForBlankText() {
+		OffsetTextSplitter splitter = new OffsetTextSplitter(10, 2, OffsetTextSplitter.Boundary.NONE);
+
+		assertThat(splitter.splitText("")).isEmpty();
+		assertThat(splitter.splitText("   \n\t")).isEmpty();
+	}
+
+	@Test
+	void endsChunksAtWhitespace() {
+		OffsetTextSplitter splitter = new OffsetTextSplitter(12, 0, OffsetTextSplitter.Boundary.WHITESPACE);
+
+		List<String> chunks = splitter.splitText("alpha beta gamma delta epsilon");
+
+		assertThat(chunks).containsExactly("alpha beta ", "gamma delta ", "epsilon");
+	}
+
+	@Test
+	void endsChunksAtSentenceEnds() {
+		OffsetTextSplitter splitter = new OffsetTextSplitter(20, 0, OffsetTextSplitter.Boundary.SENTENCE);
+
+		List<String> chunks = splitter.splitText("One two three. Four five six seven.");
+
+		assertThat(chunks).containsExactly("One two three.", " Four five six seven", ".");
+	}
+
+	private static String randomText(Random random, int length) {
+		String alphabet = "abc 가나다.\n";
+		StringBuilder text = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,167 @@
+package app.ampersandor.spring_ai_demo.stream;
+
+import app.ampersandor.spring_ai_demo.dto.StreamOptions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SseTokenStreamerTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+
+	private final List<Disposable> timers = new CopyOnWriteArrayList<>();
+
+	private final Sinks.Many<ChatResponse> responses = Sinks.many().unicast().onBackpressureBuffer();
+
+	private final List<ServerSentEvent<String>> events = new CopyOnWriteArrayList<>();
+
+	@AfterEach
+	void disposeScheduler() {
+		this.scheduler.dispose();
+	}
+
+	@Test
+	void sendsTheFirstTokenAtOnceAndFlushesTheRestAfterMaxDelay() {
+		subscribe(1024, Duration.ofMillis(50));
+
+		emit("Hel");
+		assertThat(frames()).containsExactly("Hel");
+
+		emit("lo");
+		emit(" world");
+		this.scheduler.advanceTimeBy(Duration.ofMillis(49));
+		assertThat(frames()).containsExactly("Hel");
+
+		this.scheduler.advanceTimeBy(Duration.ofMillis(1));
+		assertThat(frames()).containsExactly("Hel", "lo world");
+	}
+
+	@Test
+	void flushesOnceMaxBytesAreBuffered() {
+		subscribe(6, Duration.ofSeconds(1));
+
+		emit("첫");
+		emit("가");
+		assertThat(frames()).containsExactly("첫");
+
+		// 한글 두 글자로 6 바이트가 차면 타이머를 기다리지 않는다
+		emit("나");
+		assertThat(frames()).containsExactly("첫", "가나");
+		assertThat(this.timers).hasSize(1);
+		assertThat(this.timers.getFirst().isDisposed()).isTrue();
+
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(1));
+		assertThat(frames()).containsExactly("첫", "가나");
+	}
+
+	@Test
+	void endsWithTheUsageEvent() throws Exception {
+		subscribe(1024, Duration.ofMillis(50));
+
+		emit("Hello");
+		emit(" there");
+		this.responses.tryEmitNext(new ChatResponse(
+				List.of(new Generation(new AssistantMessage(""),
+						ChatGenerationMetadata.builder().finishReason("STOP").build())),
+				ChatResponseMetadata.builder().model("test-model").usage(new DefaultUsage(3, 2)).build()));
+		this.responses.tryEmitComplete();
+
+		assertThat(frames()).containsExactly("Hello", " there");
+		ServerSentEvent<String> last = this.events.getLast();
+		assertThat(last.event()).isEqualTo(SseTokenStreamer.USAGE_EVENT);
+		SseTokenStreamer.StreamUsage usage = this.objectMapper.readValue(last.data(),
+				SseTokenStreamer.StreamUsage.class);
+		assertThat(usage.model()).isEqualTo("test-model");
+		assertThat(usage.finishReason()).isEqualTo("STOP");
+		assertThat(usage.promptTokens()).isEqualTo(3);
+		assertThat(usage.completionTokens()).isEqualTo(2);
+		assertThat(usage.totalTokens()).isEqualTo(5);
+		assertThat(usage.tokens()).isEqualTo(2);
+		assertThat(usage.frames()).isEqualTo(2);
+		assertThat(usage.bytes()).isEqualTo(11);
+	}
+
+	@Test
+	void cancellingTheStreamDisposesThePendingTimer() {
+		Disposable subscription = subscribe(1024, Duration.ofMillis(50));
+
+		emit("first");
+		emit("buffered");
+		assertThat(this.timers).hasSize(1);
+		assertThat(this.timers.getFirst().isDisposed()).isFalse();
+
+		subscription.dispose();
+
+		assertThat(this.timers.getFirst().isDisposed()).isTrue();
+		assertThat(this.responses.currentSubscriberCount()).isZero();
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(1));
+		assertThat(frames()).containsExactly("first");
+	}
+
+	private Disposable subscribe(int maxBytes, Duration maxDelay) {
+		SseTokenStreamer streamer = new SseTokenStreamer("test",
+				new SseTokenStreamer.Coalescing(true, maxBytes, maxDelay), this.objectMapper,
+				new SimpleMeterRegistry(), trackingTimers());
+		return streamer.stream(this.responses.asFlux(), new StreamOptions(null, null, null))
+			.subscribe(this.events::add);
+	}
+
+	// 지연 작업(flush 타이머)을 기록해 두어 dispose 여부를 확인할 수 있게 한다
+	private Scheduler trackingTimers() {
+		VirtualTimeScheduler delegate = this.scheduler;
+		List<Disposable> timers = this.timers;
+		return new Scheduler() {
+
+			@Override
+			public Disposable schedule(Runnable task) {
+				return delegate.schedule(task);
+			}
+
+			@Override
+			public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+				Disposable timer = Disposables.composite(delegate.schedule(task, delay, unit));
+				timers.add(timer);
+				return timer;
+			}
+
+			@Override
+			public Worker createWorker() {
+				return delegate.createWorker();
+			}
+		};
+	}
+
+	private void emit(String token) {
+		this.responses.tryEmitNext(new ChatResponse(List.of(new Generation(new AssistantMessage(token)))));
+	}
+
+	private List<String> frames() {
+		return this.events.stream()
+			.filter(event -> !SseTokenStreamer.USAGE_EVENT.equals(event.event()))
+			.map(ServerSentEvent::data)
+			.toList();
+	}
+
+}
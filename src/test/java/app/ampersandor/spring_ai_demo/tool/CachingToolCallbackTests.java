@@ -0,0 +1,112 @@
+package app.ampersandor.spring_ai_demo.tool;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.execution.ToolExecutionException;
+import org.springframework.web.client.RestClient;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachingToolCallbackTests {
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	private HttpServer server;
+
+	@BeforeEach
+	void startStubServer() throws Exception {
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/", exchange -> {
+			this.requests.incrementAndGet();
+			try {
+				// 동시 호출이 진행 중인 요청에 합류하도록 응답을 늦춘다
+				Thread.sleep(200);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			byte[] body = "맑음".getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		this.server.start();
+	}
+
+	@AfterEach
+	void stopStubServer() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	void fetchesSameLocationOnceAcrossConcurrentCalls() throws Exception {
+		Tools tools = new Tools(RestClient.builder(), "http://localhost:" + this.server.getAddress().getPort(),
+				Duration.ofSeconds(5));
+		ToolCallback getWeather = toolCallback(tools, "getWeather");
+		List<String> inputs = List.of("{\"location\":\"서울\"}", "{\"location\":\" 서울 \"}",
+				"{ \"location\" : \"서울\" }");
+		List<Future<String>> results = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			String input = inputs.get(i % inputs.size());
+			results.add(this.executor.submit(() -> getWeather.call(input)));
+		}
+		for (Future<String> result : results) {
+			assertThat(result.get()).contains("맑음");
+		}
+		assertThat(getWeather.call("{\"location\":\"서울\"}")).contains("맑음");
+		assertThat(this.requests).hasValue(1);
+
+		getWeather.call("{\"location\":\"부산\"}");
+		assertThat(this.requests).hasValue(2);
+	}
+
+	@Test
+	void failsCallsThatExceedTheTimeout() {
+		ToolCallback slow = toolCallback(new SlowTools(), "slow");
+
+		assertThatThrownBy(() -> slow.call("{\"input\":\"a\"}")).isInstanceOf(ToolExecutionException.class)
+				.hasMessageContaining("did not respond within");
+	}
+
+	private ToolCallback toolCallback(Object tools, String name) {
+		return Arrays.stream(CachingToolCallback.decorate(tools, this.executor, new ObjectMapper(),
+						new SimpleMeterRegistry()))
+				.filter(callback -> callback.getToolDefinition().name().equals(name))
+				.findFirst()
+				.orElseThrow();
+	}
+
+	static class SlowTools {
+
+		@CachedTool(ttl = "1m", timeout = "100ms")
+		@Tool(description = "Answers after a second")
+		public String slow(String input) throws InterruptedException {
+			Thread.sleep(1000);
+			return input;
+		}
+	}
+
+}